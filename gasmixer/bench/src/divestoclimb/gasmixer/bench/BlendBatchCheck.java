@@ -0,0 +1,100 @@
+package divestoclimb.gasmixer.bench;
+
+import java.util.Random;
+
+import divestoclimb.gasmixer.blend.BlendBatch;
+import divestoclimb.gasmixer.blend.BlendEngine;
+import divestoclimb.gasmixer.blend.BlendPlan;
+import divestoclimb.gasmixer.blend.BlendRequest;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Checks BlendBatch against solving each blend on its own with BlendEngine
+ * and ideal gases. Random blends are solved both ways, and the status and
+ * each amount must agree. Prints the first few disagreements and exits with
+ * status 1 if there are any.
+ *
+ * Arguments are the number of blends (default 100000) and the random seed
+ * (default 1).
+ */
+public class BlendBatchCheck {
+
+	// Amounts may differ by this fraction of the final amount
+	private static final double TOLERANCE = 1e-6;
+	private static final int SHOWN = 10;
+	private static final float TEMPERATURE = 293;
+
+	public static void main(String args[]) {
+		final int n = args.length > 0? Integer.parseInt(args[0]): 100000;
+		final long seed = args.length > 1? Long.parseLong(args[1]): 1;
+		final Random random = new Random(seed);
+		final Units u = new Units(Units.METRIC);
+		final Mix rich = new Mix(1, 0), topup = new Mix(0.21, 0);
+		final BlendBatch batch = new BlendBatch(n, rich.getfO2(), topup.getfO2(), topup.getfHe());
+		final Mix start[] = new Mix[n], target[] = new Mix[n];
+		for(int i = 0; i < n; i ++) {
+			start[i] = randomMix(random);
+			target[i] = randomMix(random);
+			batch.startO2[i] = start[i].getfO2();
+			batch.startHe[i] = start[i].getfHe();
+			batch.targetO2[i] = target[i].getfO2();
+			batch.targetHe[i] = target[i].getfHe();
+			// GasSupply only takes whole pressures
+			batch.startPressure[i] = random.nextInt(201);
+			batch.targetPressure[i] = 100 + random.nextInt(201);
+			batch.volume[i] = 3 + random.nextInt(20);
+		}
+		batch.solve();
+
+		final BlendEngine engine = new BlendEngine();
+		int statusDiffs = 0, amountDiffs = 0;
+		for(int i = 0; i < n; i ++) {
+			final Cylinder c = new Cylinder(u, (float)batch.volume[i], 300);
+			final GasSupply have = new GasSupply(c, start[i], (int)batch.startPressure[i], true, TEMPERATURE),
+				want = new GasSupply(c, target[i], (int)batch.targetPressure[i], true, TEMPERATURE);
+			final BlendPlan plan = engine.solve(new BlendRequest(have, want, topup, rich,
+					BlendEngine.MODE_PARTIAL_PRESSURE, false, u));
+			if(plan.getStatus() != batch.status[i]) {
+				if(statusDiffs ++ < SHOWN) {
+					System.out.println("#" + i + ": status " + batch.status[i] + ", engine " + plan.getStatus());
+				}
+				continue;
+			}
+			if(! plan.isSolved()) {
+				continue;
+			}
+			// GasSupply measures amounts in its own unit, which under ideal
+			// gas laws is a fixed multiple of pressure times volume
+			final double scale = batch.targetPressure[i] * batch.volume[i] / want.getGasAmount(),
+				limit = TOLERANCE * batch.targetPressure[i] * batch.volume[i];
+			final double expected[] = {
+				plan.getStartAmount() * scale, plan.getO2Amount() * scale,
+				plan.getHeAmount() * scale, plan.getTopupAmount() * scale
+			}, actual[] = { batch.vi[i], batch.vo2a[i], batch.vhea[i], batch.vta[i] };
+			for(int k = 0; k < expected.length; k ++) {
+				if(Math.abs(expected[k] - actual[k]) > limit) {
+					if(amountDiffs ++ < SHOWN) {
+						System.out.println("#" + i + ": amount " + k + " " + actual[k] + ", engine " + expected[k]);
+					}
+					break;
+				}
+			}
+		}
+		System.out.println(n + " blends, " + statusDiffs + " status and " + amountDiffs
+				+ " amount disagreements");
+		if(statusDiffs + amountDiffs > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return A mix in whole percents
+	 */
+	private static Mix randomMix(Random random) {
+		final int o2 = 5 + random.nextInt(96), he = random.nextInt(101 - o2);
+		return new Mix(o2 / 100.0, he / 100.0);
+	}
+}
@@ -0,0 +1,151 @@
+package divestoclimb.gasmixer.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import divestoclimb.gasmixer.blend.BlendEngine;
+import divestoclimb.gasmixer.blend.BlendRequest;
+import divestoclimb.gasmixer.blend.BlendSolver;
+import divestoclimb.gasmixer.blend.InventoryGas;
+import divestoclimb.gasmixer.blend.InventoryOptimizer;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Benchmarks of the blend solver and the step generators for each blend mode,
+ * swept over starting pressure, target mix and cylinder size. The inventory
+ * optimizer is measured against a station with a dozen gases.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlendBenchmark {
+
+	/** Starting pressure in bar. The starting gas is air. */
+	@Param({ "0", "50", "100" })
+	public int startPressure;
+
+	/** Target mix as "fO2 fHe", always filled to 232 bar */
+	@Param({ "0.32 0", "0.21 0.35", "0.18 0.45" })
+	public String target;
+
+	/** Internal volume of the cylinder in liters */
+	@Param({ "11.1", "24" })
+	public float cylinderVolume;
+
+	/** Whether to use Van der Waals instead of ideal gas laws */
+	@Param({ "false", "true" })
+	public boolean real;
+
+	private static final int FILL_PRESSURE = 232;
+	private static final float TEMPERATURE = 294;
+
+	private BlendEngine mEngine;
+	private BlendRequest mPPRequest, mNxRequest, mTmxRequest;
+	private final double mResult[] = new double[BlendSolver.RESULT_SIZE];
+	private InventoryOptimizer mOptimizer;
+	private List<InventoryGas> mInventory;
+	private GasSupply mHave, mWant;
+	private Units mUnits;
+
+	// Primitive inputs for the bare solver
+	private double fo2i, fhei, fo2r, fo2t, fhet, vi, vo2i, vhei, vn2i, vo2f, vhef, vn2f;
+
+	@Setup
+	public void setup() {
+		final Units u = new Units(Units.METRIC);
+		final Cylinder c = new Cylinder(u, cylinderVolume, FILL_PRESSURE);
+		final String fractions[] = target.split(" ");
+		final Mix air = new Mix(0.21, 0),
+			desired = new Mix(Double.parseDouble(fractions[0]), Double.parseDouble(fractions[1])),
+			rich = new Mix(1, 0);
+		final GasSupply have = new GasSupply(c, air, startPressure, ! real, TEMPERATURE),
+			want = new GasSupply(c, desired, FILL_PRESSURE, ! real, TEMPERATURE);
+
+		mEngine = new BlendEngine();
+		mPPRequest = new BlendRequest(have, want, air, rich,
+				BlendEngine.MODE_PARTIAL_PRESSURE, false, u);
+		mNxRequest = mPPRequest.withMode(BlendEngine.MODE_CONTINUOUS_NITROX);
+		mTmxRequest = mPPRequest.withMode(BlendEngine.MODE_CONTINUOUS_TRIMIX);
+
+		// Costs are per liter, amounts in liters
+		mOptimizer = new InventoryOptimizer();
+		mInventory = new ArrayList<InventoryGas>();
+		mInventory.add(new InventoryGas(new Mix(1, 0), 0.02, 3000));
+		mInventory.add(new InventoryGas(new Mix(0, 1), 0.15, 1500));
+		mInventory.add(new InventoryGas(new Mix(0.32, 0), 0.01, 2000));
+		mInventory.add(new InventoryGas(new Mix(0.36, 0), 0.012, 500));
+		mInventory.add(new InventoryGas(new Mix(0.10, 0.70), 0.09, 800));
+		// Air from the compressor is unlimited
+		mInventory.add(new InventoryGas(air, 0.001, Double.POSITIVE_INFINITY));
+		for(int i = 0; i < 6; i ++) {
+			// Leftover trimix cylinders
+			mInventory.add(new InventoryGas(new Mix(0.15 + 0.05 * i, 0.1 * i),
+					0.05 + 0.01 * i, 100 * (i + 1)));
+		}
+		mHave = have;
+		mWant = want;
+		mUnits = u;
+
+		fo2i = air.getfO2();
+		fhei = air.getfHe();
+		fo2r = rich.getfO2();
+		fo2t = air.getfO2();
+		fhet = air.getfHe();
+		vi = have.getGasAmount();
+		vo2i = have.getO2Amount();
+		vhei = have.getHeAmount();
+		vn2i = have.getN2Amount();
+		vo2f = want.getO2Amount();
+		vhef = want.getHeAmount();
+		vn2f = want.getN2Amount();
+	}
+
+	@Benchmark
+	public void solver(Blackhole bh) {
+		final double result[] = mResult;
+		bh.consume(BlendSolver.solve(fo2i, fhei, fo2r, fo2t, fhet,
+				vi, vo2i, vhei, vn2i, vo2f, vhef, vn2f, result));
+		bh.consume(result[BlendSolver.VI]);
+		bh.consume(result[BlendSolver.VTA]);
+	}
+
+	@Benchmark
+	public Object partialPressureSteps() {
+		return mEngine.solve(mPPRequest);
+	}
+
+	@Benchmark
+	public Object continuousNitroxSteps() {
+		return mEngine.solve(mNxRequest);
+	}
+
+	@Benchmark
+	public Object continuousTrimixSteps() {
+		return mEngine.solve(mTmxRequest);
+	}
+
+	@Benchmark
+	public Object inventoryOptimizer() {
+		return mOptimizer.optimize(mHave, mWant, mInventory, mUnits);
+	}
+}
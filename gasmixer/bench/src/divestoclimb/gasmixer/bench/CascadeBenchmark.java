@@ -0,0 +1,69 @@
+package divestoclimb.gasmixer.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import divestoclimb.gasmixer.blend.CascadeSimulator;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Benchmarks of the cascade simulator: a single simulation in lowest bank
+ * first order, and a sweep over every bank order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CascadeBenchmark {
+
+	/** Number of 50 liter air banks, charged from 300 bar down in 25 bar steps */
+	@Param({ "3", "5", "7" })
+	public int banks;
+
+	/** Whether to use Van der Waals instead of ideal gas laws */
+	@Param({ "false", "true" })
+	public boolean real;
+
+	private CascadeSimulator mSimulator;
+	private int mLowestFirst[], mBest[];
+
+	@Setup
+	public void setup() {
+		final Units u = new Units(Units.METRIC);
+		final Mix air = new Mix(0.21, 0);
+		mSimulator = new CascadeSimulator(u, real, 294);
+		mLowestFirst = new int[banks];
+		for(int i = 0; i < banks; i ++) {
+			mSimulator.addBank(new Cylinder(u, 50, 300), air, 300 - 25 * i);
+			mLowestFirst[i] = banks - 1 - i;
+		}
+		// 12 liter cylinders coming back with 30 bar
+		mSimulator.setCylinder(new Cylinder(u, 12, 232), air, 30, 232);
+		mBest = new int[banks];
+	}
+
+	@Benchmark
+	public int simulate() {
+		return mSimulator.simulate(mLowestFirst, banks);
+	}
+
+	@Benchmark
+	public int optimize() {
+		return mSimulator.optimize(mBest);
+	}
+}
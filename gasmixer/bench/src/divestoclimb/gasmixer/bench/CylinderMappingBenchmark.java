@@ -0,0 +1,299 @@
+package divestoclimb.gasmixer.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.Units;
+import divestoclimb.scuba.equipment.storage.CylinderORMapper;
+import divestoclimb.scuba.equipment.storage.CylinderRowMapper;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * Benchmarks of mapping a cursor of cylinder rows to Cylinders, with the
+ * generic reflective ORMapper and with CylinderRowMapper. The rows are held
+ * in memory by a minimal Cursor, since the Android cursors don't run on a
+ * desktop JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CylinderMappingBenchmark {
+
+	/** The number of rows in the cursor */
+	@Param({ "10000" })
+	public int rows;
+
+	/** Units system, Units.IMPERIAL or Units.METRIC */
+	@Param({ "0", "1" })
+	public int units;
+
+	private static final String COLUMNS[] = {
+		CylinderORMapper._ID, CylinderORMapper.NAME, CylinderORMapper.INTERNAL_VOLUME,
+		CylinderORMapper.SERVICE_PRESSURE, CylinderORMapper.TYPE, CylinderORMapper.SERIAL_NUMBER,
+		CylinderORMapper.LAST_HYDRO, CylinderORMapper.LAST_VISUAL,
+		CylinderORMapper.HYDRO_INTERVAL_YEARS, CylinderORMapper.VISUAL_INTERVAL_MONTHS
+	};
+
+	private ArrayCursor mCursor;
+	private CylinderORMapper mMapper;
+
+	@Setup
+	public void setup() {
+		final Object data[][] = new Object[rows][];
+		for(int i = 0; i < rows; i ++) {
+			// Every other row is a specific cylinder with test dates
+			final boolean specific = i % 2 == 1;
+			data[i] = new Object[] {
+				Long.valueOf(i + 1), "Cylinder " + i, Double.valueOf(11.1 + i % 7),
+				Double.valueOf(206.896551), Long.valueOf(specific? Cylinder.TYPE_SPECIFIC: Cylinder.TYPE_GENERIC),
+				specific? "SN" + i: null, specific? "2010-05": null, specific? "2011-02": null,
+				specific? Long.valueOf(5): null, null
+			};
+		}
+		mCursor = new ArrayCursor(COLUMNS, data);
+		// The context is only used for queries
+		mMapper = new CylinderORMapper(null, new Units(units));
+	}
+
+	@Benchmark
+	public List<Cylinder> reflective() {
+		final ArrayCursor c = mCursor;
+		final List<Cylinder> result = new ArrayList<Cylinder>(rows);
+		c.moveToPosition(-1);
+		while(c.moveToNext()) {
+			result.add(mMapper.fetchReflective(c));
+		}
+		return result;
+	}
+
+	@Benchmark
+	public List<Cylinder> compiled() {
+		final ArrayCursor c = mCursor;
+		final List<Cylinder> result = new ArrayList<Cylinder>(rows);
+		c.moveToPosition(-1);
+		while(c.moveToNext()) {
+			result.add(mMapper.fetch(c));
+		}
+		return result;
+	}
+
+	/**
+	 * A new mapper each time, so the column lookup is included
+	 */
+	@Benchmark
+	public List<Cylinder> compiledMapAll() {
+		return new CylinderRowMapper(mMapper.getUnits()).mapAll(mCursor);
+	}
+
+	/**
+	 * A read-only Cursor over rows held in memory. Numbers are stored as
+	 * Long or Double and converted as SQLite would.
+	 */
+	static final class ArrayCursor implements Cursor {
+		private final String mColumns[];
+		private final Object mRows[][];
+		private int mPosition = -1;
+		private boolean mClosed;
+
+		ArrayCursor(String columns[], Object rows[][]) {
+			mColumns = columns;
+			mRows = rows;
+		}
+
+		private Object get(int column) {
+			return mRows[mPosition][column];
+		}
+
+		public int getCount() {
+			return mRows.length;
+		}
+
+		public int getPosition() {
+			return mPosition;
+		}
+
+		public boolean move(int offset) {
+			return moveToPosition(mPosition + offset);
+		}
+
+		public boolean moveToPosition(int position) {
+			mPosition = Math.max(-1, Math.min(mRows.length, position));
+			return mPosition >= 0 && mPosition < mRows.length;
+		}
+
+		public boolean moveToFirst() {
+			return moveToPosition(0);
+		}
+
+		public boolean moveToLast() {
+			return moveToPosition(mRows.length - 1);
+		}
+
+		public boolean moveToNext() {
+			return moveToPosition(mPosition + 1);
+		}
+
+		public boolean moveToPrevious() {
+			return moveToPosition(mPosition - 1);
+		}
+
+		public boolean isFirst() {
+			return mRows.length > 0 && mPosition == 0;
+		}
+
+		public boolean isLast() {
+			return mRows.length > 0 && mPosition == mRows.length - 1;
+		}
+
+		public boolean isBeforeFirst() {
+			return mRows.length == 0 || mPosition == -1;
+		}
+
+		public boolean isAfterLast() {
+			return mRows.length == 0 || mPosition == mRows.length;
+		}
+
+		public int getColumnIndex(String columnName) {
+			for(int i = 0; i < mColumns.length; i ++) {
+				if(mColumns[i].equals(columnName)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		public int getColumnIndexOrThrow(String columnName) {
+			final int i = getColumnIndex(columnName);
+			if(i == -1) {
+				throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+			}
+			return i;
+		}
+
+		public String getColumnName(int columnIndex) {
+			return mColumns[columnIndex];
+		}
+
+		public String[] getColumnNames() {
+			return mColumns;
+		}
+
+		public int getColumnCount() {
+			return mColumns.length;
+		}
+
+		public byte[] getBlob(int columnIndex) {
+			final Object o = get(columnIndex);
+			return o == null? null: o.toString().getBytes();
+		}
+
+		public String getString(int columnIndex) {
+			final Object o = get(columnIndex);
+			return o == null? null: o.toString();
+		}
+
+		public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+			final String s = getString(columnIndex);
+			buffer.data = s == null? new char[0]: s.toCharArray();
+			buffer.sizeCopied = buffer.data.length;
+		}
+
+		public short getShort(int columnIndex) {
+			return (short)getLong(columnIndex);
+		}
+
+		public int getInt(int columnIndex) {
+			return (int)getLong(columnIndex);
+		}
+
+		public long getLong(int columnIndex) {
+			final Object o = get(columnIndex);
+			return o == null? 0: ((Number)o).longValue();
+		}
+
+		public float getFloat(int columnIndex) {
+			return (float)getDouble(columnIndex);
+		}
+
+		public double getDouble(int columnIndex) {
+			final Object o = get(columnIndex);
+			return o == null? 0: ((Number)o).doubleValue();
+		}
+
+		public int getType(int columnIndex) {
+			final Object o = get(columnIndex);
+			// The values of Cursor.FIELD_TYPE_*, which need API level 11
+			return o == null? 0: o instanceof Long? 1: o instanceof Double? 2: 3;
+		}
+
+		public boolean isNull(int columnIndex) {
+			return get(columnIndex) == null;
+		}
+
+		public void deactivate() {
+		}
+
+		public boolean requery() {
+			return ! mClosed;
+		}
+
+		public void close() {
+			mClosed = true;
+		}
+
+		public boolean isClosed() {
+			return mClosed;
+		}
+
+		public void registerContentObserver(ContentObserver observer) {
+		}
+
+		public void unregisterContentObserver(ContentObserver observer) {
+		}
+
+		public void registerDataSetObserver(DataSetObserver observer) {
+		}
+
+		public void unregisterDataSetObserver(DataSetObserver observer) {
+		}
+
+		public void setNotificationUri(ContentResolver cr, Uri uri) {
+		}
+
+		public boolean getWantsAllOnMoveCalls() {
+			return false;
+		}
+
+		public Bundle getExtras() {
+			return null;
+		}
+
+		public Bundle respond(Bundle extras) {
+			return null;
+		}
+	}
+}
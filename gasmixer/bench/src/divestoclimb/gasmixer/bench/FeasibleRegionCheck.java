@@ -0,0 +1,61 @@
+package divestoclimb.gasmixer.bench;
+
+import java.util.Random;
+
+import divestoclimb.gasmixer.blend.BlendSolver;
+import divestoclimb.gasmixer.blend.FeasibleRegion;
+
+/**
+ * Checks that FeasibleRegion agrees with BlendSolver about which mixes can be
+ * blended. For random starting gases, top-up gases and pressures, every mix
+ * in whole percents is tested both ways. Blends the solver finds singular are
+ * skipped, since the region has no notion of them. Prints the first few
+ * disagreements and exits with status 1 if there are any.
+ *
+ * Arguments are the number of fills (default 2000) and the random seed
+ * (default 1).
+ */
+public class FeasibleRegionCheck {
+
+	private static final int SHOWN = 10;
+
+	public static void main(String args[]) {
+		final int n = args.length > 0? Integer.parseInt(args[0]): 2000;
+		final long seed = args.length > 1? Long.parseLong(args[1]): 1;
+		final Random random = new Random(seed);
+		final double result[] = new double[BlendSolver.RESULT_SIZE];
+		int checked = 0, diffs = 0;
+		for(int f = 0; f < n; f ++) {
+			final int startO2 = 5 + random.nextInt(96), startHe = random.nextInt(101 - startO2),
+				topupO2 = 16 + random.nextInt(25), topupHe = random.nextInt(30);
+			final double fo2i = startO2 / 100.0, fhei = startHe / 100.0, fo2r = 1,
+				fo2t = topupO2 / 100.0, fhet = topupHe / 100.0;
+			final double pi = random.nextInt(201), pf = 100 + random.nextInt(201);
+			final FeasibleRegion region = new FeasibleRegion(fo2i, fhei, pi, fo2r, fo2t, fhet, pf);
+			for(int o2 = 0; o2 <= 100; o2 ++) {
+				for(int he = 0; o2 + he <= 100; he ++) {
+					final double fo2f = o2 / 100.0, fhef = he / 100.0;
+					final int s = BlendSolver.solve(fo2i, fhei, fo2r, fo2t, fhet,
+							pi, pi * fo2i, pi * fhei, pi * (1 - fo2i - fhei),
+							pf * fo2f, pf * fhef, pf * (1 - fo2f - fhef), result);
+					if(s == BlendSolver.SINGULAR) {
+						continue;
+					}
+					checked ++;
+					final boolean inside = region.contains(fo2f, fhef);
+					if(inside != (s == BlendSolver.SOLVED)) {
+						if(diffs ++ < SHOWN) {
+							System.out.println(startO2 + "/" + startHe + " at " + pi + " topped with "
+									+ topupO2 + "/" + topupHe + " to " + pf + ": " + o2 + "/" + he
+									+ " region " + inside + ", solver " + s);
+						}
+					}
+				}
+			}
+		}
+		System.out.println(checked + " blends, " + diffs + " disagreements");
+		if(diffs > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package divestoclimb.gasmixer.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Benchmarks of the GasSupply pressure/amount conversions used while blending,
+ * in both ideal and Van der Waals mode.
+ *
+ * The GasSupply operations modify the supply, so every benchmark works on a
+ * clone. cloneOnly measures that overhead so it can be subtracted.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GasSupplyBenchmark {
+
+	/** Starting pressure in bar */
+	@Param({ "0", "50", "150" })
+	public int startPressure;
+
+	/** Starting mix as "fO2 fHe" */
+	@Param({ "0.21 0", "0.18 0.45" })
+	public String startMix;
+
+	/** Internal volume of the cylinder in liters */
+	@Param({ "11.1", "24" })
+	public float cylinderVolume;
+
+	/** Whether to use Van der Waals instead of ideal gas laws */
+	@Param({ "false", "true" })
+	public boolean real;
+
+	private static final int FILL_PRESSURE = 232;
+	private static final float TEMPERATURE = 294;
+
+	private GasSupply mSupply;
+	private Mix mAir;
+	private double mAddAmount, mDrainAmount;
+
+	@Setup
+	public void setup() {
+		final Units u = new Units(Units.METRIC);
+		final Cylinder c = new Cylinder(u, cylinderVolume, FILL_PRESSURE);
+		final String fractions[] = startMix.split(" ");
+		mSupply = new GasSupply(c,
+				new Mix(Double.parseDouble(fractions[0]), Double.parseDouble(fractions[1])),
+				startPressure, ! real, TEMPERATURE);
+		mAir = new Mix(0.21, 0);
+		// Roughly 50 bar worth of gas
+		mAddAmount = cylinderVolume * 50;
+		mDrainAmount = mSupply.getGasAmount() / 2;
+	}
+
+	@Benchmark
+	public Object cloneOnly() {
+		return mSupply.clone();
+	}
+
+	@Benchmark
+	public double addO2() {
+		return mSupply.clone().addO2(mAddAmount).getPressure();
+	}
+
+	@Benchmark
+	public double addHe() {
+		return mSupply.clone().addHe(mAddAmount).getPressure();
+	}
+
+	@Benchmark
+	public double addGas() {
+		return mSupply.clone().addGas(mAir, mAddAmount).getPressure();
+	}
+
+	@Benchmark
+	public double drainToGasAmount() {
+		return mSupply.clone().drainToGasAmount(mDrainAmount).getPressure();
+	}
+
+	@Benchmark
+	public Object topup() {
+		return mSupply.clone().topup(mAir, FILL_PRESSURE).getMix();
+	}
+}
@@ -0,0 +1,118 @@
+package divestoclimb.gasmixer.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import divestoclimb.gasmixer.blend.BestMixTable;
+import divestoclimb.gasmixer.blend.MixPool;
+import divestoclimb.gasmixer.widget.TrimixPreference;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Benchmarks of the Mix calculations behind the blend and best mix tabs, and
+ * of parsing the top-up gas preference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixBenchmark {
+
+	/** Units system, Units.IMPERIAL or Units.METRIC */
+	@Param({ "0", "1" })
+	public int units;
+
+	/** Maximum depth for Mix.best, in meters. Converted for imperial. */
+	@Param({ "30", "60", "90" })
+	public int maxDepth;
+
+	/** The mix for MOD, END and EAD as "fO2 fHe" */
+	@Param({ "0.32 0", "0.18 0.45" })
+	public String mix;
+
+	private static final int MAX_END = 30;
+	private static final float MAX_PO2 = 1.4f;
+
+	private Units mUnits;
+	private Mix mMix, mPooled;
+	private int mDepth, mEnd, mMOD, mGridDepth, mGridEnd;
+	private String mMixString;
+	private BestMixTable mTable;
+
+	@Setup
+	public void setup() throws IOException {
+		mUnits = new Units(units);
+		mDepth = Math.round((float)mUnits.convertDepth(maxDepth, Units.METRIC));
+		mEnd = Math.round((float)mUnits.convertDepth(MAX_END, Units.METRIC));
+		// The same settings rounded to what the selectors step through
+		final int increment = Math.round(mUnits.depthIncrement());
+		mGridDepth = Math.round((float)mDepth / increment) * increment;
+		mGridEnd = Math.round((float)mEnd / increment) * increment;
+		final String fractions[] = mix.split(" ");
+		mMix = new Mix(Double.parseDouble(fractions[0]), Double.parseDouble(fractions[1]));
+		mPooled = MixPool.intern(mMix);
+		mMOD = Math.round(mMix.MOD(mUnits, MAX_PO2));
+		mMixString = mix;
+
+		final ByteArrayOutputStream table = new ByteArrayOutputStream();
+		BestMixTable.write(table);
+		mTable = BestMixTable.read(new ByteArrayInputStream(table.toByteArray()));
+	}
+
+	@Benchmark
+	public Object best() {
+		return Mix.best(mDepth, mEnd, mUnits, MAX_PO2, true);
+	}
+
+	@Benchmark
+	public Object bestFromTable() {
+		return mTable.best(mGridDepth, mGridEnd, mUnits, MAX_PO2, true);
+	}
+
+	@Benchmark
+	public float mod() {
+		return mMix.MOD(mUnits, MAX_PO2);
+	}
+
+	@Benchmark
+	public double end() {
+		return mMix.END(mMOD, mUnits, true);
+	}
+
+	@Benchmark
+	public double ead() {
+		return mMix.EAD(mMOD, mUnits);
+	}
+
+	@Benchmark
+	public float pooledMod() {
+		return MixPool.mod(mPooled, mUnits, MAX_PO2);
+	}
+
+	@Benchmark
+	public Object pooledMix() {
+		return MixPool.get(mPooled.getfO2(), mPooled.getfHe());
+	}
+
+	@Benchmark
+	public Object stringToMix() {
+		return TrimixPreference.stringToMix(mMixString);
+	}
+}
@@ -0,0 +1,112 @@
+package divestoclimb.gasmixer.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import divestoclimb.gasmixer.blend.BlendEngine;
+import divestoclimb.gasmixer.blend.BlendRequest;
+import divestoclimb.gasmixer.blend.EquationOfState;
+import divestoclimb.gasmixer.blend.GasState;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Benchmarks of the real gas models: GasSupply in Van der Waals mode against
+ * GasState with each equation of state, for single conversions and for a
+ * whole partial pressure trimix blend. RealGasComparison reports how far
+ * apart their answers are.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RealGasBenchmark {
+
+	/** Starting pressure in bar */
+	@Param({ "0", "50", "150" })
+	public int startPressure;
+
+	/** Starting mix as "fO2 fHe" */
+	@Param({ "0.21 0", "0.18 0.45" })
+	public String startMix;
+
+	/** The equation of state GasState uses, by its setting name */
+	@Param({ "ideal", "vdw", "pr", "virial", "table" })
+	public String equation;
+
+	private static final float CYLINDER_VOLUME = 12, TEMPERATURE = 294;
+	private static final int FILL_PRESSURE = 232;
+
+	private GasSupply mVdw;
+	private GasState mState;
+	private BlendEngine mEngine;
+	private BlendRequest mVdwRequest, mStateRequest;
+	private Mix mAir;
+	private double mAddAmount, mDrainAmount;
+
+	@Setup
+	public void setup() {
+		final Units u = new Units(Units.METRIC);
+		final Cylinder c = new Cylinder(u, CYLINDER_VOLUME, FILL_PRESSURE);
+		final String fractions[] = startMix.split(" ");
+		final Mix start = new Mix(Double.parseDouble(fractions[0]), Double.parseDouble(fractions[1]));
+		final EquationOfState eos = EquationOfState.forName(equation);
+		mVdw = new GasSupply(c, start, startPressure, false, TEMPERATURE);
+		mState = new GasState(eos, CYLINDER_VOLUME, TEMPERATURE, start, startPressure, u);
+		mAir = new Mix(0.21, 0);
+		// Roughly 50 bar worth of gas
+		mAddAmount = CYLINDER_VOLUME * 50;
+		mDrainAmount = mState.getGasAmount() / 2;
+
+		mEngine = new BlendEngine();
+		mVdwRequest = new BlendRequest(mVdw,
+				new GasSupply(c, new Mix(0.18, 0.45), FILL_PRESSURE, false, TEMPERATURE),
+				mAir, new Mix(1, 0), BlendEngine.MODE_PARTIAL_PRESSURE, false, u);
+		mStateRequest = mVdwRequest.withEquation(eos, CYLINDER_VOLUME, TEMPERATURE);
+	}
+
+	@Benchmark
+	public double vdwAddGas() {
+		return mVdw.clone().addGas(mAir, mAddAmount).getPressure();
+	}
+
+	@Benchmark
+	public double stateAddGas() {
+		return mState.copy().addGas(mAir, mAddAmount).getPressure();
+	}
+
+	@Benchmark
+	public double vdwDrainToGasAmount() {
+		return mVdw.clone().drainToGasAmount(mDrainAmount).getPressure();
+	}
+
+	@Benchmark
+	public double stateDrainToGasAmount() {
+		return mState.copy().drainToGasAmount(mDrainAmount).getPressure();
+	}
+
+	@Benchmark
+	public Object vdwTrimixBlend() {
+		return mEngine.solve(mVdwRequest);
+	}
+
+	@Benchmark
+	public Object stateTrimixBlend() {
+		return mEngine.solve(mStateRequest);
+	}
+}
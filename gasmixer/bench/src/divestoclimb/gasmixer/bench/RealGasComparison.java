@@ -0,0 +1,71 @@
+package divestoclimb.gasmixer.bench;
+
+import divestoclimb.gasmixer.blend.EquationOfState;
+import divestoclimb.gasmixer.blend.GasState;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Compares each equation of state with GasSupply's Van der Waals model. For a
+ * sweep of mixes, temperatures and pressures, GasSupply works out the amount
+ * of gas in a cylinder, and the equation's pressure for that amount is
+ * compared with the one we started from. Prints the worst and average
+ * differences for each equation and mix.
+ *
+ * GasSupply may measure amounts differently than GasState, so amounts are
+ * converted by comparing the two with an ideal gas first.
+ */
+public class RealGasComparison {
+
+	private static final float CYLINDER_VOLUME = 12;
+	// 1 atm in bar, which GasState amounts are measured at
+	private static final double ATM = 1.01325;
+
+	public static void main(String args[]) {
+		final Units u = new Units(Units.METRIC);
+		final Cylinder c = new Cylinder(u, CYLINDER_VOLUME, 300);
+		final String equations[] = {
+			EquationOfState.IDEAL, EquationOfState.VAN_DER_WAALS, EquationOfState.PENG_ROBINSON,
+			EquationOfState.VIRIAL, EquationOfState.TABLE
+		};
+		final double mixes[][] = {
+			{ 0.21, 0 }, { 0.32, 0 }, { 1, 0 }, { 0, 1 },
+			{ 0.21, 0.35 }, { 0.18, 0.45 }, { 0.10, 0.70 }
+		};
+		System.out.println("equation\tmix\tmax bar\tmean bar\tworst at");
+		for(String name : equations) {
+			final EquationOfState eos = EquationOfState.forName(name);
+			for(double m[] : mixes) {
+				compare(name, eos, new Mix(m[0], m[1]), c, u);
+			}
+		}
+	}
+
+	private static void compare(String name, EquationOfState eos, Mix mix, Cylinder c, Units u) {
+		double max = 0, sum = 0;
+		int count = 0;
+		String worst = "";
+		for(float t = 270; t <= 320; t += 10) {
+			final double scale = 100 * CYLINDER_VOLUME / ATM
+					/ new GasSupply(c, mix, 100, true, t).getGasAmount();
+			for(int p = 10; p <= 300; p += 10) {
+				final GasSupply vdw = new GasSupply(c, mix, p, false, t);
+				// The equation's pressure for the amount VdW puts in the
+				// cylinder
+				final double ep = new GasState(eos, CYLINDER_VOLUME, t, mix, 0, u)
+						.addGas(mix, vdw.getGasAmount() * scale).getPressure();
+				final double d = Math.abs(ep - p);
+				sum += d;
+				count ++;
+				if(d > max) {
+					max = d;
+					worst = t + " K, " + p + " bar";
+				}
+			}
+		}
+		System.out.println(name + "\t" + mix + "\t" + String.format("%.2f\t%.2f", max, sum / count)
+				+ "\t" + worst);
+	}
+}
@@ -0,0 +1,86 @@
+package divestoclimb.gasmixer;
+
+import divestoclimb.gasmixer.blend.BlendPlan;
+import divestoclimb.gasmixer.blend.SolutionCache;
+import divestoclimb.scuba.equipment.storage.CylinderORMapper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.preference.PreferenceManager;
+
+/**
+ * Holds the process-wide cache of blend solutions and keeps it consistent
+ * with the data the solutions were computed from. The cache is emptied
+ * whenever a cylinder is added, changed or deleted, or when one of the
+ * settings that affect blending changes.
+ */
+public final class BlendCache {
+
+	private static final int CAPACITY = 32;
+
+	// Settings that affect the result of a blend
+	private static final String[] BLEND_SETTINGS = {
+		"topup_gas", "rich_gas", "temperature", "vdw", "gas_model", "he_first", "units"
+	};
+
+	private static SolutionCache<Entry> sCache;
+
+	// SharedPreferences only keeps weak references to its listeners, so we
+	// must hold on to ours
+	private static SharedPreferences.OnSharedPreferenceChangeListener sSettingsListener;
+
+	private BlendCache() { }
+
+	/**
+	 * A cached solution
+	 */
+	public static final class Entry {
+		public final BlendPlan plan;
+		/**
+		 * Whether the plan was computed for a real cylinder or a simulated
+		 * one
+		 */
+		public final boolean cylinderReal;
+
+		public Entry(BlendPlan plan, boolean cylinderReal) {
+			this.plan = plan;
+			this.cylinderReal = cylinderReal;
+		}
+	}
+
+	/**
+	 * Get the cache, creating it and registering for changes if necessary
+	 * @param context The context to use. Only its application context is kept.
+	 */
+	public static synchronized SolutionCache<Entry> get(Context context) {
+		if(sCache == null) {
+			final Context app = context.getApplicationContext();
+			final SolutionCache<Entry> cache = new SolutionCache<Entry>(CAPACITY);
+
+			app.getContentResolver().registerContentObserver(CylinderORMapper.CYLINDERS_URI, true,
+					new ContentObserver(null) {
+						@Override
+						public void onChange(boolean selfChange) {
+							cache.invalidate();
+						}
+					});
+
+			sSettingsListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+				public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+					for(String s : BLEND_SETTINGS) {
+						if(s.equals(key)) {
+							cache.invalidate();
+							return;
+						}
+					}
+				}
+			};
+			PreferenceManager.getDefaultSharedPreferences(app)
+				.registerOnSharedPreferenceChangeListener(sSettingsListener);
+
+			sCache = cache;
+		}
+		return sCache;
+	}
+}
@@ -0,0 +1,288 @@
+package divestoclimb.gasmixer;
+
+import divestoclimb.gasmixer.blend.BlendEngine;
+import divestoclimb.gasmixer.blend.BlendPlan;
+import divestoclimb.gasmixer.blend.BlendRequest;
+import divestoclimb.gasmixer.blend.EquationOfState;
+import divestoclimb.gasmixer.blend.HeliumSearch;
+import divestoclimb.gasmixer.blend.MixPool;
+import divestoclimb.gasmixer.blend.SolutionCache;
+import divestoclimb.gasmixer.widget.TrimixPreference;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+import divestoclimb.scuba.equipment.storage.CylinderORMapper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * A snapshot of everything that determines a blend: the gases and pressures
+ * the user entered plus the blending settings. Reading the values is cheap,
+ * so a snapshot can be taken on the UI thread. Solving it may need to look up
+ * the cylinder, so that can be done on any thread.
+ */
+class BlendInputs {
+
+	private final Mix mStart, mDesired, mTopup, mRich;
+	private final float mStartPressure, mDesiredPressure, mTemperature;
+	private final boolean mReal, mHeFirst, mTopupInvalid;
+	private final long mCylinderId;
+	private final int mMode;
+	// The equation to use for real gases, or null to use GasSupply's own
+	private final EquationOfState mEquation;
+	// A private copy, since GasMixer changes its Units when the unit system
+	// setting changes
+	private final Units mUnits;
+
+	// Built the first time a solution isn't cached, along with whether a
+	// real cylinder was found for it
+	private BlendRequest mRequest;
+	private boolean mCylinderReal;
+
+	/**
+	 * Take a snapshot of the given gases and the current settings
+	 * @param start The gas in the cylinder before blending
+	 * @param startPressure The pressure in the cylinder before blending
+	 * @param desired The desired gas
+	 * @param desiredPressure The desired final pressure
+	 * @param settings The default SharedPreferences
+	 * @param state The state SharedPreferences
+	 * @param units The units the pressures are in
+	 */
+	BlendInputs(Mix start, float startPressure, Mix desired, float desiredPressure,
+			SharedPreferences settings, SharedPreferences state, Units units) {
+		this(start, startPressure, desired, desiredPressure, settings,
+				state.getLong("cylinderid", -1), units);
+	}
+
+	/**
+	 * Take a snapshot of the given gases and cylinder with the current
+	 * settings
+	 * @param start The gas in the cylinder before blending
+	 * @param startPressure The pressure in the cylinder before blending
+	 * @param desired The desired gas
+	 * @param desiredPressure The desired final pressure
+	 * @param settings The default SharedPreferences
+	 * @param cylinderId The ID of the cylinder being filled
+	 * @param units The units the pressures are in
+	 */
+	BlendInputs(Mix start, float startPressure, Mix desired, float desiredPressure,
+			SharedPreferences settings, long cylinderId, Units units) {
+		mStart = start;
+		mStartPressure = startPressure;
+		mDesired = desired;
+		mDesiredPressure = desiredPressure;
+		mUnits = new Units(units.getCurrentSystem());
+		mTemperature = mUnits.convertAbsTemp(settings.getFloat("temperature", 294), Units.METRIC);
+
+		final Mix topup = TrimixPreference.getMix(settings, "topup_gas");
+		// Not sure how this happens, but to someone it did
+		mTopupInvalid = topup == null;
+		mTopup = mTopupInvalid? MixPool.AIR: topup;
+		mRich = MixPool.get(settings.getFloat("rich_gas", 100) / 100, 0);
+
+		mReal = settings.getBoolean("vdw", false);
+		mHeFirst = settings.getBoolean("he_first", false);
+		mMode = settings.getInt("blend_mode", 0);
+		mCylinderId = cylinderId;
+		// Van der Waals is what GasSupply already does
+		final String model = settings.getString("gas_model", EquationOfState.VAN_DER_WAALS);
+		mEquation = EquationOfState.VAN_DER_WAALS.equals(model)? null: EquationOfState.forName(model);
+	}
+
+	private BlendInputs(BlendInputs other, int mode, boolean real, long cylinderId) {
+		mStart = other.mStart;
+		mStartPressure = other.mStartPressure;
+		mDesired = other.mDesired;
+		mDesiredPressure = other.mDesiredPressure;
+		mUnits = other.mUnits;
+		mTemperature = other.mTemperature;
+		mTopupInvalid = other.mTopupInvalid;
+		mTopup = other.mTopup;
+		mRich = other.mRich;
+		mReal = real;
+		mHeFirst = other.mHeFirst;
+		mCylinderId = cylinderId;
+		mEquation = other.mEquation;
+		mMode = mode;
+		if(other.mRequest != null && real == other.mReal && cylinderId == other.mCylinderId) {
+			// Saves looking up the cylinder again
+			mRequest = other.mRequest.withMode(mode);
+			mCylinderReal = other.mCylinderReal;
+		}
+	}
+
+	/**
+	 * Take a snapshot of the blend that was last saved to the state
+	 */
+	static BlendInputs fromState(SharedPreferences settings, SharedPreferences state, Units units) {
+		return new BlendInputs(
+				Params.getMix(state, "start", 0.21f, 0),
+				state.getFloat("start_pres", 0),
+				Params.getMix(state, "desired", 0.21f, 0),
+				state.getFloat("desired_pres", 0),
+				settings, state, units);
+	}
+
+	/**
+	 * @return A copy of these inputs with a different blend mode
+	 */
+	BlendInputs withMode(int mode) {
+		return new BlendInputs(this, mode, mReal, mCylinderId);
+	}
+
+	/**
+	 * @return A copy of these inputs using real or ideal gas laws
+	 */
+	BlendInputs withRealGas(boolean real) {
+		return new BlendInputs(this, mMode, real, mCylinderId);
+	}
+
+	/**
+	 * @return A copy of these inputs filling a different cylinder
+	 */
+	BlendInputs withCylinder(long cylinderId) {
+		return new BlendInputs(this, mMode, mReal, cylinderId);
+	}
+
+	Mix getStart() {
+		return mStart;
+	}
+
+	Mix getDesired() {
+		return mDesired;
+	}
+
+	float getDesiredPressure() {
+		return mDesiredPressure;
+	}
+
+	int getMode() {
+		return mMode;
+	}
+
+	boolean isReal() {
+		return mReal;
+	}
+
+	/**
+	 * @return true if the top-up gas setting couldn't be read and air is
+	 * being used in its place
+	 */
+	boolean isTopupInvalid() {
+		return mTopupInvalid;
+	}
+
+	long getCylinderId() {
+		return mCylinderId;
+	}
+
+	boolean isCylinderReal() {
+		return mCylinderReal;
+	}
+
+	/**
+	 * @return The equation of state the blend is solved with
+	 */
+	EquationOfState getEquation() {
+		if(! mReal) {
+			return EquationOfState.forName(EquationOfState.IDEAL);
+		}
+		return mEquation != null? mEquation: EquationOfState.forName(EquationOfState.VAN_DER_WAALS);
+	}
+
+	/**
+	 * Build the request to solve for these inputs
+	 * @param c The cylinder being filled, or null if it couldn't be found. A
+	 * simulated cylinder is used if this is null or ideal gases are being used.
+	 * @return The request
+	 */
+	BlendRequest buildRequest(Cylinder c) {
+		if(! mReal) {
+			c = null;
+		}
+		mCylinderReal = c != null;
+		if(c == null) {
+			c = simulatedCylinder();
+		}
+
+		// have is the GasSupply the user entered.
+		// want is the GasSupply the user desires at the end.
+		final GasSupply have = new GasSupply(c, mStart, (int)mStartPressure, ! mReal, mTemperature),
+			want = new GasSupply(c, mDesired, (int)mDesiredPressure, ! mReal, mTemperature);
+		mRequest = new BlendRequest(have, want, mTopup, mRich, mMode, mHeFirst, mUnits);
+		if(mReal && mEquation != null) {
+			mRequest = mRequest.withEquation(mEquation, c.getInternalVolume(), mTemperature);
+		}
+		return mRequest;
+	}
+
+	/**
+	 * Solve these inputs with a different equation of state, for comparing
+	 * it with the one in use. The same cylinder is filled, but the solution
+	 * isn't cached. Looks up the cylinder, like solve().
+	 * @param context The context to use for looking up the cylinder
+	 * @param engine The engine to solve with. Must not be in use by another
+	 * thread.
+	 * @param equation The equation of state to solve with
+	 */
+	BlendPlan solveWith(Context context, BlendEngine engine, EquationOfState equation) {
+		Cylinder c = mReal? new CylinderORMapper(context, mUnits).fetchCylinder(mCylinderId): null;
+		if(c == null) {
+			c = simulatedCylinder();
+		}
+		final GasSupply have = new GasSupply(c, mStart, (int)mStartPressure, ! mReal, mTemperature),
+			want = new GasSupply(c, mDesired, (int)mDesiredPressure, ! mReal, mTemperature);
+		return engine.solve(new BlendRequest(have, want, mTopup, mRich, mMode, mHeFirst, mUnits)
+				.withEquation(equation, c.getInternalVolume(), mTemperature));
+	}
+
+	private Cylinder simulatedCylinder() {
+		return new Cylinder(mUnits, mUnits.volumeNormalTank(), (int)mUnits.pressureTankFull());
+	}
+
+	/**
+	 * Start a search for the mixes that trade helium for margins when
+	 * filling with these inputs. The desired mix isn't used. Looks up the
+	 * cylinder, like solve().
+	 * @param context The context to use for looking up the cylinder
+	 */
+	HeliumSearch heliumSearch(Context context) {
+		final Cylinder c = mReal? new CylinderORMapper(context, mUnits).fetchCylinder(mCylinderId): null;
+		final BlendRequest r = buildRequest(c);
+		return new HeliumSearch(r, mCylinderReal? c: simulatedCylinder(), ! mReal, mTemperature);
+	}
+
+	/**
+	 * Find the solution for these inputs in the process-wide cache, or solve
+	 * and cache it if it isn't there. The cylinder is only looked up on a
+	 * cache miss.
+	 * @param context The context to use for looking up the cylinder
+	 * @param engine The engine to solve with. Must not be in use by another
+	 * thread.
+	 */
+	BlendCache.Entry solve(Context context, BlendEngine engine) {
+		final SolutionCache<BlendCache.Entry> cache = BlendCache.get(context);
+		// The cylinder only matters when using real gases; otherwise a
+		// simulated one is always used.
+		final SolutionCache.Key key = new SolutionCache.Key(
+				mStart.getfO2(), mStart.getfHe(), (int)mStartPressure,
+				mDesired.getfO2(), mDesired.getfHe(), (int)mDesiredPressure,
+				mTopup.getfO2(), mTopup.getfHe(), mRich.getfO2(),
+				mTemperature, mReal? mCylinderId: -1, mReal,
+				mMode, mHeFirst, mUnits.getCurrentSystem());
+		BlendCache.Entry entry = cache.get(key);
+		if(entry == null) {
+			if(mRequest == null) {
+				// TODO resolve the content provider and fetch cylinder even if
+				// ideal, for showing volumes
+				buildRequest(mReal? new CylinderORMapper(context, mUnits).fetchCylinder(mCylinderId): null);
+			}
+			entry = new BlendCache.Entry(engine.solve(mRequest), mCylinderReal);
+			cache.put(key, entry);
+		}
+		return entry;
+	}
+}
@@ -0,0 +1,173 @@
+package divestoclimb.gasmixer;
+
+import divestoclimb.gasmixer.blend.BlendEngine;
+import divestoclimb.gasmixer.blend.HeliumFrontier;
+import divestoclimb.gasmixer.blend.HeliumSearch;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+
+/**
+ * Solves blends and searches for helium options on a background thread as
+ * the user changes the inputs, so a result can be shown without the UI
+ * thread ever waiting on the solver or on the cylinder lookup.
+ *
+ * Updates arriving in quick succession are coalesced and only the latest one
+ * is solved. A result is only delivered if no newer update of the same kind
+ * has been made since it was requested. update(), updateFrontier() and
+ * quit() must be called from the UI thread, and the listener is called on it.
+ */
+class BlendPreview {
+
+	public interface Listener {
+		/**
+		 * Called with the solution for the most recent inputs
+		 * @param inputs The inputs that were solved
+		 * @param result The solution
+		 */
+		void onPreview(BlendInputs inputs, BlendCache.Entry result);
+
+		/**
+		 * Called with the helium options for the most recent limits
+		 * @param frontier The options
+		 */
+		void onFrontier(HeliumFrontier frontier);
+	}
+
+	/**
+	 * The limits to find helium options for, and the fill to find them in
+	 */
+	private static final class FrontierRequest {
+		final BlendInputs inputs;
+		final int depth, end;
+		final float po2;
+		final boolean o2IsNarcotic;
+
+		FrontierRequest(BlendInputs inputs, int depth, int end, float po2, boolean o2IsNarcotic) {
+			this.inputs = inputs;
+			this.depth = depth;
+			this.end = end;
+			this.po2 = po2;
+			this.o2IsNarcotic = o2IsNarcotic;
+		}
+	}
+
+	// How long to wait for more input before solving, in milliseconds
+	private static final long COALESCE_DELAY = 150;
+
+	private static final int MESSAGE_SOLVE = 1;
+	private static final int MESSAGE_RESULT = 2;
+	private static final int MESSAGE_FRONTIER = 3;
+	private static final int MESSAGE_FRONTIER_RESULT = 4;
+
+	private final Context mContext;
+	private final Listener mListener;
+	private final HandlerThread mThread;
+	private final Handler mWorkerHandler;
+	// Only used by the worker thread
+	private final BlendEngine mEngine = new BlendEngine();
+	// The search for the last fill helium options were found in, and the
+	// inputs it was made from. Only used by the worker thread.
+	private HeliumSearch mSearch;
+	private BlendInputs mSearchInputs;
+
+	// Incremented by every update of each kind. The worker reads them to skip
+	// requests that have already been superseded.
+	private volatile int mGeneration = 0, mFrontierGeneration = 0;
+
+	/**
+	 * Start a preview thread
+	 * @param context The context to look up cylinders with
+	 * @param listener The listener to deliver results to
+	 */
+	BlendPreview(Context context, Listener listener) {
+		mContext = context.getApplicationContext();
+		mListener = listener;
+		mThread = new HandlerThread("BlendPreview", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+		mThread.start();
+		mWorkerHandler = new Handler(mThread.getLooper()) {
+			@Override
+			public void handleMessage(Message msg) {
+				if(msg.what == MESSAGE_SOLVE && msg.arg1 == mGeneration) {
+					final BlendInputs inputs = (BlendInputs)msg.obj;
+					final BlendCache.Entry result = inputs.solve(mContext, mEngine);
+					if(msg.arg1 == mGeneration) {
+						mResultHandler.sendMessage(Message.obtain(mResultHandler, MESSAGE_RESULT,
+								msg.arg1, 0, new Object[] { inputs, result }));
+					}
+				} else if(msg.what == MESSAGE_FRONTIER && msg.arg1 == mFrontierGeneration) {
+					final FrontierRequest r = (FrontierRequest)msg.obj;
+					// Only a new fill needs a new search; new limits reuse it
+					if(r.inputs != mSearchInputs) {
+						mSearch = r.inputs.heliumSearch(mContext);
+						mSearchInputs = r.inputs;
+					}
+					final HeliumFrontier result = mSearch.find(r.depth, r.end, r.po2, r.o2IsNarcotic);
+					if(msg.arg1 == mFrontierGeneration) {
+						mResultHandler.sendMessage(Message.obtain(mResultHandler, MESSAGE_FRONTIER_RESULT,
+								msg.arg1, 0, result));
+					}
+				}
+			}
+		};
+	}
+
+	private final Handler mResultHandler = new Handler(Looper.getMainLooper()) {
+		@Override
+		public void handleMessage(Message msg) {
+			// Drop results for inputs that have changed since
+			if(msg.what == MESSAGE_RESULT && msg.arg1 == mGeneration) {
+				final Object[] r = (Object[])msg.obj;
+				mListener.onPreview((BlendInputs)r[0], (BlendCache.Entry)r[1]);
+			} else if(msg.what == MESSAGE_FRONTIER_RESULT && msg.arg1 == mFrontierGeneration) {
+				mListener.onFrontier((HeliumFrontier)msg.obj);
+			}
+		}
+	};
+
+	/**
+	 * Request a solution for new inputs. Any pending request is cancelled.
+	 * @param inputs The inputs to solve
+	 */
+	void update(BlendInputs inputs) {
+		final int generation = ++ mGeneration;
+		mWorkerHandler.removeMessages(MESSAGE_SOLVE);
+		mWorkerHandler.sendMessageDelayed(
+				Message.obtain(mWorkerHandler, MESSAGE_SOLVE, generation, 0, inputs),
+				COALESCE_DELAY);
+	}
+
+	/**
+	 * Request the helium options for new limits. Any pending request is
+	 * cancelled.
+	 * @param inputs The fill to find options in. The search for it is kept
+	 * and reused as long as the same instance is passed.
+	 * @param depth The maximum depth
+	 * @param end The maximum END
+	 * @param po2 The maximum pO2
+	 * @param o2IsNarcotic Whether to count oxygen as narcotic
+	 */
+	void updateFrontier(BlendInputs inputs, int depth, int end, float po2, boolean o2IsNarcotic) {
+		final int generation = ++ mFrontierGeneration;
+		mWorkerHandler.removeMessages(MESSAGE_FRONTIER);
+		mWorkerHandler.sendMessageDelayed(
+				Message.obtain(mWorkerHandler, MESSAGE_FRONTIER, generation, 0,
+						new FrontierRequest(inputs, depth, end, po2, o2IsNarcotic)),
+				COALESCE_DELAY);
+	}
+
+	/**
+	 * Stop the preview thread. No more results are delivered after this.
+	 */
+	void quit() {
+		mGeneration ++;
+		mFrontierGeneration ++;
+		mWorkerHandler.removeMessages(MESSAGE_SOLVE);
+		mWorkerHandler.removeMessages(MESSAGE_FRONTIER);
+		// HandlerThread.quit() needs API level 5
+		mThread.getLooper().quit();
+	}
+}
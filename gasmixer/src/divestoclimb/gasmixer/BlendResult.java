@@ -4,21 +4,22 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 
+import divestoclimb.gasmixer.blend.BlendEngine;
+import divestoclimb.gasmixer.blend.BlendPlan;
+import divestoclimb.gasmixer.blend.BlendStep;
+import divestoclimb.gasmixer.blend.EquationOfState;
+import divestoclimb.gasmixer.blend.MixPool;
 import divestoclimb.gasmixer.prefs.SyncedPrefsHelper;
-import divestoclimb.gasmixer.widget.TrimixPreference;
-import divestoclimb.lib.scuba.Cylinder;
-import divestoclimb.lib.scuba.GasSupply;
 import divestoclimb.lib.scuba.Localizer;
 import divestoclimb.lib.scuba.Mix;
 import divestoclimb.lib.scuba.Units;
-import divestoclimb.scuba.equipment.storage.CylinderORMapper;
 
-import Jama.Matrix;
 import android.app.ListActivity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.text.ClipboardManager;
@@ -38,52 +39,13 @@ import android.widget.Toast;
  * state
  * @author Ben Roberts (divestoclimb@gmail.com)
  */
-// We begin by converting the initial and desired pressures to
-// volumes. If using real gases, this is based on the mixes of each.
-// Then, we use linear algebra to compute the amounts of gases needed
-// to blend the desired mix.
-// The matrix equation we need to solve looks like this:
-// [ 1	0	fo2,t ] [ vo2,a ]   [ vf*fo2,f-vi*fo2,i ]
-// [ 0	1	fhe,t ] [ vhe,a ] = [ vf*fhe,f-vi*fhe,i ]
-// [ 0	0	vn2,t ] [ vt,a  ]   [ vf*fn2,f-vi*fn2,i ]
-// Where:
-// - vi = initial volume of gas in cylinder
-// - vf = desired volume
-// - fo2,t = fraction of O2 in top-up gas
-// - fhe,t = fraction of He in top-up gas
-// - fo2,f = desired fraction of O2
-// - fhe,f = desired fraction of He
-// - fo2,i = starting fraction of O2
-// - fhe,i = starting fraction of He
-// And the unknowns:
-// - vo2,a = volume of O2 to add
-// - vhe,a = volume of He to add
-// - vt,a = volume of top-up gas to add
-//
-// Once we have the volumes, we can convert these back to pressures.
-// Logic for that is in GasSupply.
-//
-// One invalid solution to the above is if any of the unknowns come
-// out negative. If this happens, we have to set that unknown to 0
-// and solve for vi instead, and the difference between the solved
-// value and the given one is the amount the blender will have to
-// drain. Here's an example when setting vo2 to 0:
-// [ fo2,i	0	fo2,t ] [ vi    ]   [ vf*fo2,f ]
-// [ fhe,i	1	fhe,t ] [ vhe,a ] = [ vf*fhe,f ]
-// [ fn2,i	0	fn2,t ] [ vt,a  ]   [ vf*fn2,f ]
 public class BlendResult extends ListActivity implements AdapterView.OnItemSelectedListener,
 		View.OnClickListener {
 
-	// Our known parameters
-	private float pi, pf, t;
-	private Mix mStart, mDesired, mTopup, mRich;
-	// The parameters we are solving for
-	private double vi, vo2a, vhea, vta;
-	// The starting pressure for the blend, accounting for draining
-	private float mStartPressure;
-	// have is the GasSupply the user entered.
-	// want is the GasSupply the user desires at the end.
-	private GasSupply have, want;
+	// The current problem and its solution
+	private BlendInputs mInputs;
+	private BlendPlan mPlan;
+	private final BlendEngine mEngine = new BlendEngine();
 	// This keeps track of whether or not an actual cylinder size is
 	// being used, or if it's being simulated (which can happen in ideal
 	// blending mode)
@@ -95,12 +57,13 @@ public class BlendResult extends ListActivity implements AdapterView.OnItemSelec
 	private CharSequence mCapacityUnit;
 
 	private View mResultFooterView, mStartView, mImpossibleView, mCopyButton;
-	private TextView mStartPressureView, mStartMixView, mResultView;
+	private TextView mStartPressureView, mStartMixView, mResultView, mModelDifferenceView;
 
 	private int mBlendMode;
-	private static final int BLEND_MODE_PARTIAL_PRESSURE = 0;
-	private static final int BLEND_MODE_CONTINUOUS_NITROX = 1;
-	private static final int BLEND_MODE_CONTINUOUS_TRIMIX = 2;
+
+	// Solves the blend with the other gas models, if that was asked for and
+	// hasn't finished
+	private AsyncTask<EquationOfState, Void, float[]> mComparison;
 
 	private boolean mSolutionFound;
 
@@ -146,11 +109,13 @@ public class BlendResult extends ListActivity implements AdapterView.OnItemSelec
 		mResultFooterView = li.inflate(R.layout.blend_result_footer, null);
 		mResultView = (TextView)mResultFooterView.findViewById(R.id.final_result);
 		mImpossibleView = li.inflate(R.layout.blend_result_impossible, null);
+		mModelDifferenceView = (TextView)findViewById(R.id.model_difference);
 
 		// set button listeners
 		mCopyButton = findViewById(R.id.button_copy);
 		mCopyButton.setOnClickListener(this);
 		findViewById(R.id.button_close).setOnClickListener(this);
+		mModelDifferenceView.setOnClickListener(this);
 
 		recalculate();
 
@@ -162,77 +127,53 @@ public class BlendResult extends ListActivity implements AdapterView.OnItemSelec
 	 * calculations necessary and outputs the result.
 	 */
 	protected void recalculate() {
-		pi = mState.getFloat("start_pres", 0);
-		pf = mState.getFloat("desired_pres", 0);
-		t = mUnits.convertAbsTemp(mSettings.getFloat("temperature", 294), Units.METRIC);
-
-		// Make Mixes of our gases
-		mStart = new Mix(mState.getFloat("start_o2", 0.21f), mState.getFloat("start_he", 0));
-		mDesired = new Mix(mState.getFloat("desired_o2", 0.21f), mState.getFloat("desired_he", 0f));
-		mTopup = TrimixPreference.stringToMix(mSettings.getString("topup_gas", "0.21 0"));
-		mRich = new Mix(mSettings.getFloat("rich_gas", 100) / 100, 0);
-		if(mTopup == null) {
-			// Not sure how this happens, but to someone it did
-			mTopup = new Mix(0.21f, 0);
+		mInputs = BlendInputs.fromState(mSettings, mState, mUnits);
+		if(mInputs.isTopupInvalid()) {
 			Toast.makeText(this, R.string.topup_read_error, Toast.LENGTH_LONG);
 		}
 
-		boolean real = mSettings.getBoolean("vdw", false);
-		// TODO resolve the content provider and fetch cylinder even if
-		// ideal, for showing volumes
-		Cylinder c = null;
-		CylinderORMapper com = null;
-		if(real) {
-			com = new CylinderORMapper(this, mUnits);
-			c = com.fetchCylinder(mState.getLong("cylinderid", -1));
-			isCylinderReal = true;
-		}
-		if(! real || c == null) {
-			c = new Cylinder(mUnits, mUnits.volumeNormalTank(), (int)mUnits.pressureTankFull());
-			isCylinderReal = false;
-		}
-
-		have = new GasSupply(c, mStart, (int)pi, ! real, t);
-		want = new GasSupply(c, mDesired, (int)pf, ! real, t);
-
-		// Now we're ready. Solve. Solution will be stored in our class
-		// variables
-		mSolutionFound = solve();
+		// Now we're ready. Solve.
+		solve();
 
 		showResult();
 	}
-	
-	private class BlendStep {
-		public Float pressure;
-		public int volume;
-		public Mix mix;
-
-		public BlendStep(Float pressure, int volume, Mix mix) {
-			this.pressure = pressure;
-			this.volume = volume;
-			this.mix = mix;
+
+	/**
+	 * Finds the plan for the current inputs in the current blend mode,
+	 * solving it if it isn't cached.
+	 */
+	private void solve() {
+		if(mInputs.getMode() != mBlendMode) {
+			mInputs = mInputs.withMode(mBlendMode);
 		}
-		
-		public CharSequence toCharSequence() {
-			SpannableStringBuilder builder;
-			if(pressure != null) {
-				builder = new SpannableStringBuilder(String.format(getString(R.string.result_fillto),
-						mPressureFormat.format(pressure),
-						mPressureUnit,
-						mix.toString()));
-					if(isCylinderReal) {
-						builder.append(" (" + mCapacityFormat.format(volume) + " ")
-							.append(mCapacityUnit)
-							.append(")");
-					}
-			} else {
-				builder = new SpannableStringBuilder(isCylinderReal? "(" + mCapacityFormat.format(volume) + " ": "")
-					.append(mCapacityUnit)
-					.append(" " + mix.toString() + (isCylinderReal? ")": ""));
-			}
-			
-			return builder;
+		final BlendCache.Entry entry = mInputs.solve(this, mEngine);
+		mPlan = entry.plan;
+		isCylinderReal = entry.cylinderReal;
+		mSolutionFound = mPlan.isSolved();
+	}
+	
+	private CharSequence stepToCharSequence(BlendStep step) {
+		SpannableStringBuilder builder;
+		final Float pressure = step.getPressure();
+		final int volume = step.getVolume();
+		final Mix mix = step.getMix();
+		if(pressure != null) {
+			builder = new SpannableStringBuilder(String.format(getString(R.string.result_fillto),
+					mPressureFormat.format(pressure),
+					mPressureUnit,
+					MixPool.toString(mix)));
+				if(isCylinderReal) {
+					builder.append(" (" + mCapacityFormat.format(volume) + " ")
+						.append(mCapacityUnit)
+						.append(")");
+				}
+		} else {
+			builder = new SpannableStringBuilder(isCylinderReal? "(" + mCapacityFormat.format(volume) + " ": "")
+				.append(mCapacityUnit)
+				.append(" " + MixPool.toString(mix) + (isCylinderReal? ")": ""));
 		}
+
+		return builder;
 	}
 	
 	public class BlendStepAdapter extends ArrayAdapter<BlendStep> {
@@ -260,20 +201,20 @@ public class BlendResult extends ListActivity implements AdapterView.OnItemSelec
 
 			BlendStep data = getItem(position);
 			TextView pressure = (TextView)row.findViewById(R.id.pressure);
-			pressure.setText(data.pressure != null? mPressureFormat.format(data.pressure) + " " + mPressureUnit: "");
+			pressure.setText(data.getPressure() != null? mPressureFormat.format(data.getPressure()) + " " + mPressureUnit: "");
 
 			TextView volume = null;
 			if(isCylinderReal) {
 				volume = (TextView)row.findViewById(R.id.volume);
 				// Imperial capacity units are styled, so we must treat the unit as a CharSequence
-				volume.setText("+" + mCapacityFormat.format(data.volume) + " ");
+				volume.setText("+" + mCapacityFormat.format(data.getVolume()) + " ");
 				volume.append(mCapacityUnit);
 			}
 
 			TextView gas = (TextView)row.findViewById(R.id.gas);
-			gas.setText(data.mix.toString());
+			gas.setText(MixPool.toString(data.getMix()));
 
-			if(data.pressure == null) {
+			if(data.getPressure() == null) {
 				// This is not a discrete operation. Make it italic.
 				if(volume != null) {
 					volume.setTypeface(Typeface.defaultFromStyle(Typeface.ITALIC), Typeface.ITALIC);
@@ -292,246 +233,129 @@ public class BlendResult extends ListActivity implements AdapterView.OnItemSelec
 	}
 
 	/**
-	 * Reads the volume-based solution stored in member variables and
-	 * outputs a step-by-step procedure for how to perform the blending
-	 * using the current blend mode.
+	 * Reads the current plan and outputs a step-by-step procedure for how
+	 * to perform the blending.
 	 */
 	private void showResult() {
-		List<BlendStep> steps;
 		// Disable the "Copy This" button if there's no solution to copy
 		mCopyButton.setEnabled(mSolutionFound);
 		if(mSolutionFound) {
-			GasSupply start = have.clone();
-
-			if(mStartPressure < pi) {
+			final float startPressure = mPlan.getStartPressure();
+			if(mPlan.isDrainNeeded()) {
 				// Needed to drain some gas
 				mStartPressureView.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD_ITALIC), Typeface.BOLD_ITALIC);
 			} else {
 				mStartPressureView.setTypeface(Typeface.defaultFromStyle(Typeface.ITALIC), Typeface.ITALIC);
 			}
-			if(mStartPressure > 0) {
+			if(startPressure > 0) {
 				mStartMixView.setTypeface(Typeface.defaultFromStyle(Typeface.ITALIC), Typeface.ITALIC);
-				mStartMixView.setText(mStart.toString());
+				mStartMixView.setText(MixPool.toString(mInputs.getStart()));
 			}
 
-			mStartPressureView.setText(mPressureFormat.format(mStartPressure) + " " + mPressureUnit);
+			mStartPressureView.setText(mPressureFormat.format(startPressure) + " " + mPressureUnit);
 			
-			mResultView.setText(mDesired.toString());
-
-			switch(mBlendMode) {
-			case BLEND_MODE_CONTINUOUS_NITROX:
-				steps = getContinuousNxSteps(start);
-				break;
-			case BLEND_MODE_CONTINUOUS_TRIMIX:
-				steps = getContinuousTmxSteps(start);
-				break;
-			case BLEND_MODE_PARTIAL_PRESSURE:
-			default:
-				steps = getPPSteps(start);
-				break;
-			}
-		} else {
-			steps = new ArrayList<BlendStep>();
+			mResultView.setText(MixPool.toString(mInputs.getDesired()));
 		}
-		setListAdapter(new BlendStepAdapter(this, R.layout.blend_result_line, steps));
+		setListAdapter(new BlendStepAdapter(this, R.layout.blend_result_line, mPlan.getSteps()));
+		showModelDifference();
 	}
 
 	/**
-	 * Computes a volume-based solution to the given gas blending problem.
-	 * Reads mStart, mTopup, have, and want.
-	 * Stores a result in vi, vo2a, vhea, and vta.
-	 * @return true if a solution was found, false if the problem is
-	 * impossible to solve 
+	 * Offers to compare the plan with the other gas models. Comparing means
+	 * solving the blend again for each one, so it's only done when asked.
 	 */
-	private boolean solve() {
-		// Object property caching for performance 
-		double fo2i = mStart.getfO2(), fhei = mStart.getfHe(),
-			fo2t = mTopup.getfO2(), fhet = mTopup.getfHe(),
-			fo2r = mRich.getfO2(),
-			vo2i = have.getO2Amount(), vn2i = have.getN2Amount(),
-			vhei = have.getHeAmount(), vo2f = want.getO2Amount(),
-			vn2f = want.getN2Amount(), vhef = want.getHeAmount();
-
-		vi = have.getGasAmount();
-		double a[][] = { {fo2r, 0, fo2t}, {0, 1, fhet}, {1 - fo2r, 0, 1 - fo2t - fhet} };
-		double b[][] = { {vo2f - vo2i}, {vhef - vhei}, {vn2f - vn2i} };
-		Matrix aM = new Matrix(a), bM = new Matrix(b);
-		try {
-			Matrix gases = aM.solve(bM);
-			vo2a = gases.get(0,0);
-			vhea = gases.get(1,0);
-			vta = gases.get(2,0);
-		} catch(RuntimeException e) {
-			// Can happen if the topup gas is heliox or helium and nitrogen
-			// needs to be added
-			return false;
-		}
-		// Now handle the conditions where a negative volume was found
-		if(vo2a < 0) {
-			vo2a = 0;
-			a = aM.getArrayCopy();
-			a[0][0] = fo2i;
-			a[1][0] = fhei;
-			a[2][0] = 1 - fo2i - fhei;
-			b[0][0] = vo2f;
-			b[1][0] = vhef;
-			b[2][0] = vn2f;
-			Matrix aTake2 = new Matrix(a), bTake2 = new Matrix(b);
-			try {
-				Matrix take2 = aTake2.solve(bTake2);
-				vi = take2.get(0, 0);
-				vhea = take2.get(1, 0);
-				vta = take2.get(2, 0);
-			} catch(RuntimeException e) {
-				return false;
-			}
-		}
-		if(vhea < 0) {
-			vhea = 0;
-			a = aM.getArrayCopy();
-			a[0][1] = fo2i;
-			a[1][1] = fhei;
-			a[2][1] = 1 - fo2i - fhei;
-			b[0][0] = vo2f;
-			b[1][0] = vhef;
-			b[2][0] = vn2f;
-			Matrix aTake3 = new Matrix(a), bTake3 = new Matrix(b);
-			try {
-				Matrix take3 = aTake3.solve(bTake3);
-				vi = take3.get(1, 0);
-				vo2a = take3.get(0, 0);
-				vta = take3.get(2, 0);
-			} catch(RuntimeException e) {
-				return false;
-			}
-		}
-		if(vta < 0) {
-			vta = 0;
-			a = aM.getArrayCopy();
-			a[0][2] = fo2i;
-			a[1][2] = fhei;
-			a[2][2] = 1 - fo2i - fhei;
-			b[0][0] = vo2f;
-			b[1][0] = vhef;
-			b[2][0] = vn2f;
-			Matrix aTake4 = new Matrix(a), bTake4 = new Matrix(b);
-			try {
-				Matrix take4 = aTake4.solve(bTake4);
-				vi = take4.get(2, 0);
-				vo2a = take4.get(0, 0);
-				vhea = take4.get(1, 0);
-			} catch(RuntimeException e) {
-				return false;
-			}
-		}
-		// The final checks ensure that vi is within a realistic range.
-		// The blender can't drain to a negative volume, and we can't
-		// start with any more gas than is already in the cylinder.
-		if(vi < 0 || vi > have.getGasAmount()) {
-			return false;
+	private void showModelDifference() {
+		if(mComparison != null) {
+			mComparison.cancel(true);
+			mComparison = null;
 		}
-		float pdrain = (float)have.drainToGasAmount(vi).getPressure();
-		mStartPressure = pi;
-		if(pi - pdrain >= Math.pow(10, mUnits.pressurePrecision() * -1) * 0.5) {
-			// Need to drain the gas
-			mStartPressure = pdrain;
+		if(mSolutionFound) {
+			mModelDifferenceView.setText(R.string.model_compare);
+			mModelDifferenceView.setEnabled(true);
+			mModelDifferenceView.setVisibility(View.VISIBLE);
+		} else {
+			mModelDifferenceView.setVisibility(View.GONE);
 		}
-		return true;
 	}
 
 	/**
-	 * Performs a partial pressure blending and builds the readable
-	 * explanation for how to replicate it.
-	 * @return A descriptive version of the blend that was done
+	 * Solves the current blend with every gas model but the one in use and
+	 * shows how much the pressures of the steps would change
 	 */
-	private List<BlendStep> getPPSteps(GasSupply supply) {
-		float po2, phe, pt, pdrain = (float)supply.getPressure();
-		
-		float pretop;
-		List<BlendStep> steps = new ArrayList<BlendStep>(4);
-		if(mSettings.getBoolean("he_first", false)) {
-			phe = vhea > 0? (float)supply.addHe(vhea).getPressure(): pdrain;
-			if(Math.round(phe) > Math.round(pdrain)) {
-				steps.add(new BlendStep(phe, (int)Math.round(vhea), new Mix(0, 1)));
-			}
-			po2 = vo2a > 0? (float)supply.addO2(vo2a).getPressure(): phe;
-			if(Math.round(po2) > Math.round(phe)) {
-				steps.add(new BlendStep(po2, (int)Math.round(vo2a), mRich));
-			}
-			pretop = po2;
-		} else {
-			po2 = vo2a > 0? (float)supply.addO2(vo2a).getPressure(): pdrain;
-			if(Math.round(po2) > Math.round(pdrain)) {
-				steps.add(new BlendStep(po2, (int)Math.round(vo2a), mRich));
-			}
-			phe = vhea > 0? (float)supply.addHe(vhea).getPressure(): po2;
-			if(Math.round(phe) > Math.round(po2)) {
-				steps.add(new BlendStep(phe, (int)Math.round(vhea), new Mix(0, 1)));
-			}
-			pretop = phe;
+	private void compareModels() {
+		final String names[] = getResources().getStringArray(R.array.gasmodelvalues),
+			labels[] = getResources().getStringArray(R.array.gasmodels);
+		final String selected = mInputs.getEquation().getName();
+		final List<EquationOfState> equations = new ArrayList<EquationOfState>();
+		final List<String> equationLabels = new ArrayList<String>();
+		if(! EquationOfState.IDEAL.equals(selected)) {
+			equations.add(EquationOfState.forName(EquationOfState.IDEAL));
+			equationLabels.add(getString(R.string.model_ideal));
 		}
-		pt = vta > 0? (float)supply.addGas(mTopup, vta).getPressure(): pretop;
-		if(Math.round(pt) > Math.round(pretop)) {
-			steps.add(new BlendStep(pt, (int)Math.round(vta), mTopup));
+		for(int i = 0; i < names.length; i ++) {
+			if(! names[i].equals(selected)) {
+				equations.add(EquationOfState.forName(names[i]));
+				equationLabels.add(labels[i]);
+			}
 		}
-		return steps;
-	}
-
-	private List<BlendStep> getContinuousNxSteps(GasSupply supply) {
-		float pnx, phe, pdrain = (float)supply.getPressure();
-		// Take vo2a and vta and combine them into a single Mix.
-		final double vca = vo2a + vta;
-		final Mix continuousAdd = new Mix((vo2a + vta * mTopup.getfO2()) / vca, 0);
-
-		// Now do the blend
-		List<BlendStep> steps = new ArrayList<BlendStep>(4);
 
-		// Always add helium first. Although we could use the he_first setting to decide,
-		// it's unlikely anyone would want to top up with helium last.
-		phe = vhea > 0? (float)supply.addHe(vhea).getPressure(): pdrain;
-		pnx = vca > 0? (float)supply.addGas(continuousAdd, vca).getPressure(): phe;
-
-		if(Math.round(phe) > Math.round(pdrain)) {
-			steps.add(new BlendStep(phe, (int)Math.round(vhea), new Mix(0, 1)));
-		}
-		if(Math.round(pnx) > Math.round(phe)) {
-			if(vo2a > 0) {
-				steps.add(new BlendStep(null, (int)Math.round(vo2a), new Mix(1, 0)));
+		mModelDifferenceView.setText(R.string.model_comparing);
+		mModelDifferenceView.setEnabled(false);
+		final BlendInputs inputs = mInputs;
+		final BlendPlan plan = mPlan;
+		mComparison = new AsyncTask<EquationOfState, Void, float[]>() {
+			@Override
+			protected float[] doInBackground(EquationOfState... params) {
+				// The activity's engine belongs to the UI thread
+				final BlendEngine engine = new BlendEngine();
+				final float differences[] = new float[params.length];
+				for(int i = 0; i < params.length && ! isCancelled(); i ++) {
+					differences[i] = difference(plan, inputs.solveWith(BlendResult.this, engine, params[i]));
+				}
+				return differences;
 			}
-			if(vta > 0) {
-				steps.add(new BlendStep(null, (int)Math.round(vta), mTopup));
+
+			@Override
+			protected void onPostExecute(float[] differences) {
+				if(mComparison != this) {
+					return;
+				}
+				mComparison = null;
+				final StringBuilder b = new StringBuilder();
+				for(int i = 0; i < differences.length; i ++) {
+					if(Float.isNaN(differences[i])) {
+						continue;
+					}
+					if(b.length() > 0) {
+						b.append("\n");
+					}
+					b.append(String.format(getString(R.string.model_difference), equationLabels.get(i),
+							mPressureFormat.format(differences[i]), mPressureUnit));
+				}
+				mModelDifferenceView.setText(b);
 			}
-			steps.add(new BlendStep(pnx, (int)Math.round(vca), continuousAdd));
-		}
-		return steps;
+		}.execute(equations.toArray(new EquationOfState[equations.size()]));
 	}
 
-	private List<BlendStep> getContinuousTmxSteps(GasSupply supply) {
-		float ptmx, pdrain = (float)supply.getPressure();
-		// Take vo2a and vta and combine them into a single Mix.
-		final double vca = vo2a + vhea + vta;
-		final Mix continuousAdd = new Mix((vo2a + vta * mTopup.getfO2()) / vca, (vhea + vta * mTopup.getfHe()) / vca);
-
-		// Now do the blend
-		List<BlendStep> steps = new ArrayList<BlendStep>(4);
-
-		ptmx = vca > 0? (float)supply.addGas(continuousAdd, vca).getPressure(): pdrain;
-
-		if(Math.round(ptmx) > Math.round(pdrain)) {
-			if(vo2a > 0) {
-				steps.add(new BlendStep(null, (int)Math.round(vo2a), new Mix(1, 0)));
-			}
-			if(vhea > 0) {
-				steps.add(new BlendStep(null, (int)Math.round(vhea), new Mix(0, 1)));
-			}
-			if(vta > 0) {
-				steps.add(new BlendStep(null, (int)Math.round(vta), mTopup));
+	/**
+	 * @return The largest difference between the pressures of the steps of
+	 * two plans, or NaN if they can't be lined up step by step
+	 */
+	private static float difference(BlendPlan plan, BlendPlan other) {
+		final List<BlendStep> steps = plan.getSteps(), otherSteps = other.getSteps();
+		if(! other.isSolved() || steps.size() != otherSteps.size()) {
+			return Float.NaN;
+		}
+		float difference = Math.abs(plan.getStartPressure() - other.getStartPressure());
+		for(int i = 0; i < steps.size(); i ++) {
+			final Float p = steps.get(i).getPressure(), q = otherSteps.get(i).getPressure();
+			if(p != null && q != null) {
+				difference = Math.max(difference, Math.abs(p - q));
 			}
-			steps.add(new BlendStep(ptmx, (int)Math.round(vca), continuousAdd));
 		}
-		return steps;
+		return difference;
 	}
-	
+
 	// ItemSelected listener for the blend mode spinner
 	
 	// Workaround for Android bug that causes onItemSelected to fire during layout
@@ -545,6 +369,7 @@ public class BlendResult extends ListActivity implements AdapterView.OnItemSelec
 		}
 		mSettings.edit().putInt("blend_mode", position).commit();
 		mBlendMode = position;
+		solve();
 		showResult();
 	}
 
@@ -557,18 +382,18 @@ public class BlendResult extends ListActivity implements AdapterView.OnItemSelec
 		String presUnit = mPressureUnit;
 		if(step == 0) {
 			return String.format(getString(R.string.start_with),
-					mStartPressure > 0? String.format(getString(R.string.gas_amount),
-							nf.format(mStartPressure),
+					mPlan.getStartPressure() > 0? String.format(getString(R.string.gas_amount),
+							nf.format(mPlan.getStartPressure()),
 							presUnit,
-							mStart.toString())
+							MixPool.toString(mInputs.getStart()))
 					: getString(R.string.empty_tank));
 		} else if(getListView().getCount() - 1 == step) {
 			return String.format(getString(R.string.result_end), String.format(getString(R.string.gas_amount),
-							nf.format(pf),
+							nf.format(mInputs.getDesiredPressure()),
 							presUnit,
-					mDesired.toString()));
+					MixPool.toString(mInputs.getDesired())));
 		}
-		return ((BlendStep)getListView().getItemAtPosition(step)).toCharSequence();
+		return stepToCharSequence((BlendStep)getListView().getItemAtPosition(step));
 	}
 
 	private Toast mActiveMessage = null;
@@ -596,8 +421,19 @@ public class BlendResult extends ListActivity implements AdapterView.OnItemSelec
 			ClipboardManager c = (ClipboardManager)BlendResult.this.getSystemService(CLIPBOARD_SERVICE);
 			c.setText(b);
 			break;
+		case R.id.model_difference:
+			compareModels();
+			break;
 		case R.id.button_close:
 			finish();
 		}
 	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if(mComparison != null) {
+			mComparison.cancel(true);
+		}
+	}
 }
\ No newline at end of file
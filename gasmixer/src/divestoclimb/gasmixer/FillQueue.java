@@ -0,0 +1,147 @@
+package divestoclimb.gasmixer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import divestoclimb.gasmixer.blend.BlendPlan;
+import divestoclimb.gasmixer.blend.BlendRequest;
+import divestoclimb.gasmixer.blend.FillPlanner;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.Units;
+import divestoclimb.scuba.equipment.storage.CylinderORMapper;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+
+/**
+ * Plans a queue of fills in the background. The cylinders in the queue are
+ * loaded in as few queries as possible, the blends are solved on all
+ * available cores, and each plan is delivered on the UI thread as soon as
+ * it's solved.
+ */
+abstract class FillQueue extends AsyncTask<BlendInputs, FillQueue.Planned, FillPlanner.FillSchedule> {
+
+	/**
+	 * A plan for one entry in the queue
+	 */
+	static class Planned {
+		final int index;
+		final BlendPlan plan;
+
+		Planned(int index, BlendPlan plan) {
+			this.index = index;
+			this.plan = plan;
+		}
+	}
+
+	private final Context mCtx;
+	private final Units mUnits;
+	// Filled in the background before any plan is published
+	private volatile Map<Long, Cylinder> mCylinders;
+
+	/**
+	 * @param ctx The context to use for looking up cylinders
+	 * @param units The units the entries are in
+	 */
+	FillQueue(Context ctx, Units units) {
+		mCtx = ctx.getApplicationContext();
+		mUnits = new Units(units.getCurrentSystem());
+	}
+
+	@Override
+	protected FillPlanner.FillSchedule doInBackground(BlendInputs... entries) {
+		final Map<Long, Cylinder> cylinders = fetchCylinders(entries);
+		mCylinders = cylinders;
+		final List<BlendRequest> requests = new ArrayList<BlendRequest>(entries.length);
+		for(BlendInputs e : entries) {
+			requests.add(e.buildRequest(cylinders.get(e.getCylinderId())));
+		}
+
+		final int threads = Runtime.getRuntime().availableProcessors();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			return new FillPlanner(executor, threads).plan(requests, new FillPlanner.Listener() {
+				public void onPlanned(int index, BlendPlan plan) {
+					publishProgress(new Planned(index, plan));
+				}
+			});
+		} catch(InterruptedException e) {
+			// Cancelled
+			return null;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Load the cylinders for all the entries that need one
+	 */
+	private Map<Long, Cylinder> fetchCylinders(BlendInputs entries[]) {
+		final Map<Long, Cylinder> cylinders = new HashMap<Long, Cylinder>();
+		for(BlendInputs e : entries) {
+			cylinders.put(e.getCylinderId(), null);
+		}
+		cylinders.remove(-1L);
+		if(cylinders.isEmpty()) {
+			return cylinders;
+		}
+		final long ids[] = new long[cylinders.size()];
+		int i = 0;
+		for(long id : cylinders.keySet()) {
+			ids[i ++] = id;
+		}
+		final CylinderORMapper mapper = new CylinderORMapper(mCtx, mUnits);
+		final Cursor c = mapper.fetchCylinders(ids);
+		if(c != null) {
+			while(c.moveToNext()) {
+				final Cylinder cyl = mapper.fetch(c);
+				if(cyl != null) {
+					cylinders.put(cyl.getId(), cyl);
+				}
+			}
+			c.close();
+		}
+		return cylinders;
+	}
+
+	/**
+	 * Get a cylinder in the queue. May be called from onPlanned and
+	 * onScheduled.
+	 * @param id The ID of the cylinder
+	 * @return The cylinder, or null if it wasn't found
+	 */
+	protected Cylinder getCylinder(long id) {
+		final Map<Long, Cylinder> cylinders = mCylinders;
+		return cylinders == null? null: cylinders.get(id);
+	}
+
+	@Override
+	protected void onProgressUpdate(Planned... values) {
+		for(Planned p : values) {
+			onPlanned(p.index, p.plan);
+		}
+	}
+
+	@Override
+	protected void onPostExecute(FillPlanner.FillSchedule result) {
+		onScheduled(result);
+	}
+
+	/**
+	 * Called on the UI thread as each entry is solved, in no particular order
+	 * @param index The index of the entry
+	 * @param plan The plan for it
+	 */
+	protected abstract void onPlanned(int index, BlendPlan plan);
+
+	/**
+	 * Called on the UI thread once every entry is solved
+	 * @param schedule The totals and fill order for the queue
+	 */
+	protected abstract void onScheduled(FillPlanner.FillSchedule schedule);
+}
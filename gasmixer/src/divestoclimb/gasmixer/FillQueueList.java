@@ -0,0 +1,292 @@
+package divestoclimb.gasmixer;
+
+import java.text.NumberFormat;
+import java.util.List;
+
+import divestoclimb.gasmixer.blend.BlendPlan;
+import divestoclimb.gasmixer.blend.BlendStep;
+import divestoclimb.gasmixer.blend.FillPlanner;
+import divestoclimb.gasmixer.blend.MixPool;
+import divestoclimb.gasmixer.prefs.SyncedPrefsHelper;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.Units;
+
+import android.app.AlertDialog;
+import android.app.ListActivity;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.text.SpannableStringBuilder;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+/**
+ * A queue of cylinders to fill with the blend set up in the main screen.
+ * Each cylinder's plan is shown as soon as it's solved, and once they all
+ * are the queue is put in the order to fill them and the total amount of
+ * each gas is shown.
+ */
+public class FillQueueList extends ListActivity implements View.OnClickListener {
+
+	private static final String STATE_CYLINDERS = "cylinders";
+
+	// The IDs of the cylinders in the queue, in the order they were added
+	private long mCylinderIds[];
+	// The blend each cylinder gets, apart from the cylinder
+	private BlendInputs mTemplate;
+
+	// The running or last finished planner, its plans so far and, once it's
+	// finished, the order to fill in
+	private FillQueue mTask;
+	private BlendPlan mPlans[];
+	private int mOrder[];
+
+	private Units mUnits;
+	private NumberFormat mPressureFormat, mCapacityFormat;
+	private String mPressureUnit;
+	private CharSequence mCapacityUnit;
+	private TextView mTotalsView;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.fill_queue);
+
+		final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(this),
+			state = getSharedPreferences(Params.STATE_NAME, 0);
+		int unit;
+		if(settings.contains("units")) {
+			// Android issue 2096 - ListPreference won't work with an integer
+			// array for values. Unit values are being stored as Strings then
+			// we convert them here for use.
+			unit = Integer.valueOf(settings.getString("units", "0"));
+		} else {
+			Cursor c = new SyncedPrefsHelper(this).findSetValue("units");
+			unit = c == null? 0: Integer.valueOf(c.getString(c.getColumnIndexOrThrow("units")));
+		}
+		mUnits = new Units(unit);
+		mPressureFormat = Params.getPressureFormat(mUnits);
+		mCapacityFormat = Params.getCapacityFormat(mUnits);
+		mPressureUnit = getString(mUnits.pressureUnit() == Units.IMPERIAL? R.string.pres_imperial: R.string.pres_metric);
+		mCapacityUnit = getText(mUnits.capacityUnit() == Units.IMPERIAL? R.string.capacity_imperial: R.string.capacity_metric);
+
+		mTemplate = BlendInputs.fromState(settings, state, mUnits);
+		if(savedInstanceState != null && savedInstanceState.containsKey(STATE_CYLINDERS)) {
+			mCylinderIds = savedInstanceState.getLongArray(STATE_CYLINDERS);
+		} else if(mTemplate.getCylinderId() != -1) {
+			// Start with the cylinder the main screen is filling
+			mCylinderIds = new long[] { mTemplate.getCylinderId() };
+		} else {
+			mCylinderIds = new long[0];
+		}
+
+		((TextView)findViewById(R.id.blend)).setText(String.format(getString(R.string.queue_blend),
+				mPressureFormat.format(mTemplate.getDesiredPressure()), mPressureUnit,
+				MixPool.toString(mTemplate.getDesired())));
+		mTotalsView = (TextView)findViewById(R.id.totals);
+
+		findViewById(R.id.button_add).setOnClickListener(this);
+		findViewById(R.id.button_close).setOnClickListener(this);
+
+		setListAdapter(mAdapter);
+		plan();
+	}
+
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		outState.putLongArray(STATE_CYLINDERS, mCylinderIds);
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if(mTask != null) {
+			mTask.cancel(true);
+		}
+	}
+
+	/**
+	 * Start planning the queue over, cancelling any planning that's still
+	 * running
+	 */
+	private void plan() {
+		if(mTask != null) {
+			mTask.cancel(true);
+		}
+		final BlendInputs entries[] = new BlendInputs[mCylinderIds.length];
+		for(int i = 0; i < entries.length; i ++) {
+			entries[i] = mTemplate.withCylinder(mCylinderIds[i]);
+		}
+		mPlans = new BlendPlan[entries.length];
+		mOrder = null;
+		mTotalsView.setText(entries.length == 0? getString(R.string.queue_empty): getString(R.string.queue_solving));
+		mTask = new FillQueue(this, mUnits) {
+			@Override
+			protected void onPlanned(int index, BlendPlan plan) {
+				if(mTask == this) {
+					mPlans[index] = plan;
+					mAdapter.notifyDataSetChanged();
+				}
+			}
+
+			@Override
+			protected void onScheduled(FillPlanner.FillSchedule schedule) {
+				if(mTask == this && schedule != null) {
+					mOrder = schedule.getOrder();
+					showTotals(schedule);
+					mAdapter.notifyDataSetChanged();
+				}
+			}
+		};
+		mAdapter.notifyDataSetChanged();
+		if(entries.length > 0) {
+			mTask.execute(entries);
+		}
+	}
+
+	private void showTotals(FillPlanner.FillSchedule schedule) {
+		final SpannableStringBuilder b = new SpannableStringBuilder(String.format(
+				getString(R.string.queue_solved), schedule.getSolvedCount(), mPlans.length));
+		if(mTemplate.isReal()) {
+			appendTotal(b, R.string.queue_total_o2, schedule.getO2Amount());
+			appendTotal(b, R.string.queue_total_he, schedule.getHeAmount());
+			appendTotal(b, R.string.queue_total_topup, schedule.getTopupAmount());
+		} else {
+			// Ideal gas blends are solved for a simulated cylinder, so the
+			// amounts don't mean anything
+			b.append("\n").append(getString(R.string.queue_totals_ideal));
+		}
+		mTotalsView.setText(b);
+	}
+
+	private void appendTotal(SpannableStringBuilder b, int label, double amount) {
+		// Imperial capacity units are styled, so we must treat the unit as a CharSequence
+		b.append("\n").append(String.format(getString(label), mCapacityFormat.format(amount)))
+			.append(" ").append(mCapacityUnit);
+	}
+
+	private void addCylinder(long id) {
+		final long ids[] = new long[mCylinderIds.length + 1];
+		System.arraycopy(mCylinderIds, 0, ids, 0, mCylinderIds.length);
+		ids[mCylinderIds.length] = id;
+		mCylinderIds = ids;
+		plan();
+	}
+
+	private void removeCylinder(int index) {
+		final long ids[] = new long[mCylinderIds.length - 1];
+		System.arraycopy(mCylinderIds, 0, ids, 0, index);
+		System.arraycopy(mCylinderIds, index + 1, ids, index, ids.length - index);
+		mCylinderIds = ids;
+		plan();
+	}
+
+	/**
+	 * @return The index in the queue of the entry shown at the given
+	 * position. Entries are shown in the order they were added until the fill
+	 * order is known.
+	 */
+	private int entryAt(int position) {
+		return mOrder == null? position: mOrder[position];
+	}
+
+	private String cylinderName(int index) {
+		final Cylinder c = mTask == null? null: mTask.getCylinder(mCylinderIds[index]);
+		return c != null? c.getName(): getString(R.string.queue_unknown_cylinder);
+	}
+
+	private CharSequence describe(BlendPlan plan) {
+		if(plan == null) {
+			return getString(R.string.queue_solving);
+		} else if(! plan.isSolved()) {
+			return getString(R.string.result_impossible);
+		}
+		final StringBuilder b = new StringBuilder();
+		if(plan.isDrainNeeded()) {
+			b.append(String.format(getString(R.string.result_drain),
+					mPressureFormat.format(plan.getStartPressure()), mPressureUnit));
+		}
+		final List<BlendStep> steps = plan.getSteps();
+		for(BlendStep s : steps) {
+			if(b.length() > 0) {
+				b.append("\n");
+			}
+			final Float pressure = s.getPressure();
+			if(pressure != null) {
+				b.append(String.format(getString(R.string.result_fillto),
+						mPressureFormat.format(pressure), mPressureUnit, MixPool.toString(s.getMix())));
+			} else {
+				b.append(MixPool.toString(s.getMix()));
+			}
+		}
+		return b;
+	}
+
+	private final BaseAdapter mAdapter = new BaseAdapter() {
+		public int getCount() {
+			return mCylinderIds == null? 0: mCylinderIds.length;
+		}
+
+		public Object getItem(int position) {
+			return mPlans[entryAt(position)];
+		}
+
+		public long getItemId(int position) {
+			return mCylinderIds[entryAt(position)];
+		}
+
+		public View getView(int position, View convertView, ViewGroup parent) {
+			final View row = convertView != null? convertView:
+				getLayoutInflater().inflate(R.layout.fill_queue_line, null);
+			final int index = entryAt(position);
+			((TextView)row.findViewById(R.id.cylinder)).setText((position + 1) + ". " + cylinderName(index));
+			((TextView)row.findViewById(R.id.steps)).setText(describe(mPlans[index]));
+			return row;
+		}
+	};
+
+	@Override
+	protected void onListItemClick(ListView l, View v, final int position, long id) {
+		super.onListItemClick(l, v, position, id);
+		final int index = entryAt(position);
+		new AlertDialog.Builder(this)
+			.setMessage(String.format(getString(R.string.queue_remove), cylinderName(index)))
+			.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+				public void onClick(DialogInterface dialog, int which) {
+					// The queue may have been planned over since
+					if(index < mCylinderIds.length) {
+						removeCylinder(index);
+					}
+				}
+			})
+			.setNegativeButton(android.R.string.cancel, null)
+			.show();
+	}
+
+	@Override
+	public void onActivityResult(int requestCode, int resultCode, Intent intent) {
+		// The only activity we start that returns a result is CylinderSizes
+		if(resultCode == RESULT_OK) {
+			addCylinder(intent.getExtras().getLong("selected"));
+		}
+	}
+
+	public void onClick(View v) {
+		switch(v.getId()) {
+		case R.id.button_add:
+			final Intent cylinders = new Intent(Intent.ACTION_GET_CONTENT);
+			cylinders.setType("vnd.android.cursor.item/vnd.divestoclimb.scuba.equipment.cylinders.size");
+			startActivityForResult(cylinders, 0);
+			break;
+		case R.id.button_close:
+			finish();
+		}
+	}
+}
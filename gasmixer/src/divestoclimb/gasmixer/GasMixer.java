@@ -1,12 +1,22 @@
 package divestoclimb.gasmixer;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.NumberFormat;
 import java.text.ParseException;
 
 import divestoclimb.android.widget.NumberSelector;
+import divestoclimb.gasmixer.blend.BestMixTable;
+import divestoclimb.gasmixer.blend.BlendPlan;
+import divestoclimb.gasmixer.blend.FeasibleRegion;
+import divestoclimb.gasmixer.blend.HeliumFrontier;
+import divestoclimb.gasmixer.blend.MixPool;
+import divestoclimb.gasmixer.blend.BlendStep;
+import divestoclimb.gasmixer.blend.PackedMix;
 import divestoclimb.gasmixer.prefs.Settings;
 import divestoclimb.gasmixer.prefs.SyncedPrefsHelper;
 import divestoclimb.gasmixer.widget.NitroxSelector;
+import divestoclimb.gasmixer.widget.TrimixPreference;
 import divestoclimb.gasmixer.widget.TrimixSelector;
 import divestoclimb.lib.scuba.Cylinder;
 import divestoclimb.lib.scuba.Localizer;
@@ -21,6 +31,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ProviderInfo;
+import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
@@ -28,6 +39,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.preference.PreferenceManager;
+import android.text.SpannableStringBuilder;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -59,14 +71,33 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 			mTopupStartPressure, mTopupFinalPressure;
 	private TextView mMaxDepthUnit, mMaxEndUnit, mBlendDesiredPressureUnit,
 			mTopupStartPressureUnit, mDesiredMOD, mDesiredEADENDLabel,
-			mDesiredEADEND, mStartingMix, mBestMixResult, mCylinderDescription;
+			mDesiredEADEND, mStartingMix, mBestMixResult, mBestMixFrontier,
+			mCylinderDescription;
 	private ToggleButton mTogglePo2;
 	private Mix mBestMix;
+	// The fill on the blend tab, for finding helium options in. Made when
+	// first needed and dropped whenever the fill changes.
+	private BlendInputs mFrontierInputs;
 	private Units mUnits;
 	private CylinderORMapper mCylORMapper;
+	// The inline blend preview. Not every layout has room for it, in which
+	// case the view is null. The helium options are found on the same
+	// thread, so the thread is always there.
+	private TextView mBlendPreviewView;
+	private BlendPreview mBlendPreview;
 
 	private static final int DIALOG_INSTALL_SCUBATANKS = 1;
 
+	// The number of helium options to show on the best mix tab
+	private static final int FRONTIER_SHOWN = 4;
+
+	private static final String TAB_BESTMIX = "tab3";
+
+	// The precomputed best mixes, shared by every instance. Null until it's
+	// loaded, or if it can't be.
+	private static volatile BestMixTable sBestMixTable;
+	private static boolean sBestMixTableRequested;
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -96,6 +127,8 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 
 		mCylORMapper = new CylinderORMapper(this, mUnits);
 
+		loadBestMixTable();
+
 		final TabHost tabhost = getTabHost();
 
 		final Resources r = getResources();
@@ -105,7 +138,7 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 		tabhost.addTab(tabhost.newTabSpec("tab2")
 				.setIndicator(getString(R.string.topup), r.getDrawable(R.drawable.topup_32))
 				.setContent(R.id.tab_topup));
-		tabhost.addTab(tabhost.newTabSpec("tab3")
+		tabhost.addTab(tabhost.newTabSpec(TAB_BESTMIX)
 				.setIndicator(getString(R.string.bestmix), r.getDrawable(android.R.drawable.btn_star))
 				.setContent(R.id.tab_bestmix));
 
@@ -129,6 +162,17 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 
 		mStartingMix = (TextView)blendTab.findViewById(R.id.start_mix);
 
+		mBlendDesiredPressure.setValueChangedListener(this);
+		mBlendPreviewView = (TextView)blendTab.findViewById(R.id.blend_preview);
+		mBlendPreview = new BlendPreview(this, mPreviewListener);
+		tabhost.setOnTabChangedListener(new TabHost.OnTabChangeListener() {
+			public void onTabChanged(String tabId) {
+				if(TAB_BESTMIX.equals(tabId)) {
+					updateFrontier();
+				}
+			}
+		});
+
 		mMaxDepth = (NumberSelector)bestmixTab.findViewById(R.id.maxdepth);
 		mMaxDepth.setValueChangedListener(this);
 		mMaxEnd = (NumberSelector)bestmixTab.findViewById(R.id.maxend);
@@ -138,6 +182,7 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 		mMaxPo2 = (NumberSelector)bestmixTab.findViewById(R.id.maxpo2);
 		mMaxPo2.setValueChangedListener(this);
 		mBestMixResult = (TextView)bestmixTab.findViewById(R.id.bestmix_result);
+		mBestMixFrontier = (TextView)bestmixTab.findViewById(R.id.bestmix_frontier);
 
 		mCylinderDescription = (TextView)topupTab.findViewById(R.id.cylinder);
 		mTopupStartPressure = (NumberSelector)topupTab.findViewById(R.id.topup_start_pres);
@@ -165,6 +210,12 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 		bestmixTab.findViewById(R.id.bestmix_blend).setOnClickListener(this);
 	}
 
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		mBlendPreview.quit();
+	}
+
 	@Override
 	public void onPause() {
 		super.onPause();
@@ -187,10 +238,7 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 
 		// Also retrieve any state preferences that other activities change
 		mBlendStartPressure = state.getFloat("start_pres", units.pressureTankLow());
-		mBlendStartMix = new Mix(
-				state.getFloat("start_o2", 0.21f),
-				state.getFloat("start_he", 0f)
-		);
+		mBlendStartMix = Params.getMix(state, "start", 0.21f, 0);
 
 		// Units
 		Integer unit, last_unit = null;
@@ -252,7 +300,9 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 		updateUnits(last_unit);
 		updateModEnd(mDesiredGas.getMix());
 		updateStartMix();
+		updateFeasibleRegion();
 		updateBestMix();
+		updatePreview();
 	}
 
 	@Override
@@ -262,9 +312,23 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 		return true;
 	}
 
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		super.onPrepareOptionsMenu(menu);
+		// The queue is made of cylinders, so it needs ScubaTanks
+		menu.findItem(R.id.queue).setVisible(testCylinders());
+		return true;
+	}
+
 	@Override
 	public boolean onMenuItemSelected(int featureId, MenuItem item) {
 		switch(item.getItemId()) {
+			case R.id.labels:
+				startActivity(new Intent(this, LabelTable.class));
+				return true;
+			case R.id.queue:
+				startActivity(new Intent(this, FillQueueList.class));
+				return true;
 			case R.id.settings:
 				startActivity(new Intent(this, Settings.class));
 				return true;
@@ -342,6 +406,7 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 			final long id = intent.getExtras().getLong("selected");
 			mState.edit().putLong("cylinderid", id).commit();
 			updateCylinder();
+			updatePreview();
 		}
 	}
 
@@ -388,15 +453,12 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 		final Units u = mUnits;
 		final SharedPreferences state = mState;
 		mBlendDesiredPressure.setValue(state.getFloat("desired_pres", u.pressureTankFull()));
-		mDesiredGas.setMix(new Mix(state.getFloat("desired_o2", 0.32f), state.getFloat("desired_he", 0)));
+		mDesiredGas.setMix(Params.getMix(state, "desired", 0.32f, 0));
 		mTogglePo2.setChecked(state.getBoolean("po2_high", false));
 		mMaxDepth.setValue(state.getFloat("max_depth", new Float(u.depthToxic())));
 		mMaxEnd.setValue(state.getFloat("max_end", new Float(u.depthNarcotic())));
 		mMaxPo2.setValue(state.getFloat("max_po2", 1.4f));
-		mTopupGas.setMix(new Mix(
-				state.getFloat("topup_start_o2", 0.32f),
-				state.getFloat("topup_start_he", 0)
-		));
+		mTopupGas.setMix(Params.getMix(state, "topup_start", 0.32f, 0));
 		mTopupStartPressure.setValue(state.getFloat("topup_start_pres", u.pressureTankLow()));
 		mTopupFinalPressure.setValue(state.getFloat("topup_final_pres", u.pressureTankFull()));
 
@@ -411,13 +473,11 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 	// Called by onPause()
 	public void saveState() {
 		final Mix desired = mDesiredGas.getMix(), topup_start = mTopupGas.getMix();
-		mState.edit()
-			.putFloat("desired_pres", (int)Math.floor(mBlendDesiredPressure.getValue()))
+		final SharedPreferences.Editor editor = mState.edit();
+		Params.putMix(editor, "desired", desired);
+		Params.putMix(editor, "topup_start", topup_start);
+		editor.putFloat("desired_pres", (int)Math.floor(mBlendDesiredPressure.getValue()))
 			.putFloat("start_pres", mBlendStartPressure)
-			.putFloat("desired_o2", (float)desired.getfO2())
-			.putFloat("desired_he", (float)desired.getfHe())
-			.putFloat("topup_start_o2", (float)topup_start.getfO2())
-			.putFloat("topup_start_he", (float)topup_start.getfHe())
 			.putBoolean("po2_high", mTogglePo2.isChecked())
 			.putFloat("max_depth", mMaxDepth.getValue())
 			.putFloat("max_end", mMaxEnd.getValue())
@@ -489,14 +549,14 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 		final Units u = mUnits;
 		final String depthUnit = getString(u.depthUnit() == Units.IMPERIAL? R.string.depth_imperial: R.string.depth_metric);
 		final NumberFormat nf = NumberFormat.getIntegerInstance();
-		final float mod = m.MOD(u, mTogglePo2.isChecked()? mPo2High: mPo2Low);
+		final float mod = MixPool.mod(m, u, mTogglePo2.isChecked()? mPo2High: mPo2Low);
 		mDesiredMOD.setText(nf.format(mod) + " " + depthUnit);
 		if(m.getHe() > 0) {
 			mDesiredEADENDLabel.setText(R.string.end);
-			mDesiredEADEND.setText(nf.format(m.END(Math.round(mod), u, mO2IsNarcotic)) + " " + depthUnit);
+			mDesiredEADEND.setText(nf.format(MixPool.end(m, Math.round(mod), u, mO2IsNarcotic)) + " " + depthUnit);
 		} else {
 			mDesiredEADENDLabel.setText(R.string.ead);
-			mDesiredEADEND.setText(nf.format(m.EAD(Math.round(mod), u)) + " " + depthUnit);
+			mDesiredEADEND.setText(nf.format(MixPool.ead(m, Math.round(mod), u)) + " " + depthUnit);
 		}
 	}
 
@@ -510,31 +570,184 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 					getString(R.string.gas_amount),
 					nf.format(mBlendStartPressure),
 					pressureUnit,
-					mBlendStartMix.toString()
+					MixPool.toString(mBlendStartMix)
 			));
 		}
 	}
 
+	/**
+	 * Start loading the best mix table in the background, if it hasn't been
+	 * already
+	 */
+	private void loadBestMixTable() {
+		synchronized(GasMixer.class) {
+			if(sBestMixTableRequested) {
+				return;
+			}
+			sBestMixTableRequested = true;
+		}
+		final AssetManager assets = getAssets();
+		new Thread() {
+			public void run() {
+				try {
+					final InputStream in = assets.open(BestMixTable.ASSET);
+					try {
+						sBestMixTable = BestMixTable.read(in);
+					} finally {
+						in.close();
+					}
+				} catch(IOException e) {
+					// Every answer will be computed instead
+				}
+			}
+		}.start();
+	}
+
 	private void updateBestMix() {
 		final Float maxdepth = mMaxDepth.getValue(),
 			maxend = mMaxEnd.getValue(),
 			maxpo2 = mMaxPo2.getValue();
 		if(maxdepth != null && maxend != null && maxpo2 != null) {
-			mBestMix = Mix.best(
-					Math.round(maxdepth),
-					Math.round(maxend),
-					mUnits,
-					maxpo2,
-					mO2IsNarcotic
-			);
+			final int depth = Math.round(maxdepth), end = Math.round(maxend);
+			final BestMixTable table = sBestMixTable;
+			// Until the table is loaded, compute the answer
+			mBestMix = table != null? table.best(depth, end, mUnits, maxpo2, mO2IsNarcotic):
+				MixPool.intern(Mix.best(depth, end, mUnits, maxpo2, mO2IsNarcotic));
 			if(mBestMix == null) {
 				mBestMixResult.setText(R.string.no_mix);
 			} else {
-				mBestMixResult.setText(mBestMix.toString());
+				mBestMixResult.setText(MixPool.toString(mBestMix));
 			}
+			updateFrontier();
+		}
+	}
+
+	/**
+	 * Request the cheapest ways to meet the best mix limits when filling the
+	 * cylinder on the blend tab. They're found in the background, and only
+	 * while the best mix tab is showing. mPreviewListener shows them.
+	 */
+	private void updateFrontier() {
+		if(! TAB_BESTMIX.equals(getTabHost().getCurrentTabTag())) {
+			return;
+		}
+		final Float maxdepth = mMaxDepth.getValue(),
+			maxend = mMaxEnd.getValue(),
+			maxpo2 = mMaxPo2.getValue(),
+			pressure = mBlendDesiredPressure.getValue();
+		if(mBlendStartMix == null || maxdepth == null || maxend == null || maxpo2 == null ||
+				pressure == null) {
+			return;
+		}
+		if(mFrontierInputs == null) {
+			mFrontierInputs = new BlendInputs(mBlendStartMix, mBlendStartPressure, mBlendStartMix,
+					(float)Math.floor(pressure), mSettings, mState, mUnits);
 		}
+		mBlendPreview.updateFrontier(mFrontierInputs, Math.round(maxdepth), Math.round(maxend),
+				maxpo2, mO2IsNarcotic);
 	}
 
+	/**
+	 * Show helium options found in the background, with how much room each
+	 * leaves under the limits
+	 */
+	private void showFrontier(HeliumFrontier f) {
+		if(f.size() == 0) {
+			mBestMixFrontier.setText("");
+			return;
+		}
+		final Units u = mUnits;
+		final NumberFormat capacity = Params.getCapacityFormat(u),
+			depth = NumberFormat.getIntegerInstance();
+		final CharSequence capacityUnit = getText(u.capacityUnit() == Units.IMPERIAL? R.string.capacity_imperial: R.string.capacity_metric);
+		final String depthUnit = getString(u.depthUnit() == Units.IMPERIAL? R.string.depth_imperial: R.string.depth_metric);
+		final SpannableStringBuilder b = new SpannableStringBuilder(getString(R.string.frontier_title));
+		for(int i = 0; i < f.size() && i < FRONTIER_SHOWN; i ++) {
+			b.append("\n").append(String.format(getString(R.string.frontier_helium),
+					MixPool.toString(PackedMix.unpack(f.getMix(i))), capacity.format(f.getHelium(i))));
+			b.append(capacityUnit);
+			b.append(String.format(getString(R.string.frontier_margins),
+					depth.format(f.getEndMargin(i)), depth.format(f.getModMargin(i)), depthUnit));
+		}
+		mBestMixFrontier.setText(b);
+	}
+
+	/**
+	 * Recompute the mixes that can be blended from the starting gas, so the
+	 * desired mix selector can flag ones that can't. Needs to be done when
+	 * the starting gas, the desired pressure or the blending gases change.
+	 */
+	private void updateFeasibleRegion() {
+		// The same things change the helium options
+		mFrontierInputs = null;
+		final Float pressure = mBlendDesiredPressure.getValue();
+		if(mBlendStartMix == null || pressure == null) {
+			return;
+		}
+		final Mix topup = TrimixPreference.getMix(mSettings, "topup_gas");
+		if(topup == null) {
+			mDesiredGas.setFeasibleRegion(null);
+			return;
+		}
+		mDesiredGas.setFeasibleRegion(new FeasibleRegion(
+				mBlendStartMix.getfO2(), mBlendStartMix.getfHe(), mBlendStartPressure,
+				mSettings.getFloat("rich_gas", 100) / 100,
+				topup.getfO2(), topup.getfHe(), Math.floor(pressure)));
+	}
+
+	/**
+	 * Request a new blend preview for the values currently on the blend tab.
+	 * The result is shown by mPreviewListener when it's ready.
+	 */
+	private void updatePreview() {
+		// mBlendStartMix isn't set until the first onResume
+		if(mBlendPreviewView == null || mBlendStartMix == null) {
+			return;
+		}
+		final Mix desired = mDesiredGas.getMix();
+		final Float pressure = mBlendDesiredPressure.getValue();
+		if(desired == null || pressure == null) {
+			return;
+		}
+		mBlendPreview.update(new BlendInputs(mBlendStartMix, mBlendStartPressure,
+				desired, (float)Math.floor(pressure), mSettings, mState, mUnits));
+	}
+
+	private final BlendPreview.Listener mPreviewListener = new BlendPreview.Listener() {
+		public void onPreview(BlendInputs inputs, BlendCache.Entry result) {
+			final BlendPlan plan = result.plan;
+			if(! plan.isSolved()) {
+				mBlendPreviewView.setText(R.string.result_impossible);
+				return;
+			}
+			final NumberFormat nf = Params.getPressureFormat(mUnits);
+			final String pressureUnit = getString(mUnits.pressureUnit() == Units.IMPERIAL? R.string.pres_imperial: R.string.pres_metric);
+			final StringBuilder b = new StringBuilder();
+			if(plan.isDrainNeeded()) {
+				b.append(String.format(getString(R.string.result_drain),
+						nf.format(plan.getStartPressure()), pressureUnit));
+			}
+			for(BlendStep step : plan.getSteps()) {
+				// Only the discrete steps are shown. The individual gases in
+				// a continuous blend are in BlendResult.
+				if(step.getPressure() == null) {
+					continue;
+				}
+				if(b.length() > 0) {
+					b.append("\n");
+				}
+				b.append(String.format(getString(R.string.result_fillto),
+						nf.format(step.getPressure()), pressureUnit,
+						MixPool.toString(step.getMix())));
+			}
+			mBlendPreviewView.setText(b);
+		}
+
+		public void onFrontier(HeliumFrontier frontier) {
+			showFrontier(frontier);
+		}
+	};
+
 	private void updateCylinder() {
 		final Cylinder c = mCylORMapper.fetchCylinder(mState.getLong("cylinderid", 1));
 		if(c != null) {
@@ -547,13 +760,20 @@ public class GasMixer extends TabActivity implements Button.OnClickListener,
 	public void onChange(NitroxSelector ts, Mix m) {
 		if(m != null) {
 			updateModEnd(m);
+			updatePreview();
 		}
 	}
 	
 	// Implementation of NumberSelector.ValueChangedListener
 	@Override
 	public void onChange(NumberSelector ns, Float new_val, boolean from_user) {
-		updateBestMix();
+		if(ns == mBlendDesiredPressure) {
+			updateFeasibleRegion();
+			updateFrontier();
+			updatePreview();
+		} else {
+			updateBestMix();
+		}
 	}
 	
 	// Implementation of OnCheckedChangedListener
@@ -0,0 +1,219 @@
+package divestoclimb.gasmixer;
+
+import java.io.IOException;
+import java.text.NumberFormat;
+
+import divestoclimb.gasmixer.blend.MixLimits;
+import divestoclimb.gasmixer.blend.MixPool;
+import divestoclimb.gasmixer.blend.PackedMix;
+import divestoclimb.gasmixer.blend.PackedMixSet;
+import divestoclimb.gasmixer.prefs.SyncedPrefsHelper;
+import divestoclimb.gasmixer.widget.TrimixPreference;
+import divestoclimb.gasmixer.widget.TrimixSelector;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+import android.app.AlertDialog;
+import android.app.ListActivity;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.text.ClipboardManager;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * A table of the MOD, END and EAD of a list of mixes, for filling out
+ * analysis labels. The mixes can be passed in EXTRA_MIXES; otherwise the
+ * mixes the rest of the app is set up with are shown. More can be added, and
+ * the table can be copied or sent elsewhere as CSV.
+ */
+public class LabelTable extends ListActivity implements View.OnClickListener {
+
+	/** An int array of packed mixes to show */
+	public static final String EXTRA_MIXES = "divestoclimb.gasmixer.mixes";
+
+	private static final String STATE_MIXES = "mixes";
+
+	private int mMixes[];
+	private MixLimits mLimits;
+	private Units mUnits;
+	private float mPo2Low, mPo2High;
+	private boolean mO2IsNarcotic;
+	private String mDepthUnit;
+	private NumberFormat mDepthFormat;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.label_table);
+
+		final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(this);
+		int unit;
+		if(settings.contains("units")) {
+			// Android issue 2096 - ListPreference won't work with an integer
+			// array for values. Unit values are being stored as Strings then
+			// we convert them here for use.
+			unit = Integer.valueOf(settings.getString("units", "0"));
+		} else {
+			Cursor c = new SyncedPrefsHelper(this).findSetValue("units");
+			unit = c == null? 0: Integer.valueOf(c.getString(c.getColumnIndexOrThrow("units")));
+		}
+		mUnits = new Units(unit);
+		mDepthFormat = NumberFormat.getIntegerInstance();
+		// Depths never need a thousands separator, and some locales use one
+		// that looks like a decimal point
+		mDepthFormat.setGroupingUsed(false);
+		mDepthUnit = getString(mUnits.depthUnit() == Units.IMPERIAL? R.string.depth_imperial: R.string.depth_metric);
+		mPo2Low = settings.getFloat("max_norm_po2", 1.4f);
+		mPo2High = settings.getFloat("max_hi_po2", 1.6f);
+		mO2IsNarcotic = settings.getBoolean("o2_is_narcotic", true);
+
+		if(savedInstanceState != null && savedInstanceState.containsKey(STATE_MIXES)) {
+			mMixes = savedInstanceState.getIntArray(STATE_MIXES);
+		} else if(getIntent().hasExtra(EXTRA_MIXES)) {
+			mMixes = getIntent().getIntArrayExtra(EXTRA_MIXES);
+		} else {
+			mMixes = defaultMixes(settings, getSharedPreferences(Params.STATE_NAME, 0));
+		}
+
+		((TextView)findViewById(R.id.mod_low)).setText(String.format(
+				getString(R.string.label_mod), Params.mPartialPressure.format(mPo2Low)));
+		((TextView)findViewById(R.id.mod_high)).setText(String.format(
+				getString(R.string.label_mod), Params.mPartialPressure.format(mPo2High)));
+
+		findViewById(R.id.button_add).setOnClickListener(this);
+		findViewById(R.id.button_copy).setOnClickListener(this);
+		findViewById(R.id.button_share).setOnClickListener(this);
+		findViewById(R.id.button_close).setOnClickListener(this);
+
+		setListAdapter(mAdapter);
+		recalculate();
+	}
+
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		outState.putIntArray(STATE_MIXES, mMixes);
+	}
+
+	/**
+	 * The mixes the app is set up with: the starting, desired and top-up
+	 * mixes in the state and the blending gases in the settings
+	 */
+	private static int[] defaultMixes(SharedPreferences settings, SharedPreferences state) {
+		final PackedMixSet seen = new PackedMixSet();
+		final int mixes[] = new int[5];
+		int n = 0;
+		final Mix topup = TrimixPreference.getMix(settings, "topup_gas");
+		for(Mix m : new Mix[] {
+				Params.getMix(state, "start", 0.21f, 0),
+				Params.getMix(state, "desired", 0.32f, 0),
+				Params.getMix(state, "topup_start", 0.32f, 0),
+				topup != null? topup: MixPool.AIR,
+				MixPool.get(settings.getFloat("rich_gas", 100) / 100, 0) }) {
+			final int packed = PackedMix.pack(m);
+			if(seen.add(packed)) {
+				mixes[n ++] = packed;
+			}
+		}
+		final int result[] = new int[n];
+		System.arraycopy(mixes, 0, result, 0, n);
+		return result;
+	}
+
+	private void recalculate() {
+		mLimits = MixLimits.compute(mMixes, mUnits, mPo2Low, mPo2High, mO2IsNarcotic);
+		mAdapter.notifyDataSetChanged();
+	}
+
+	private void addMix(Mix m) {
+		final int mixes[] = new int[mMixes.length + 1];
+		System.arraycopy(mMixes, 0, mixes, 0, mMixes.length);
+		mixes[mMixes.length] = PackedMix.pack(m);
+		mMixes = mixes;
+		recalculate();
+	}
+
+	private final BaseAdapter mAdapter = new BaseAdapter() {
+		public int getCount() {
+			return mLimits == null? 0: mLimits.size();
+		}
+
+		public Object getItem(int position) {
+			return mLimits.getMix(position);
+		}
+
+		public long getItemId(int position) {
+			return position;
+		}
+
+		public View getView(int position, View convertView, ViewGroup parent) {
+			final View row = convertView != null? convertView:
+				getLayoutInflater().inflate(R.layout.label_table_line, null);
+			final MixLimits l = mLimits;
+			((TextView)row.findViewById(R.id.gas)).setText(
+					MixPool.toString(PackedMix.unpack(l.getMix(position))));
+			((TextView)row.findViewById(R.id.mod_low)).setText(depth(l.getModLow(position)));
+			((TextView)row.findViewById(R.id.mod_high)).setText(depth(l.getModHigh(position)));
+			((TextView)row.findViewById(R.id.ead_end)).setText(
+					getString(l.isEnd(position)? R.string.end: R.string.ead) + " " +
+					depth(l.getEndEad(position)));
+			return row;
+		}
+	};
+
+	private String depth(float d) {
+		return mDepthFormat.format(d) + " " + mDepthUnit;
+	}
+
+	private String toCsv() {
+		final StringBuilder b = new StringBuilder();
+		try {
+			mLimits.writeCsv(b);
+		} catch(IOException e) {
+			// StringBuilder doesn't throw
+		}
+		return b.toString();
+	}
+
+	public void onClick(View v) {
+		switch(v.getId()) {
+		case R.id.button_add:
+			final TrimixSelector selector = new TrimixSelector(this);
+			selector.setMix(MixPool.AIR);
+			new AlertDialog.Builder(this)
+				.setTitle(R.string.label_add)
+				.setView(selector)
+				.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						final Mix m = selector.getMix();
+						if(m != null) {
+							addMix(m);
+						}
+					}
+				})
+				.setNegativeButton(android.R.string.cancel, null)
+				.show();
+			break;
+		case R.id.button_copy:
+			final ClipboardManager c = (ClipboardManager)getSystemService(CLIPBOARD_SERVICE);
+			c.setText(toCsv());
+			break;
+		case R.id.button_share:
+			final Intent send = new Intent(Intent.ACTION_SEND);
+			send.setType("text/csv");
+			send.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.label_table));
+			send.putExtra(Intent.EXTRA_TEXT, toCsv());
+			startActivity(Intent.createChooser(send, getString(R.string.label_share)));
+			break;
+		case R.id.button_close:
+			finish();
+		}
+	}
+}
@@ -3,8 +3,12 @@ package divestoclimb.gasmixer;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 
+import divestoclimb.gasmixer.blend.PackedMix;
+import divestoclimb.lib.scuba.Mix;
 import divestoclimb.lib.scuba.Units;
 
+import android.content.SharedPreferences;
+
 /**
  * A class of static methods that provides some common functionality to the entire
  * application.
@@ -33,5 +37,35 @@ public class Params {
 		// Right now all unit systems use the same precision for capacities.
 		return NumberFormat.getIntegerInstance();
 	}
-	
-}
\ No newline at end of file
+
+	/**
+	 * Read a mix saved with putMix. Older versions saved mixes as two floats,
+	 * name_o2 and name_he, which are read if there's no packed mix.
+	 * @param prefs The preferences to read from
+	 * @param name The name the mix was saved under
+	 * @param defaultO2 The fraction of oxygen if no mix has been saved
+	 * @param defaultHe The fraction of helium if no mix has been saved
+	 * @return The mix
+	 */
+	public static Mix getMix(SharedPreferences prefs, String name, float defaultO2, float defaultHe) {
+		final int packed = prefs.getInt(name + "_mix", PackedMix.NONE);
+		if(PackedMix.isValid(packed)) {
+			return PackedMix.unpack(packed);
+		}
+		return PackedMix.unpack(PackedMix.pack(prefs.getFloat(name + "_o2", defaultO2),
+				prefs.getFloat(name + "_he", defaultHe)));
+	}
+
+	/**
+	 * Save a mix as a single packed int, removing any copy in the old format
+	 * @param editor The editor to save with
+	 * @param name The name to save the mix under
+	 * @param mix The mix to save
+	 * @return editor
+	 */
+	public static SharedPreferences.Editor putMix(SharedPreferences.Editor editor, String name, Mix mix) {
+		return editor.putInt(name + "_mix", PackedMix.pack(mix))
+			.remove(name + "_o2")
+			.remove(name + "_he");
+	}
+}
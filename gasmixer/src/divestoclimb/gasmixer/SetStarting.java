@@ -83,7 +83,7 @@ public class SetStarting extends Activity implements Button.OnClickListener {
 		mPressureSelector.setIncrement(new Float(u.pressureIncrement()));
 		mPressureSelector.setValue(mState.getFloat("start_pres", 0));
 		mPressureUnit.setText(pressureUnit + ":");
-		mGasSelector.setMix(new Mix(mState.getFloat("start_o2", 0.21f), mState.getFloat("start_he", 0)));
+		mGasSelector.setMix(Params.getMix(mState, "start", 0.21f, 0));
 
 		if(mCylinderDescription != null) {
 			updateCylinder();
@@ -94,10 +94,8 @@ public class SetStarting extends Activity implements Button.OnClickListener {
 		switch(v.getId()) {
 		case R.id.button:
 			Mix m = mGasSelector.getMix();
-			mState.edit()
+			Params.putMix(mState.edit(), "start", m)
 				.putFloat("start_pres", mPressureSelector.getValue())
-				.putFloat("start_o2", (float)m.getfO2())
-				.putFloat("start_he", (float)m.getfHe())
 				.commit();
 			setResult(RESULT_OK);
 			finish();
@@ -2,6 +2,9 @@ package divestoclimb.gasmixer;
 
 import java.text.NumberFormat;
 
+import divestoclimb.gasmixer.blend.EquationOfState;
+import divestoclimb.gasmixer.blend.GasState;
+import divestoclimb.gasmixer.blend.MixPool;
 import divestoclimb.gasmixer.prefs.SyncedPrefsHelper;
 import divestoclimb.gasmixer.widget.TrimixPreference;
 import divestoclimb.lib.scuba.Cylinder;
@@ -68,10 +71,10 @@ public class TopupResult extends Activity implements CompoundButton.OnCheckedCha
 		mPo2High = settings.getFloat("max_hi_po2", 1.6f);
 		mO2IsNarcotic = settings.getBoolean("o2_is_narcotic", true);
 
-		Mix topup = TrimixPreference.stringToMix(settings.getString("topup_gas", "0.21 0"));
+		Mix topup = TrimixPreference.getMix(settings, "topup_gas");
 		if(topup == null) {
 			// Not sure how this happens, but to someone it did
-			topup = new Mix(0.21f, 0);
+			topup = MixPool.AIR;
 			Toast.makeText(this, R.string.topup_read_error, Toast.LENGTH_LONG);
 		}
 
@@ -85,21 +88,31 @@ public class TopupResult extends Activity implements CompoundButton.OnCheckedCha
 		if(! real || c == null) {
 			c = new Cylinder(mUnits, mUnits.volumeNormalTank(), (int)mUnits.pressureTankFull());
 		}
-		GasSupply fill = new GasSupply(c,
-				new Mix(state.getFloat("topup_start_o2", 0.21f), state.getFloat("topup_start_he", 0)),
-				(int)state.getFloat("topup_start_pres", 0),
-				! real,
-				mUnits.convertAbsTemp(settings.getFloat("temperature", 294), Units.METRIC)
-		);
-		mResult = fill.topup(topup, (int)state.getFloat("topup_final_pres", 0)).getMix();
-
-		String resultText = String.format(getString(R.string.topup_result), mResult.toString());
+		// Van der Waals is what GasSupply already does
+		final String model = settings.getString("gas_model", EquationOfState.VAN_DER_WAALS);
+		final EquationOfState equation = EquationOfState.VAN_DER_WAALS.equals(model)? null:
+			EquationOfState.forName(model);
+		final Mix start = Params.getMix(state, "topup_start", 0.21f, 0);
+		final int startPressure = (int)state.getFloat("topup_start_pres", 0),
+			finalPressure = (int)state.getFloat("topup_final_pres", 0);
+		final float temperature = mUnits.convertAbsTemp(settings.getFloat("temperature", 294), Units.METRIC);
+		mResult = MixPool.intern(topup(c, start, startPressure, topup, finalPressure, real, equation, temperature));
+		// The mix that comes out doesn't depend on the size of the cylinder,
+		// so the same one can be used to show the other gas laws' result
+		final Mix other = topup(c, start, startPressure, topup, finalPressure, ! real, equation, temperature);
+
+		String resultText = String.format(getString(R.string.topup_result), MixPool.toString(mResult));
 
 		TextView resultView = (TextView) findViewById(R.id.result);
 		resultView.setText(resultText);
 		TextView reminder1View = (TextView) findViewById(R.id.reminder1);
 		reminder1View.setText(String.format(getString(R.string.topup_reminder),
-				topup.toString()
+				MixPool.toString(topup)
+		));
+		TextView modelView = (TextView) findViewById(R.id.model_difference);
+		modelView.setText(String.format(getString(R.string.topup_model_difference),
+				getString(real? R.string.model_ideal: R.string.model_real),
+				other.toString()
 		));
 		TextView reminder2View = (TextView) findViewById(R.id.reminder2);
 		reminder2View.setText(getString(R.string.analyze_warning));
@@ -115,18 +128,33 @@ public class TopupResult extends Activity implements CompoundButton.OnCheckedCha
 		findViewById(R.id.button_close).setOnClickListener(this);
 	}
 
+	/**
+	 * Work out the mix after topping up
+	 * @param equation The equation of state for real gases, or null to use
+	 * GasSupply's own
+	 */
+	private Mix topup(Cylinder c, Mix start, int startPressure, Mix topup, int finalPressure,
+			boolean real, EquationOfState equation, float temperature) {
+		if(real && equation != null) {
+			return new GasState(equation, c.getInternalVolume(), temperature, start, startPressure, mUnits)
+					.topup(topup, finalPressure).getMix();
+		}
+		return new GasSupply(c, start, startPressure, ! real, temperature)
+				.topup(topup, finalPressure).getMix();
+	}
+
 	private void updateModEnd() {
 		final Units u = mUnits;
 		final NumberFormat nf = NumberFormat.getIntegerInstance();
-		float mod = mResult.MOD(u, mTogglePo2.isChecked()? mPo2High: mPo2Low);
+		float mod = MixPool.mod(mResult, u, mTogglePo2.isChecked()? mPo2High: mPo2Low);
 		final String depthUnit = getString(u.depthUnit() == Units.IMPERIAL? R.string.depth_imperial: R.string.depth_metric);
 		mFinalMOD.setText(nf.format(mod) + " " + depthUnit);
 		if(mResult.getHe() > 0) {
 			mFinalEADENDLabel.setText(getResources().getString(R.string.end));
-			mFinalEADEND.setText(nf.format(mResult.END(Math.round(mod), u, mO2IsNarcotic)) + " " + depthUnit);
+			mFinalEADEND.setText(nf.format(MixPool.end(mResult, Math.round(mod), u, mO2IsNarcotic)) + " " + depthUnit);
 		} else {
 			mFinalEADENDLabel.setText(getResources().getString(R.string.ead));
-			mFinalEADEND.setText(nf.format(mResult.EAD(Math.round(mod), u)) + " " + depthUnit);
+			mFinalEADEND.setText(nf.format(MixPool.ead(mResult, Math.round(mod), u)) + " " + depthUnit);
 		}
 	}
 	
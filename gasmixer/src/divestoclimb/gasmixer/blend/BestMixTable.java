@@ -0,0 +1,160 @@
+package divestoclimb.gasmixer.blend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Answers from Mix.best() worked out ahead of time for every setting the
+ * best mix tab's selectors step through: each depth and END from zero to
+ * the unit system's maximum in depth increments, each pO2 from 0.4 to 1.6 in
+ * steps of 0.1, and oxygen either narcotic or not. Looking up an answer is
+ * a single array index, so holding down a selector button no longer runs
+ * the search on every tick. Values typed in that aren't on the grid are
+ * still computed.
+ *
+ * The table is written by write() when the app is built and shipped as an
+ * asset (see ASSET), so it always matches the Mix.best() it came from.
+ * Instances are immutable and may be shared between threads.
+ */
+public final class BestMixTable {
+
+	/** The name of the asset the table is stored in */
+	public static final String ASSET = "bestmix.dat";
+
+	/** Returned by lookup() for settings that aren't in the table */
+	public static final int OFF_GRID = -2;
+
+	// "BMIX"
+	private static final int MAGIC = 0x424d4958;
+	private static final int VERSION = 1;
+
+	// pO2 in tenths, the range and increment of the selector
+	private static final int PO2_MIN = 4, PO2_MAX = 16, PO2_COUNT = PO2_MAX - PO2_MIN + 1;
+
+	private static final int SYSTEMS[] = { Units.IMPERIAL, Units.METRIC };
+
+	// For each unit system, indexed by its constant: the depth increment,
+	// the number of depths and ENDs, and the packed best mixes
+	private final int mIncrement[], mDepths[], mEnds[];
+	private final int mMixes[][];
+
+	private BestMixTable(int systems) {
+		mIncrement = new int[systems];
+		mDepths = new int[systems];
+		mEnds = new int[systems];
+		mMixes = new int[systems][];
+	}
+
+	private static int systemCount() {
+		return Math.max(Units.IMPERIAL, Units.METRIC) + 1;
+	}
+
+	/**
+	 * Work out every answer in the table and write it out
+	 * @param out The stream to write to. It's not closed.
+	 */
+	public static void write(OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		for(int system : SYSTEMS) {
+			final Units u = new Units(system);
+			final int increment = Math.round(u.depthIncrement()),
+				depths = (int)(u.depthMax() / increment) + 1,
+				ends = (int)(u.depthMaxNarcotic() / increment) + 1;
+			data.writeInt(system);
+			data.writeInt(increment);
+			data.writeInt(depths);
+			data.writeInt(ends);
+			for(int narcotic = 0; narcotic < 2; narcotic ++) {
+				for(int p = PO2_MIN; p <= PO2_MAX; p ++) {
+					for(int d = 0; d < depths; d ++) {
+						for(int e = 0; e < ends; e ++) {
+							final Mix m = Mix.best(d * increment, e * increment, u, p / 10f, narcotic == 1);
+							data.writeInt(m == null? PackedMix.NONE: PackedMix.pack(m));
+						}
+					}
+				}
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Read a table written by write()
+	 * @param in The stream to read from. It's not closed.
+	 * @return The table
+	 * @throws IOException If the stream couldn't be read or doesn't hold a
+	 * table
+	 */
+	public static BestMixTable read(InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if(data.readInt() != MAGIC || data.readInt() != VERSION) {
+			throw new IOException("Not a best mix table");
+		}
+		final BestMixTable table = new BestMixTable(systemCount());
+		for(int i = 0; i < SYSTEMS.length; i ++) {
+			final int system = data.readInt(), increment = data.readInt(),
+				depths = data.readInt(), ends = data.readInt();
+			if(system < 0 || system >= table.mMixes.length || increment <= 0 ||
+					depths <= 0 || ends <= 0) {
+				throw new IOException("Corrupt best mix table");
+			}
+			final int mixes[] = new int[2 * PO2_COUNT * depths * ends];
+			for(int j = 0; j < mixes.length; j ++) {
+				mixes[j] = data.readInt();
+			}
+			table.mIncrement[system] = increment;
+			table.mDepths[system] = depths;
+			table.mEnds[system] = ends;
+			table.mMixes[system] = mixes;
+		}
+		return table;
+	}
+
+	/**
+	 * Look up an answer
+	 * @param depth The maximum depth
+	 * @param end The maximum END
+	 * @param u The units depth and END are in
+	 * @param po2 The maximum pO2
+	 * @param o2IsNarcotic Whether oxygen counts toward the END
+	 * @return The packed best mix, PackedMix.NONE if there is none, or
+	 * OFF_GRID if the table doesn't cover these settings
+	 */
+	public int lookup(int depth, int end, Units u, float po2, boolean o2IsNarcotic) {
+		final int system = u.getCurrentSystem();
+		if(system < 0 || system >= mMixes.length || mMixes[system] == null) {
+			return OFF_GRID;
+		}
+		final int increment = mIncrement[system], d = depth / increment, e = end / increment,
+			p = Math.round(po2 * 10);
+		if(depth < 0 || end < 0 || depth % increment != 0 || end % increment != 0 ||
+				d >= mDepths[system] || e >= mEnds[system] ||
+				p < PO2_MIN || p > PO2_MAX || po2 != p / 10f) {
+			return OFF_GRID;
+		}
+		return mMixes[system][(((o2IsNarcotic? 1: 0) * PO2_COUNT + p - PO2_MIN) *
+				mDepths[system] + d) * mEnds[system] + e];
+	}
+
+	/**
+	 * Find the best mix, from the table if possible
+	 * @return The same result as Mix.best(), as a pooled Mix
+	 */
+	public Mix best(int depth, int end, Units u, float po2, boolean o2IsNarcotic) {
+		final int packed = lookup(depth, end, u, po2, o2IsNarcotic);
+		if(packed == OFF_GRID) {
+			return MixPool.intern(Mix.best(depth, end, u, po2, o2IsNarcotic));
+		}
+		return packed == PackedMix.NONE? null: PackedMix.unpack(packed);
+	}
+}
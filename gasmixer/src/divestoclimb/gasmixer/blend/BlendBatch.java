@@ -0,0 +1,167 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A batch of ideal gas blends stored as parallel arrays of primitives, one
+ * element per cylinder. All the blends share the same rich and top-up gases.
+ *
+ * Fill in the input columns, call solve(), then read the output columns. Each
+ * element is solved with the same BlendSolver call that BlendEngine makes, so
+ * the answers match solving each blend on its own with ideal gases, apart from
+ * rounding in how the starting and final amounts are computed.
+ *
+ * Gas amounts are expressed as pressure times internal volume, in whatever
+ * units the inputs use. Under ideal gas laws this is proportional to the
+ * amounts GasSupply works in, and the solution is linear in the amounts, so
+ * only the unit differs.
+ */
+public class BlendBatch {
+
+	// Below this many blends per task, splitting up the work costs more than
+	// it saves
+	private static final int MIN_CHUNK = 64;
+
+	private final int mSize;
+	private final double mRichO2, mTopupO2, mTopupHe;
+
+	// Inputs
+	/** Fraction of O2 in the gas already in each cylinder */
+	public final double startO2[];
+	/** Fraction of He in the gas already in each cylinder */
+	public final double startHe[];
+	/** Pressure of the gas already in each cylinder */
+	public final double startPressure[];
+	/** Desired fraction of O2 in each cylinder */
+	public final double targetO2[];
+	/** Desired fraction of He in each cylinder */
+	public final double targetHe[];
+	/** Desired final pressure in each cylinder */
+	public final double targetPressure[];
+	/** Internal volume of each cylinder */
+	public final double volume[];
+
+	// Outputs
+	/** BlendSolver status code for each blend */
+	public final int status[];
+	/** Amount of starting gas to keep */
+	public final double vi[];
+	/** Amount of rich gas to add */
+	public final double vo2a[];
+	/** Amount of helium to add */
+	public final double vhea[];
+	/** Amount of top-up gas to add */
+	public final double vta[];
+	/**
+	 * Pressure to drain to before blending. Equal to the starting pressure
+	 * when no draining is needed.
+	 */
+	public final double drainPressure[];
+
+	/**
+	 * Create an empty batch
+	 * @param size The number of blends in the batch
+	 * @param richO2 The fraction of O2 in the rich gas
+	 * @param topupO2 The fraction of O2 in the top-up gas
+	 * @param topupHe The fraction of He in the top-up gas
+	 */
+	public BlendBatch(int size, double richO2, double topupO2, double topupHe) {
+		mSize = size;
+		mRichO2 = richO2;
+		mTopupO2 = topupO2;
+		mTopupHe = topupHe;
+		startO2 = new double[size];
+		startHe = new double[size];
+		startPressure = new double[size];
+		targetO2 = new double[size];
+		targetHe = new double[size];
+		targetPressure = new double[size];
+		volume = new double[size];
+		status = new int[size];
+		vi = new double[size];
+		vo2a = new double[size];
+		vhea = new double[size];
+		vta = new double[size];
+		drainPressure = new double[size];
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Solve every blend in the batch on the calling thread
+	 */
+	public void solve() {
+		solveRange(0, mSize, new double[BlendSolver.RESULT_SIZE]);
+	}
+
+	/**
+	 * Solve every blend in the batch, splitting the work into one contiguous
+	 * range per thread of the executor. Returns when all blends are solved.
+	 * @param executor The executor to run the work on
+	 * @param threads The number of threads available in executor
+	 * @throws InterruptedException If interrupted while waiting for the work
+	 * to finish. Outputs are undefined in this case.
+	 */
+	public void solve(ExecutorService executor, int threads) throws InterruptedException {
+		final int chunks = Math.max(1, Math.min(threads, mSize / MIN_CHUNK));
+		if(chunks == 1) {
+			solve();
+			return;
+		}
+		final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks);
+		final int chunkSize = (mSize + chunks - 1) / chunks;
+		for(int from = 0; from < mSize; from += chunkSize) {
+			final int start = from, end = Math.min(mSize, from + chunkSize);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					solveRange(start, end, new double[BlendSolver.RESULT_SIZE]);
+					return null;
+				}
+			});
+		}
+		for(Future<Void> f : executor.invokeAll(tasks)) {
+			try {
+				f.get();
+			} catch(ExecutionException e) {
+				// solveRange doesn't throw checked exceptions
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Solve the blends with indices in [from, to)
+	 * @param result Scratch space for the solver
+	 */
+	private void solveRange(int from, int to, double result[]) {
+		final double fo2r = mRichO2, fo2t = mTopupO2, fhet = mTopupHe;
+		for(int i = from; i < to; i ++) {
+			final double fo2i = startO2[i], fhei = startHe[i],
+				fo2f = targetO2[i], fhef = targetHe[i],
+				v = volume[i], pi = startPressure[i],
+				ai = pi * v, af = targetPressure[i] * v;
+			final int s = BlendSolver.solve(fo2i, fhei, fo2r, fo2t, fhet,
+					ai, ai * fo2i, ai * fhei, ai * (1 - fo2i - fhei),
+					af * fo2f, af * fhef, af * (1 - fo2f - fhef),
+					result);
+			status[i] = s;
+			if(s == BlendSolver.SOLVED) {
+				vi[i] = result[BlendSolver.VI];
+				vo2a[i] = result[BlendSolver.VO2A];
+				vhea[i] = result[BlendSolver.VHEA];
+				vta[i] = result[BlendSolver.VTA];
+				drainPressure[i] = v > 0? result[BlendSolver.VI] / v: pi;
+			} else {
+				vi[i] = vo2a[i] = vhea[i] = vta[i] = 0;
+				drainPressure[i] = pi;
+			}
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+
+/**
+ * Computes blend plans. This class has no dependencies on Android so it can be
+ * used anywhere blends need to be planned, not just from BlendResult.
+ *
+ * An engine keeps scratch space for the solver, so a single instance must not
+ * be shared between threads. Engines are cheap to create.
+ */
+// We begin by converting the initial and desired pressures to
+// volumes. If using real gases, this is based on the mixes of each.
+// Then, we use linear algebra to compute the amounts of gases needed
+// to blend the desired mix. BlendSolver solves these systems in closed
+// form.
+// The matrix equation we need to solve looks like this:
+// [ 1	0	fo2,t ] [ vo2,a ]   [ vf*fo2,f-vi*fo2,i ]
+// [ 0	1	fhe,t ] [ vhe,a ] = [ vf*fhe,f-vi*fhe,i ]
+// [ 0	0	vn2,t ] [ vt,a  ]   [ vf*fn2,f-vi*fn2,i ]
+// Where:
+// - vi = initial volume of gas in cylinder
+// - vf = desired volume
+// - fo2,t = fraction of O2 in top-up gas
+// - fhe,t = fraction of He in top-up gas
+// - fo2,f = desired fraction of O2
+// - fhe,f = desired fraction of He
+// - fo2,i = starting fraction of O2
+// - fhe,i = starting fraction of He
+// And the unknowns:
+// - vo2,a = volume of O2 to add
+// - vhe,a = volume of He to add
+// - vt,a = volume of top-up gas to add
+//
+// Once we have the volumes, we can convert these back to pressures.
+// Logic for that is in GasSupply, or GasState if the request has its own
+// equation of state.
+//
+// One invalid solution to the above is if any of the unknowns come
+// out negative. If this happens, we have to set that unknown to 0
+// and solve for vi instead, and the difference between the solved
+// value and the given one is the amount the blender will have to
+// drain. Here's an example when setting vo2 to 0:
+// [ fo2,i	0	fo2,t ] [ vi    ]   [ vf*fo2,f ]
+// [ fhe,i	1	fhe,t ] [ vhe,a ] = [ vf*fhe,f ]
+// [ fn2,i	0	fn2,t ] [ vt,a  ]   [ vf*fn2,f ]
+public class BlendEngine {
+
+	public static final int MODE_PARTIAL_PRESSURE = 0;
+	public static final int MODE_CONTINUOUS_NITROX = 1;
+	public static final int MODE_CONTINUOUS_TRIMIX = 2;
+
+	private final double mSolution[] = new double[BlendSolver.RESULT_SIZE];
+
+	/**
+	 * Solve a single blend
+	 * @param r The blend to solve
+	 * @return The resulting plan. Check isSolved() to see if the blend is
+	 * possible.
+	 */
+	public BlendPlan solve(BlendRequest r) {
+		final Supply have = supply(r, r.getStart()), want = supply(r, r.getTarget());
+		final Mix start = have.getMix(), topup = r.getTopup();
+		final double result[] = mSolution;
+		final int status = BlendSolver.solve(start.getfO2(), start.getfHe(),
+				r.getRich().getfO2(), topup.getfO2(), topup.getfHe(),
+				have.getGasAmount(), have.getO2Amount(), have.getHeAmount(), have.getN2Amount(),
+				want.getO2Amount(), want.getHeAmount(), want.getN2Amount(),
+				result);
+		if(status != BlendSolver.SOLVED) {
+			return new BlendPlan(r, status);
+		}
+		final double vi = result[BlendSolver.VI], vo2a = result[BlendSolver.VO2A],
+			vhea = result[BlendSolver.VHEA], vta = result[BlendSolver.VTA];
+
+		final Supply supply = have.copy();
+		final float pi = (float)have.getPressure(),
+			pdrain = (float)supply.drainToGasAmount(vi).getPressure();
+		float startPressure = pi;
+		if(pi - pdrain >= Math.pow(10, r.getUnits().pressurePrecision() * -1) * 0.5) {
+			// Need to drain the gas
+			startPressure = pdrain;
+		}
+
+		final List<BlendStep> steps;
+		switch(r.getMode()) {
+		case MODE_CONTINUOUS_NITROX:
+			steps = getContinuousNxSteps(r, supply, vo2a, vhea, vta);
+			break;
+		case MODE_CONTINUOUS_TRIMIX:
+			steps = getContinuousTmxSteps(r, supply, vo2a, vhea, vta);
+			break;
+		case MODE_PARTIAL_PRESSURE:
+		default:
+			steps = getPPSteps(r, supply, vo2a, vhea, vta);
+			break;
+		}
+		return new BlendPlan(r, status, vi, vo2a, vhea, vta, startPressure, steps);
+	}
+
+	/**
+	 * Solve a batch of blends
+	 * @param requests The blends to solve
+	 * @return A plan for each request, in the same order
+	 */
+	public List<BlendPlan> solveAll(List<BlendRequest> requests) {
+		final List<BlendPlan> plans = new ArrayList<BlendPlan>(requests.size());
+		for(BlendRequest r : requests) {
+			plans.add(solve(r));
+		}
+		return plans;
+	}
+
+	/**
+	 * Wrap one of the request's supplies in the gas model the request uses
+	 */
+	static Supply supply(BlendRequest r, GasSupply s) {
+		final EquationOfState equation = r.getEquation();
+		if(equation == null) {
+			return new GasSupplyAdapter(s);
+		}
+		return new GasState(equation, r.getVolume(), r.getTemperature(), s.getMix(),
+				(float)s.getPressure(), r.getUnits());
+	}
+
+	/**
+	 * Performs a partial pressure blending and builds the steps needed to
+	 * replicate it.
+	 * @param supply The drained starting gas. This object is modified.
+	 */
+	private static List<BlendStep> getPPSteps(BlendRequest r, Supply supply,
+			double vo2a, double vhea, double vta) {
+		final Mix rich = r.getRich(), topup = r.getTopup();
+		float po2, phe, pt, pdrain = (float)supply.getPressure();
+
+		float pretop;
+		List<BlendStep> steps = new ArrayList<BlendStep>(4);
+		if(r.isHeFirst()) {
+			phe = vhea > 0? (float)supply.addHe(vhea).getPressure(): pdrain;
+			if(Math.round(phe) > Math.round(pdrain)) {
+				steps.add(step(phe, vhea, MixPool.HE, supply));
+			}
+			po2 = vo2a > 0? (float)supply.addO2(vo2a).getPressure(): phe;
+			if(Math.round(po2) > Math.round(phe)) {
+				steps.add(step(po2, vo2a, rich, supply));
+			}
+			pretop = po2;
+		} else {
+			po2 = vo2a > 0? (float)supply.addO2(vo2a).getPressure(): pdrain;
+			if(Math.round(po2) > Math.round(pdrain)) {
+				steps.add(step(po2, vo2a, rich, supply));
+			}
+			phe = vhea > 0? (float)supply.addHe(vhea).getPressure(): po2;
+			if(Math.round(phe) > Math.round(po2)) {
+				steps.add(step(phe, vhea, MixPool.HE, supply));
+			}
+			pretop = phe;
+		}
+		pt = vta > 0? (float)supply.addGas(topup, vta).getPressure(): pretop;
+		if(Math.round(pt) > Math.round(pretop)) {
+			steps.add(step(pt, vta, topup, supply));
+		}
+		return steps;
+	}
+
+	private static List<BlendStep> getContinuousNxSteps(BlendRequest r, Supply supply,
+			double vo2a, double vhea, double vta) {
+		final Mix topup = r.getTopup();
+		float pnx, phe, pdrain = (float)supply.getPressure();
+		// Take vo2a and vta and combine them into a single Mix.
+		final double vca = vo2a + vta;
+		final Mix continuousAdd = new Mix((vo2a + vta * topup.getfO2()) / vca, 0);
+
+		// Now do the blend
+		List<BlendStep> steps = new ArrayList<BlendStep>(4);
+
+		// Always add helium first. Although we could use the he_first setting to decide,
+		// it's unlikely anyone would want to top up with helium last.
+		phe = vhea > 0? (float)supply.addHe(vhea).getPressure(): pdrain;
+		final BlendStep heStep = step(phe, vhea, MixPool.HE, supply);
+		pnx = vca > 0? (float)supply.addGas(continuousAdd, vca).getPressure(): phe;
+
+		if(Math.round(phe) > Math.round(pdrain)) {
+			steps.add(heStep);
+		}
+		if(Math.round(pnx) > Math.round(phe)) {
+			if(vo2a > 0) {
+				steps.add(new BlendStep(null, (int)Math.round(vo2a), MixPool.O2));
+			}
+			if(vta > 0) {
+				steps.add(new BlendStep(null, (int)Math.round(vta), topup));
+			}
+			steps.add(step(pnx, vca, continuousAdd, supply));
+		}
+		return steps;
+	}
+
+	private static List<BlendStep> getContinuousTmxSteps(BlendRequest r, Supply supply,
+			double vo2a, double vhea, double vta) {
+		final Mix topup = r.getTopup();
+		float ptmx, pdrain = (float)supply.getPressure();
+		// Take vo2a and vta and combine them into a single Mix.
+		final double vca = vo2a + vhea + vta;
+		final Mix continuousAdd = new Mix((vo2a + vta * topup.getfO2()) / vca, (vhea + vta * topup.getfHe()) / vca);
+
+		// Now do the blend
+		List<BlendStep> steps = new ArrayList<BlendStep>(4);
+
+		ptmx = vca > 0? (float)supply.addGas(continuousAdd, vca).getPressure(): pdrain;
+
+		if(Math.round(ptmx) > Math.round(pdrain)) {
+			if(vo2a > 0) {
+				steps.add(new BlendStep(null, (int)Math.round(vo2a), MixPool.O2));
+			}
+			if(vhea > 0) {
+				steps.add(new BlendStep(null, (int)Math.round(vhea), MixPool.HE));
+			}
+			if(vta > 0) {
+				steps.add(new BlendStep(null, (int)Math.round(vta), topup));
+			}
+			steps.add(step(ptmx, vca, continuousAdd, supply));
+		}
+		return steps;
+	}
+
+	/**
+	 * Build a discrete step, recording how the supply's last pressure solve
+	 * went
+	 */
+	private static BlendStep step(float pressure, double volume, Mix mix, Supply supply) {
+		return new BlendStep(pressure, (int)Math.round(volume), mix,
+				supply.getIterations(), supply.getError());
+	}
+}
@@ -0,0 +1,108 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of solving a BlendRequest: the amounts of each gas to use and
+ * the steps to follow. Instances are immutable.
+ */
+public final class BlendPlan {
+	private final BlendRequest mRequest;
+	private final int mStatus;
+	private final double mStartAmount, mO2Amount, mHeAmount, mTopupAmount;
+	private final float mStartPressure;
+	private final List<BlendStep> mSteps;
+
+	/**
+	 * Build a plan for a problem that has no solution
+	 * @param request The request that was solved
+	 * @param status The reason there is no solution: BlendSolver.SINGULAR or
+	 * BlendSolver.INFEASIBLE
+	 */
+	BlendPlan(BlendRequest request, int status) {
+		this(request, status, 0, 0, 0, 0, 0, Collections.<BlendStep>emptyList());
+	}
+
+	BlendPlan(BlendRequest request, int status, double startAmount,
+			double o2Amount, double heAmount, double topupAmount,
+			float startPressure, List<BlendStep> steps) {
+		mRequest = request;
+		mStatus = status;
+		mStartAmount = startAmount;
+		mO2Amount = o2Amount;
+		mHeAmount = heAmount;
+		mTopupAmount = topupAmount;
+		mStartPressure = startPressure;
+		mSteps = Collections.unmodifiableList(steps);
+	}
+
+	public BlendRequest getRequest() {
+		return mRequest;
+	}
+
+	/**
+	 * @return The BlendSolver status code for this plan
+	 */
+	public int getStatus() {
+		return mStatus;
+	}
+
+	/**
+	 * @return true if this plan describes a blend that can be done
+	 */
+	public boolean isSolved() {
+		return mStatus == BlendSolver.SOLVED;
+	}
+
+	/**
+	 * @return The amount of starting gas to keep in the cylinder
+	 */
+	public double getStartAmount() {
+		return mStartAmount;
+	}
+
+	/**
+	 * @return The amount of rich gas to add
+	 */
+	public double getO2Amount() {
+		return mO2Amount;
+	}
+
+	/**
+	 * @return The amount of helium to add
+	 */
+	public double getHeAmount() {
+		return mHeAmount;
+	}
+
+	/**
+	 * @return The amount of top-up gas to add
+	 */
+	public double getTopupAmount() {
+		return mTopupAmount;
+	}
+
+	/**
+	 * @return The pressure to start blending at, which is lower than the
+	 * starting pressure if gas has to be drained first
+	 */
+	public float getStartPressure() {
+		return mStartPressure;
+	}
+
+	/**
+	 * @return true if gas has to be drained from the cylinder before blending
+	 */
+	public boolean isDrainNeeded() {
+		return mStartPressure < mRequest.getStart().getPressure();
+	}
+
+	/**
+	 * @return The steps to perform the blend in the requested blend mode. Empty
+	 * if there is no solution.
+	 */
+	public List<BlendStep> getSteps() {
+		return mSteps;
+	}
+}
@@ -0,0 +1,121 @@
+package divestoclimb.gasmixer.blend;
+
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * The inputs to a blend. A BlendRequest never modifies the objects it is
+ * given and BlendEngine only ever works on copies of them, so callers must
+ * not modify them either once the request has been built.
+ */
+public final class BlendRequest {
+	private final GasSupply mStart, mTarget;
+	private final Mix mTopup, mRich;
+	private final int mMode;
+	private final boolean mHeFirst;
+	private final Units mUnits;
+	// When set, amounts and pressures come from this equation instead of
+	// from the GasSupply objects
+	private final EquationOfState mEquation;
+	private final float mVolume, mTemperature;
+
+	/**
+	 * @param start The gas in the cylinder before blending
+	 * @param target The desired gas in the same cylinder after blending
+	 * @param topup The top-up gas
+	 * @param rich The oxygen-rich gas. Only its O2 fraction is used.
+	 * @param mode The blend mode, one of the BlendEngine.MODE_* constants
+	 * @param heFirst For partial pressure blending, whether to add helium
+	 * before the rich gas
+	 * @param units The units the supplies are expressed in
+	 */
+	public BlendRequest(GasSupply start, GasSupply target, Mix topup, Mix rich,
+			int mode, boolean heFirst, Units units) {
+		this(start, target, topup, rich, mode, heFirst, units, null, 0, 0);
+	}
+
+	private BlendRequest(GasSupply start, GasSupply target, Mix topup, Mix rich,
+			int mode, boolean heFirst, Units units, EquationOfState equation,
+			float volume, float temperature) {
+		mStart = start;
+		mTarget = target;
+		mTopup = topup;
+		mRich = rich;
+		mMode = mode;
+		mHeFirst = heFirst;
+		mUnits = units;
+		mEquation = equation;
+		mVolume = volume;
+		mTemperature = temperature;
+	}
+
+	/**
+	 * Make a copy of this request with a different blend mode. Solving the copy
+	 * is how a plan is shown in another mode.
+	 * @param mode The blend mode for the new request
+	 * @return A new BlendRequest
+	 */
+	public BlendRequest withMode(int mode) {
+		return new BlendRequest(mStart, mTarget, mTopup, mRich, mode, mHeFirst, mUnits,
+				mEquation, mVolume, mTemperature);
+	}
+
+	/**
+	 * Make a copy of this request that converts between pressures and amounts
+	 * with an equation of state. Only the mixes and pressures of the start
+	 * and target supplies are used then.
+	 * @param equation The equation of state to use
+	 * @param volume The internal volume of the cylinder
+	 * @param temperature The absolute temperature of the gas
+	 * @return A new BlendRequest
+	 */
+	public BlendRequest withEquation(EquationOfState equation, float volume, float temperature) {
+		return new BlendRequest(mStart, mTarget, mTopup, mRich, mMode, mHeFirst, mUnits,
+				equation, volume, temperature);
+	}
+
+	public GasSupply getStart() {
+		return mStart;
+	}
+
+	public GasSupply getTarget() {
+		return mTarget;
+	}
+
+	public Mix getTopup() {
+		return mTopup;
+	}
+
+	public Mix getRich() {
+		return mRich;
+	}
+
+	public int getMode() {
+		return mMode;
+	}
+
+	public boolean isHeFirst() {
+		return mHeFirst;
+	}
+
+	public Units getUnits() {
+		return mUnits;
+	}
+
+	/**
+	 * @return The equation of state to use, or null to use the supplies' own
+	 * gas laws
+	 */
+	public EquationOfState getEquation() {
+		return mEquation;
+	}
+
+	public float getVolume() {
+		return mVolume;
+	}
+
+	public float getTemperature() {
+		return mTemperature;
+	}
+}
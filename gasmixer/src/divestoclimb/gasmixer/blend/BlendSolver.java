@@ -0,0 +1,182 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * Closed-form solver for the fixed 3x3 systems behind a partial pressure
+ * blend. Works only on primitives: nothing is allocated and singular or
+ * infeasible problems are reported through the return value instead of
+ * exceptions, so it is cheap enough to run on every change of an input.
+ */
+// The base system solves for the amounts of rich gas, helium and top-up gas
+// to add to what's already in the cylinder:
+// [ fo2,r	0	fo2,t ] [ vo2,a ]   [ vo2,f-vo2,i ]
+// [ 0		1	fhe,t ] [ vhe,a ] = [ vhe,f-vhe,i ]
+// [ fn2,r	0	fn2,t ] [ vt,a  ]   [ vn2,f-vn2,i ]
+// If one of the unknowns comes out negative it is forced to 0 and its column
+// is replaced with the starting mix, which makes vi (the amount of the
+// starting gas to keep) the unknown instead. Each of these drain variants is
+// solved against the base matrix rather than against the previous variant.
+public final class BlendSolver {
+
+	/** The problem was solved and the result is usable */
+	public static final int SOLVED = 0;
+	/**
+	 * One of the systems had no unique solution. This happens when the top-up
+	 * gas has no nitrogen but nitrogen needs to be added.
+	 */
+	public static final int SINGULAR = 1;
+	/**
+	 * A solution exists but would require draining to a negative amount,
+	 * starting with more gas than is in the cylinder or removing one of the
+	 * added gases.
+	 */
+	public static final int INFEASIBLE = 2;
+
+	// Positions of each result in the output array
+	/** Index of the amount of starting gas to keep */
+	public static final int VI = 0;
+	/** Index of the amount of rich gas to add */
+	public static final int VO2A = 1;
+	/** Index of the amount of helium to add */
+	public static final int VHEA = 2;
+	/** Index of the amount of top-up gas to add */
+	public static final int VTA = 3;
+	/** The minimum length of the output array */
+	public static final int RESULT_SIZE = 4;
+
+	// Determinants smaller than this are treated as zero
+	private static final double EPSILON = 1e-12;
+	// Amounts within this fraction of the final amount of a limit are taken
+	// to be on it, so rounding error alone never forces a drain variant or
+	// makes a blend infeasible
+	private static final double TOLERANCE = 1e-9;
+
+	private BlendSolver() { }
+
+	/**
+	 * Solve a blend. Amounts may be in any unit as long as they are all the same.
+	 * @param fo2i The fraction of O2 in the starting mix
+	 * @param fhei The fraction of He in the starting mix
+	 * @param fo2r The fraction of O2 in the rich gas (it contains no He)
+	 * @param fo2t The fraction of O2 in the top-up gas
+	 * @param fhet The fraction of He in the top-up gas
+	 * @param vi The amount of gas in the cylinder at the start
+	 * @param vo2i The amount of O2 in the cylinder at the start
+	 * @param vhei The amount of He in the cylinder at the start
+	 * @param vn2i The amount of N2 in the cylinder at the start
+	 * @param vo2f The desired amount of O2 at the end
+	 * @param vhef The desired amount of He at the end
+	 * @param vn2f The desired amount of N2 at the end
+	 * @param out The array to store the results in, indexed by VI, VO2A, VHEA and
+	 * VTA. Must be at least RESULT_SIZE long. Its contents are undefined unless
+	 * SOLVED is returned.
+	 * @return SOLVED, SINGULAR or INFEASIBLE
+	 */
+	public static int solve(double fo2i, double fhei, double fo2r,
+			double fo2t, double fhet,
+			double vi, double vo2i, double vhei, double vn2i,
+			double vo2f, double vhef, double vn2f, double[] out) {
+		final double fn2i = 1 - fo2i - fhei, fn2r = 1 - fo2r, fn2t = 1 - fo2t - fhet;
+		final double tol = TOLERANCE * (Math.abs(vo2f) + Math.abs(vhef) + Math.abs(vn2f));
+
+		out[VI] = vi;
+		if(! cramer(fo2r, 0, fo2t,
+				0, 1, fhet,
+				fn2r, 0, fn2t,
+				vo2f - vo2i, vhef - vhei, vn2f - vn2i,
+				out, VO2A, VHEA, VTA)) {
+			// Can happen if the topup gas is heliox or helium and nitrogen
+			// needs to be added
+			return SINGULAR;
+		}
+		// Now handle the conditions where a negative volume was found
+		if(out[VO2A] < -tol) {
+			out[VO2A] = 0;
+			if(! cramer(fo2i, 0, fo2t,
+					fhei, 1, fhet,
+					fn2i, 0, fn2t,
+					vo2f, vhef, vn2f,
+					out, VI, VHEA, VTA)) {
+				return SINGULAR;
+			}
+		}
+		if(out[VHEA] < -tol) {
+			out[VHEA] = 0;
+			if(! cramer(fo2r, fo2i, fo2t,
+					0, fhei, fhet,
+					fn2r, fn2i, fn2t,
+					vo2f, vhef, vn2f,
+					out, VO2A, VI, VTA)) {
+				return SINGULAR;
+			}
+		}
+		if(out[VTA] < -tol) {
+			out[VTA] = 0;
+			if(! cramer(fo2r, 0, fo2i,
+					0, 1, fhei,
+					fn2r, 0, fn2i,
+					vo2f, vhef, vn2f,
+					out, VO2A, VHEA, VI)) {
+				return SINGULAR;
+			}
+		}
+		// The final checks ensure that vi is within a realistic range.
+		// The blender can't drain to a negative volume, and we can't
+		// start with any more gas than is already in the cylinder.
+		if(out[VI] < -tol || out[VI] > vi + tol) {
+			return INFEASIBLE;
+		}
+		// Each drain variant recomputes the other additions, which can
+		// leave one of them negative. Gas can't be taken out that way.
+		if(out[VO2A] < -tol || out[VHEA] < -tol || out[VTA] < -tol) {
+			return INFEASIBLE;
+		}
+		out[VI] = Math.min(Math.max(out[VI], 0), vi);
+		out[VO2A] = snap(out[VO2A], tol);
+		out[VHEA] = snap(out[VHEA], tol);
+		out[VTA] = snap(out[VTA], tol);
+		return SOLVED;
+	}
+
+	/**
+	 * @return 0 if x is negative by no more than tol, otherwise x
+	 */
+	private static double snap(double x, double tol) {
+		return x < 0 && x >= -tol? 0: x;
+	}
+
+	/**
+	 * Solve a 3x3 system by Cramer's rule
+	 * @param out The array to store the solution in
+	 * @param i0 The index in out for the first unknown
+	 * @param i1 The index in out for the second unknown
+	 * @param i2 The index in out for the third unknown
+	 * @return true if the system was solved, false if it's singular
+	 */
+	private static boolean cramer(double a00, double a01, double a02,
+			double a10, double a11, double a12,
+			double a20, double a21, double a22,
+			double b0, double b1, double b2,
+			double[] out, int i0, int i1, int i2) {
+		// Cofactors of the first row are reused for the determinant
+		final double c00 = a11 * a22 - a12 * a21,
+			c01 = a10 * a22 - a12 * a20,
+			c02 = a10 * a21 - a11 * a20;
+		final double det = a00 * c00 - a01 * c01 + a02 * c02;
+		if(Math.abs(det) < EPSILON) {
+			return false;
+		}
+		final double d0 = b0 * c00
+				- a01 * (b1 * a22 - a12 * b2)
+				+ a02 * (b1 * a21 - a11 * b2),
+			d1 = a00 * (b1 * a22 - a12 * b2)
+				- b0 * c01
+				+ a02 * (a10 * b2 - b1 * a20),
+			d2 = a00 * (a11 * b2 - b1 * a21)
+				- a01 * (a10 * b2 - b1 * a20)
+				+ b0 * c02;
+		out[i0] = d0 / det;
+		out[i1] = d1 / det;
+		out[i2] = d2 / det;
+		return true;
+	}
+}
@@ -0,0 +1,75 @@
+package divestoclimb.gasmixer.blend;
+
+import divestoclimb.lib.scuba.Mix;
+
+/**
+ * One step of a blend plan: the addition of a single gas to the cylinder.
+ * Instances are immutable.
+ */
+public final class BlendStep {
+	private final Float mPressure;
+	private final int mVolume;
+	private final Mix mMix;
+	private final int mIterations;
+	private final double mError;
+
+	/**
+	 * @param pressure The pressure to fill to, or null if this step is part of
+	 * a continuous blend and is not a discrete operation
+	 * @param volume The amount of gas added in this step
+	 * @param mix The gas added in this step
+	 */
+	public BlendStep(Float pressure, int volume, Mix mix) {
+		this(pressure, volume, mix, -1, Double.NaN);
+	}
+
+	/**
+	 * @param pressure The pressure to fill to, or null if this step is part of
+	 * a continuous blend and is not a discrete operation
+	 * @param volume The amount of gas added in this step
+	 * @param mix The gas added in this step
+	 * @param iterations The iterations taken to find the pressure, or -1 if
+	 * unknown
+	 * @param error The size of the last correction made to the pressure, or
+	 * NaN if unknown
+	 */
+	public BlendStep(Float pressure, int volume, Mix mix, int iterations, double error) {
+		mPressure = pressure;
+		mVolume = volume;
+		mMix = mix;
+		mIterations = iterations;
+		mError = error;
+	}
+
+	/**
+	 * @return The pressure to fill to, or null if this step is not a discrete
+	 * operation
+	 */
+	public Float getPressure() {
+		return mPressure;
+	}
+
+	public int getVolume() {
+		return mVolume;
+	}
+
+	public Mix getMix() {
+		return mMix;
+	}
+
+	/**
+	 * @return The iterations the equation of state took to find the pressure
+	 * for this step, or -1 if unknown
+	 */
+	public int getIterations() {
+		return mIterations;
+	}
+
+	/**
+	 * @return The size in bar of the last correction made while finding the
+	 * pressure for this step, or NaN if unknown
+	 */
+	public double getError() {
+		return mError;
+	}
+}
@@ -0,0 +1,374 @@
+package divestoclimb.gasmixer.blend;
+
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Simulates filling cylinders from a cascade of storage banks. Each fill
+ * opens the banks one at a time in a fixed order, skipping any that are no
+ * higher than the cylinder, and lets each equalize with the cylinder until
+ * either the pressures are equal or the cylinder reaches its fill pressure.
+ * Fills continue until one can't be completed.
+ *
+ * Banks and cylinders are described the same way GasSupply describes them,
+ * with a Cylinder, a Mix and a pressure. GasSupply allocates on every
+ * operation, though, and a sweep over bank orderings runs millions of
+ * equalizations, so the simulation itself works on primitive arrays with its
+ * own ideal or Van der Waals equation of state. Nothing is allocated after
+ * the banks and cylinder are set up.
+ *
+ * Instances keep simulation state, so they must not be shared between
+ * threads.
+ */
+public class CascadeSimulator {
+
+	/** The most banks a simulator can have. 8! orderings is already 40320. */
+	public static final int MAX_BANKS = 8;
+
+	// Give up after this many fills, in case the cylinder is tiny compared
+	// to the banks
+	private static final int MAX_FILLS = 100000;
+
+	// Convergence limits for the root finder
+	private static final double PRESSURE_TOLERANCE = 1e-6;
+	private static final int MAX_ITERATIONS = 60;
+
+	// Which function root() works on
+	private static final int FN_EQUALIZE = 0, FN_FILL = 1;
+
+	private final int mSystem;
+	private final boolean mReal;
+	private final double mRT;
+
+	// Banks, in the order they were added. Volumes are in liters, amounts
+	// in moles, and mixes are stored as the per-mole Van der Waals terms.
+	private int mBankCount = 0;
+	private final double mBankVolume[] = new double[MAX_BANKS],
+		mBankStartMoles[] = new double[MAX_BANKS],
+		mBankSqrtA[] = new double[MAX_BANKS],
+		mBankB[] = new double[MAX_BANKS];
+
+	// The cylinder being filled
+	private double mCylVolume, mCylStartMoles, mCylStartSqrtA, mCylStartB,
+		mFillPressure;
+
+	// Simulation state
+	private final double mBankMoles[] = new double[MAX_BANKS];
+	private double mCylMoles, mCylSqrtA, mCylB;
+	private int mBank;
+	private double mTarget;
+	private double mLastPressure;
+
+	// Scratch space for optimize()
+	private final int mPermutation[] = new int[MAX_BANKS], mCounters[] = new int[MAX_BANKS];
+
+	/**
+	 * @param units The units all pressures, volumes and the temperature are
+	 * given in
+	 * @param real Whether to use Van der Waals instead of ideal gas laws
+	 * @param temperature The absolute temperature of the gas
+	 */
+	public CascadeSimulator(Units units, boolean real, float temperature) {
+		mSystem = units.getCurrentSystem();
+		mReal = real;
+		mRT = EquationOfState.R * Units.convertAbsTemp(temperature, mSystem, Units.METRIC);
+	}
+
+	/**
+	 * Add a bank to the cascade
+	 * @param bank The bank's cylinder. Only the internal volume is used.
+	 * @param mix The gas in the bank
+	 * @param pressure The pressure in the bank
+	 * @return The index of the new bank
+	 * @throws IllegalStateException If there are already MAX_BANKS banks
+	 */
+	public int addBank(Cylinder bank, Mix mix, float pressure) {
+		if(mBankCount == MAX_BANKS) {
+			throw new IllegalStateException("A cascade can have at most " + MAX_BANKS + " banks");
+		}
+		final int i = mBankCount ++;
+		final double volume = Units.convertCapacity(bank.getInternalVolume(), mSystem, Units.METRIC);
+		mBankVolume[i] = volume;
+		mBankSqrtA[i] = sqrtA(mix);
+		mBankB[i] = b(mix);
+		mBankStartMoles[i] = moles(Units.convertPressure(pressure, mSystem, Units.METRIC),
+				volume, mBankSqrtA[i], mBankB[i]);
+		return i;
+	}
+
+	public int getBankCount() {
+		return mBankCount;
+	}
+
+	/**
+	 * Set the cylinders to fill
+	 * @param cylinder The size of the cylinders. Only the internal volume is
+	 * used.
+	 * @param mix The gas already in each cylinder
+	 * @param startPressure The pressure each cylinder starts at
+	 * @param fillPressure The pressure to fill each cylinder to
+	 */
+	public void setCylinder(Cylinder cylinder, Mix mix, float startPressure, float fillPressure) {
+		mCylVolume = Units.convertCapacity(cylinder.getInternalVolume(), mSystem, Units.METRIC);
+		mFillPressure = Units.convertPressure(fillPressure, mSystem, Units.METRIC);
+		final double sqrtA = sqrtA(mix), b = b(mix);
+		mCylStartMoles = moles(Units.convertPressure(startPressure, mSystem, Units.METRIC),
+				mCylVolume, sqrtA, b);
+		mCylStartSqrtA = mCylStartMoles * sqrtA;
+		mCylStartB = mCylStartMoles * b;
+	}
+
+	/**
+	 * Simulate filling cylinders until the cascade can't fill another one.
+	 * Afterwards getBankPressure() and getLastPressure() report the state the
+	 * cascade was left in.
+	 * @param order The order to open the banks in, as indices returned by
+	 * addBank(). Banks not listed are never used.
+	 * @param length The number of banks in order to use
+	 * @return The number of cylinders completely filled
+	 */
+	public int simulate(int order[], int length) {
+		final double bankMoles[] = mBankMoles;
+		System.arraycopy(mBankStartMoles, 0, bankMoles, 0, mBankCount);
+		mTarget = mFillPressure;
+		mCylMoles = mCylStartMoles;
+		mCylSqrtA = mCylStartSqrtA;
+		mCylB = mCylStartB;
+		if(mCylVolume <= 0 || cylinderPressure(0) >= mTarget) {
+			// Nothing to fill
+			mLastPressure = mCylVolume <= 0? 0: cylinderPressure(0);
+			return 0;
+		}
+		int fills = 0;
+		while(fills < MAX_FILLS) {
+			mCylMoles = mCylStartMoles;
+			mCylSqrtA = mCylStartSqrtA;
+			mCylB = mCylStartB;
+			boolean full = false;
+			for(int k = 0; k < length && ! full; k ++) {
+				final int i = order[k];
+				mBank = i;
+				if(bankPressure(0) <= cylinderPressure(0)) {
+					continue;
+				}
+				// Equalize. If the cylinder would end up over the fill
+				// pressure, stop at the fill pressure instead.
+				double x = root(FN_EQUALIZE, 0, maxTransfer());
+				if(cylinderPressure(x) >= mTarget - PRESSURE_TOLERANCE) {
+					x = root(FN_FILL, 0, x);
+					full = true;
+				}
+				bankMoles[i] -= x;
+				mCylMoles += x;
+				mCylSqrtA += x * mBankSqrtA[i];
+				mCylB += x * mBankB[i];
+			}
+			if(! full) {
+				mLastPressure = cylinderPressure(0);
+				return fills;
+			}
+			fills ++;
+		}
+		mLastPressure = mFillPressure;
+		return fills;
+	}
+
+	/**
+	 * Try every order of opening the banks and find the one that fills the
+	 * most cylinders. Ties go to the order that gets the next cylinder
+	 * closest to full.
+	 * @param best Receives the best order. Must have room for every bank.
+	 * @return The number of cylinders the best order fills
+	 */
+	public int optimize(int best[]) {
+		final int n = mBankCount, p[] = mPermutation, c[] = mCounters;
+		for(int i = 0; i < n; i ++) {
+			p[i] = i;
+			c[i] = 0;
+			best[i] = i;
+		}
+		int bestFills = simulate(p, n);
+		double bestLast = mLastPressure;
+		// Heap's algorithm generates each permutation with a single swap
+		int i = 0;
+		while(i < n) {
+			if(c[i] < i) {
+				final int j = (i & 1) == 0? 0: c[i];
+				final int t = p[j];
+				p[j] = p[i];
+				p[i] = t;
+				final int fills = simulate(p, n);
+				if(fills > bestFills || (fills == bestFills && mLastPressure > bestLast)) {
+					bestFills = fills;
+					bestLast = mLastPressure;
+					System.arraycopy(p, 0, best, 0, n);
+				}
+				c[i] ++;
+				i = 0;
+			} else {
+				c[i] = 0;
+				i ++;
+			}
+		}
+		// Leave the state as the best order left it
+		simulate(best, n);
+		return bestFills;
+	}
+
+	/**
+	 * @param bank The index of a bank
+	 * @return The pressure left in the bank after the last simulation
+	 */
+	public float getBankPressure(int bank) {
+		final double m = mBankMoles[bank];
+		final double p = pressure(m, mBankVolume[bank], m * mBankSqrtA[bank], m * mBankB[bank]);
+		return Units.convertPressure((float)p, Units.METRIC, mSystem);
+	}
+
+	/**
+	 * @return The pressure the cylinder that couldn't be completed reached in
+	 * the last simulation
+	 */
+	public float getLastPressure() {
+		return Units.convertPressure((float)mLastPressure, Units.METRIC, mSystem);
+	}
+
+	private double sqrtA(Mix m) {
+		if(! mReal) {
+			return 0;
+		}
+		return VanDerWaals.sqrtA(m.getfO2(), m.getfHe());
+	}
+
+	private double b(Mix m) {
+		if(! mReal) {
+			return 0;
+		}
+		return VanDerWaals.b(m.getfO2(), m.getfHe());
+	}
+
+	/**
+	 * The Van der Waals equation, which is the ideal gas law when a and b
+	 * are 0
+	 * @param n The amount of gas
+	 * @param v The volume
+	 * @param s The amount times the square root of a for the mix
+	 * @param b The amount times b for the mix
+	 */
+	private double pressure(double n, double v, double s, double b) {
+		return n * mRT / (v - b) - s * s / (v * v);
+	}
+
+	/**
+	 * Find the amount of gas at a given pressure by Newton's method,
+	 * starting from the ideal amount
+	 * @param sqrtA The square root of a for the mix
+	 * @param b b for the mix
+	 */
+	private double moles(double p, double v, double sqrtA, double b) {
+		double n = p * v / mRT;
+		if(! mReal || p <= 0) {
+			return Math.max(0, n);
+		}
+		final double a = sqrtA * sqrtA;
+		for(int i = 0; i < MAX_ITERATIONS; i ++) {
+			final double free = v - n * b,
+				f = n * mRT / free - a * n * n / (v * v) - p,
+				df = mRT * v / (free * free) - 2 * a * n / (v * v),
+				step = f / df;
+			n -= step;
+			if(Math.abs(step) < 1e-12 * n) {
+				break;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * The pressure in the current bank after x of its gas is drawn out
+	 */
+	private double bankPressure(double x) {
+		final int i = mBank;
+		final double m = mBankMoles[i] - x;
+		return pressure(m, mBankVolume[i], m * mBankSqrtA[i], m * mBankB[i]);
+	}
+
+	/**
+	 * The pressure in the cylinder after x of the current bank's gas is
+	 * added
+	 */
+	private double cylinderPressure(double x) {
+		final int i = mBank;
+		return pressure(mCylMoles + x, mCylVolume,
+				mCylSqrtA + x * mBankSqrtA[i], mCylB + x * mBankB[i]);
+	}
+
+	/**
+	 * The most of the current bank's gas that can be moved to the cylinder:
+	 * all of it, unless the molecules would take up the whole cylinder
+	 */
+	private double maxTransfer() {
+		final int i = mBank;
+		final double b = mBankB[i];
+		if(b <= 0) {
+			return mBankMoles[i];
+		}
+		return Math.min(mBankMoles[i], (mCylVolume - mCylB) / b * (1 - 1e-9));
+	}
+
+	/**
+	 * The derivative of bankPressure() with respect to x
+	 */
+	private double bankSlope(double x) {
+		final int i = mBank;
+		final double m = mBankMoles[i] - x, v = mBankVolume[i], sa = mBankSqrtA[i],
+			free = v - m * mBankB[i];
+		return -(mRT * v / (free * free) - 2 * sa * sa * m / (v * v));
+	}
+
+	/**
+	 * The derivative of cylinderPressure() with respect to x
+	 */
+	private double cylinderSlope(double x) {
+		final int i = mBank;
+		final double n = mCylMoles + x, v = mCylVolume,
+			s = mCylSqrtA + x * mBankSqrtA[i],
+			free = v - mCylB - x * mBankB[i];
+		return mRT / free + n * mRT * mBankB[i] / (free * free) - 2 * s * mBankSqrtA[i] / (v * v);
+	}
+
+	/**
+	 * Find the root of an increasing function in a bracket using Newton's
+	 * method, falling back to bisection when a step leaves the bracket
+	 * @param fn FN_EQUALIZE for the difference between the cylinder and bank
+	 * pressures, FN_FILL for the cylinder's pressure above the fill pressure
+	 */
+	private double root(int fn, double lo, double hi) {
+		double x = (lo + hi) / 2;
+		for(int i = 0; i < MAX_ITERATIONS; i ++) {
+			final double f, df;
+			if(fn == FN_EQUALIZE) {
+				f = cylinderPressure(x) - bankPressure(x);
+				df = cylinderSlope(x) - bankSlope(x);
+			} else {
+				f = cylinderPressure(x) - mTarget;
+				df = cylinderSlope(x);
+			}
+			if(Math.abs(f) < PRESSURE_TOLERANCE) {
+				return x;
+			}
+			if(f > 0) {
+				hi = x;
+			} else {
+				lo = x;
+			}
+			double next = x - f / df;
+			if(df <= 0 || next <= lo || next >= hi) {
+				next = (lo + hi) / 2;
+			}
+			x = next;
+		}
+		return x;
+	}
+}
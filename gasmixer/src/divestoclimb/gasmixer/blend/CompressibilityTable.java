@@ -0,0 +1,238 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * A real gas model built on tables of the compressibility factor Z of oxygen,
+ * helium and nitrogen over the temperatures and pressures met while blending.
+ * Z for a mix comes from Amagat's law of additive volumes, which at a given
+ * temperature and pressure is just the average of the pure gas values
+ * weighted by their fractions. Lookups use bicubic (Catmull-Rom)
+ * interpolation, so a conversion between pressure and amount takes the same
+ * small amount of work anywhere in the table.
+ *
+ * The tables are filled once, the first time they're needed, from reference
+ * equations for each pure gas: Peng-Robinson for oxygen and nitrogen, and the
+ * virial equation for helium, which cubic equations describe poorly.
+ *
+ * All values are metric: temperatures in Kelvin, pressures in bar, volumes in
+ * liters and amounts in moles. Instances are immutable and may be shared
+ * between threads.
+ */
+public final class CompressibilityTable extends EquationOfState {
+
+	// The table covers 230 K to 350 K and 0 to 500 bar. One extra row and
+	// column on each side lets the interpolation use a full 4x4 stencil
+	// everywhere inside.
+	private static final double T_MIN = 230, T_STEP = 5, P_STEP = 10;
+	private static final int T_COUNT = 25, P_COUNT = 51;
+	private static final int T_ROWS = T_COUNT + 2, P_COLS = P_COUNT + 2;
+	private static final double T_MAX = T_MIN + T_STEP * (T_COUNT - 1),
+		P_MAX = P_STEP * (P_COUNT - 1);
+
+	// Gases are interleaved so one lookup reads neighboring values
+	private static final int GASES = 3;
+
+	// Convergence limits for pressure()
+	private static final double PRESSURE_TOLERANCE = 1e-6;
+	private static final int MAX_ITERATIONS = 20;
+
+	private static class Holder {
+		static final CompressibilityTable INSTANCE = new CompressibilityTable();
+	}
+
+	/**
+	 * @return The shared table
+	 */
+	public static CompressibilityTable getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	private final float mZ[];
+
+	private CompressibilityTable() {
+		mZ = new float[T_ROWS * P_COLS * GASES];
+		final EquationOfState pr = PengRobinson.INSTANCE, virial = VirialGas.INSTANCE;
+		for(int i = 0; i < T_ROWS; i ++) {
+			final double t = T_MIN + T_STEP * (i - 1);
+			final MixModel o2 = pr.createModel(1, 0, t), he = virial.createModel(0, 1, t),
+				n2 = pr.createModel(0, 0, t);
+			// Column 0 is -P_STEP bar, which is extrapolated below
+			for(int j = 1; j < P_COLS; j ++) {
+				final double p = P_STEP * (j - 1);
+				final int k = (i * P_COLS + j) * GASES;
+				mZ[k + O2] = (float)z(o2, t, p);
+				mZ[k + HE] = (float)z(he, t, p);
+				mZ[k + N2] = (float)z(n2, t, p);
+			}
+			final int k = i * P_COLS * GASES;
+			for(int g = 0; g < GASES; g ++) {
+				mZ[k + g] = 2 * mZ[k + GASES + g] - mZ[k + 2 * GASES + g];
+			}
+		}
+	}
+
+	/**
+	 * Z of a pure gas from its reference model, for one liter
+	 */
+	private static double z(MixModel m, double t, double p) {
+		return p > 0? p / (m.moles(p, 1) * R * t): 1;
+	}
+
+	@Override
+	public String getName() {
+		return TABLE;
+	}
+
+	@Override
+	protected MixModel createModel(final double fo2, final double fhe, final double t) {
+		return new MixModel(t) {
+			@Override
+			public double pressure(double n, double v) {
+				return CompressibilityTable.this.pressure(fo2, fhe, n, v, t, 0, null);
+			}
+
+			@Override
+			public double pressure(double n, double v, double guess, Convergence c) {
+				return CompressibilityTable.this.pressure(fo2, fhe, n, v, t, guess, c);
+			}
+
+			@Override
+			protected double slope(double n, double v) {
+				// From PV = nZ(P)RT, dP/dn = ZRT / (V - nRT dZ/dP)
+				final double slope[] = new double[1],
+					z = evaluate(fo2, fhe, t, pressure(n, v), slope);
+				return z * mRT / (v - n * mRT * slope[0]);
+			}
+
+			@Override
+			public double moles(double p, double v, double guess, Convergence c) {
+				if(c != null) {
+					c.set(0, 0);
+				}
+				return CompressibilityTable.this.moles(fo2, fhe, p, v, t);
+			}
+		};
+	}
+
+	/**
+	 * Look up the compressibility factor of a mix
+	 * @param fo2 The fraction of oxygen
+	 * @param fhe The fraction of helium
+	 * @param t The temperature. Values outside the table are clamped to it.
+	 * @param p The pressure. Beyond the table Z is extrapolated linearly.
+	 * @return Z
+	 */
+	public double z(double fo2, double fhe, double t, double p) {
+		return evaluate(fo2, fhe, t, p, null);
+	}
+
+	/**
+	 * Find the amount of a mix in a volume
+	 * @param fo2 The fraction of oxygen
+	 * @param fhe The fraction of helium
+	 * @param p The pressure
+	 * @param v The volume
+	 * @param t The temperature
+	 * @return The amount of gas
+	 */
+	public double moles(double fo2, double fhe, double p, double v, double t) {
+		if(p <= 0) {
+			return 0;
+		}
+		return p * v / (evaluate(fo2, fhe, t, p, null) * R * t);
+	}
+
+	/**
+	 * Find the pressure of an amount of a mix in a volume. This is solved by
+	 * Newton's method starting from the guess, or from the ideal gas pressure
+	 * if there isn't one; since Z changes slowly with pressure it takes only a
+	 * few steps.
+	 * @param fo2 The fraction of oxygen
+	 * @param fhe The fraction of helium
+	 * @param n The amount of gas
+	 * @param v The volume
+	 * @param t The temperature
+	 * @param guess A pressure near the answer, or 0
+	 * @param c If not null, receives how the solve went
+	 * @return The pressure
+	 */
+	public double pressure(double fo2, double fhe, double n, double v, double t,
+			double guess, Convergence c) {
+		if(n <= 0) {
+			if(c != null) {
+				c.set(0, 0);
+			}
+			return 0;
+		}
+		final double nrt = n * R * t, slope[] = new double[1];
+		double p = guess > 0? guess: nrt / v, step = 0;
+		int i = 0;
+		while(i < MAX_ITERATIONS) {
+			// f(p) = pV - nZ(p)RT
+			final double z = evaluate(fo2, fhe, t, p, slope);
+			step = (p * v - nrt * z) / (v - nrt * slope[0]);
+			p -= step;
+			i ++;
+			if(Math.abs(step) < PRESSURE_TOLERANCE) {
+				break;
+			}
+		}
+		if(c != null) {
+			c.set(i, Math.abs(step));
+		}
+		return p;
+	}
+
+	/**
+	 * Interpolate Z for a mix
+	 * @param slope If not null, receives dZ/dp
+	 */
+	private double evaluate(double fo2, double fhe, double t, double p, double slope[]) {
+		final double fn2 = 1 - fo2 - fhe;
+		t = Math.max(T_MIN, Math.min(T_MAX, t));
+		double beyond = 0;
+		if(p > P_MAX) {
+			beyond = p - P_MAX;
+			p = P_MAX;
+		} else if(p < 0) {
+			p = 0;
+		}
+
+		// The cell containing the point, and where in it the point is
+		final double x = (t - T_MIN) / T_STEP, y = p / P_STEP;
+		final int i = Math.min((int)x, T_COUNT - 2), j = Math.min((int)y, P_COUNT - 2);
+		final double u = x - i, w = y - j;
+
+		// Catmull-Rom weights in each direction, and their derivatives with
+		// respect to pressure
+		final double u2 = u * u, u3 = u2 * u, w2 = w * w, w3 = w2 * w;
+		final double tw0 = (-u3 + 2 * u2 - u) / 2, tw1 = (3 * u3 - 5 * u2 + 2) / 2,
+			tw2 = (-3 * u3 + 4 * u2 + u) / 2, tw3 = (u3 - u2) / 2;
+		final double pw0 = (-w3 + 2 * w2 - w) / 2, pw1 = (3 * w3 - 5 * w2 + 2) / 2,
+			pw2 = (-3 * w3 + 4 * w2 + w) / 2, pw3 = (w3 - w2) / 2;
+		final double dw0 = (-3 * w2 + 4 * w - 1) / 2, dw1 = (9 * w2 - 10 * w) / 2,
+			dw2 = (-9 * w2 + 8 * w + 1) / 2, dw3 = (3 * w2 - 2 * w) / 2;
+
+		// The stencil starts one row and column before the cell, which with
+		// the border is exactly row i and column j of the array
+		final float z[] = mZ;
+		double value = 0, dvalue = 0;
+		for(int r = 0; r < 4; r ++) {
+			final double tw = r == 0? tw0: r == 1? tw1: r == 2? tw2: tw3;
+			int k = ((i + r) * P_COLS + j) * GASES;
+			final double z0 = fo2 * z[k] + fhe * z[k + 1] + fn2 * z[k + 2];
+			k += GASES;
+			final double z1 = fo2 * z[k] + fhe * z[k + 1] + fn2 * z[k + 2];
+			k += GASES;
+			final double z2 = fo2 * z[k] + fhe * z[k + 1] + fn2 * z[k + 2];
+			k += GASES;
+			final double z3 = fo2 * z[k] + fhe * z[k + 1] + fn2 * z[k + 2];
+			value += tw * (pw0 * z0 + pw1 * z1 + pw2 * z2 + pw3 * z3);
+			dvalue += tw * (dw0 * z0 + dw1 * z1 + dw2 * z2 + dw3 * z3);
+		}
+		dvalue /= P_STEP;
+		if(slope != null) {
+			slope[0] = dvalue;
+		}
+		return value + beyond * dvalue;
+	}
+}
@@ -0,0 +1,33 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * How an iterative solve went: the number of iterations it took and how far
+ * off its answer may still be, in bar. Solves for an amount of gas report how
+ * far the pressure of their answer is from the one asked for, so the errors
+ * of every solve can be compared. Solvers fill one in when given it; a solve
+ * that needed no iterations reports 0 for both.
+ */
+public final class Convergence {
+	private int mIterations;
+	private double mError;
+
+	/**
+	 * @return The number of iterations the last solve took
+	 */
+	public int getIterations() {
+		return mIterations;
+	}
+
+	/**
+	 * @return The last solve's error in bar: the size of its final correction
+	 * to a pressure, or its pressure residual when solving for an amount
+	 */
+	public double getError() {
+		return mError;
+	}
+
+	void set(int iterations, double error) {
+		mIterations = iterations;
+		mError = error;
+	}
+}
@@ -0,0 +1,212 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * An equation of state relating the pressure, volume, temperature and amount
+ * of a mix of oxygen, helium and nitrogen.
+ *
+ * Most equations need coefficients for the mix that take some work to find,
+ * so they are worked out once for each mix and temperature and kept in a
+ * MixModel. Models are cached, so asking again for the same mix is cheap:
+ * the lookup neither locks nor allocates.
+ *
+ * All values are metric: temperatures in Kelvin, pressures in bar, volumes in
+ * liters and amounts in moles. Implementations are immutable and may be
+ * shared between threads.
+ */
+public abstract class EquationOfState {
+
+	/** The gas constant in L bar / K mol */
+	public static final double R = 0.0831446;
+
+	// Names of the equations, as stored in the gas_model setting
+	public static final String IDEAL = "ideal", VAN_DER_WAALS = "vdw",
+		PENG_ROBINSON = "pr", VIRIAL = "virial", TABLE = "table";
+
+	// Indices of the pure gases in per-gas constant arrays
+	static final int O2 = 0, HE = 1, N2 = 2;
+
+	// The number of mix models to keep. Must be a power of 2.
+	private static final int CACHE_SIZE = 64;
+
+	/**
+	 * Find an equation of state by name
+	 * @param name One of the name constants
+	 * @return The shared instance of that equation, or null if the name isn't
+	 * known
+	 */
+	public static EquationOfState forName(String name) {
+		if(IDEAL.equals(name)) {
+			return IdealGas.INSTANCE;
+		} else if(VAN_DER_WAALS.equals(name)) {
+			return VanDerWaals.INSTANCE;
+		} else if(PENG_ROBINSON.equals(name)) {
+			return PengRobinson.INSTANCE;
+		} else if(VIRIAL.equals(name)) {
+			return VirialGas.INSTANCE;
+		} else if(TABLE.equals(name)) {
+			return CompressibilityTable.getInstance();
+		}
+		return null;
+	}
+
+	/**
+	 * The equation of state for one mix at one temperature
+	 */
+	public abstract static class MixModel {
+
+		// Convergence limits for moles()
+		private static final double AMOUNT_TOLERANCE = 1e-12;
+		private static final int MAX_ITERATIONS = 50;
+
+		/** The gas constant times the temperature */
+		protected final double mRT;
+
+		/**
+		 * @param t The temperature
+		 */
+		protected MixModel(double t) {
+			mRT = R * t;
+		}
+
+		/**
+		 * @param n The amount of gas
+		 * @param v The volume it's in
+		 * @return The pressure
+		 */
+		public abstract double pressure(double n, double v);
+
+		/**
+		 * @return The derivative of pressure() with respect to n
+		 */
+		protected abstract double slope(double n, double v);
+
+		/**
+		 * @return The most gas that can fit in v, or infinity if there's no
+		 * limit
+		 */
+		protected double maxMoles(double v) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		/**
+		 * Find the pressure of an amount of gas, starting from a guess.
+		 * Most equations give the pressure directly, so by default this
+		 * ignores the guess and reports no iterations.
+		 * @param n The amount of gas
+		 * @param v The volume
+		 * @param guess A pressure near the answer, such as the pressure before
+		 * the last bit of gas was added, or 0 if there isn't one
+		 * @param c If not null, receives how the solve went
+		 * @return The pressure
+		 */
+		public double pressure(double n, double v, double guess, Convergence c) {
+			if(c != null) {
+				c.set(0, 0);
+			}
+			return pressure(n, v);
+		}
+
+		/**
+		 * Find the amount of gas at a pressure
+		 * @param p The pressure
+		 * @param v The volume
+		 * @return The amount of gas
+		 */
+		public double moles(double p, double v) {
+			return moles(p, v, 0, null);
+		}
+
+		/**
+		 * Find the amount of gas at a pressure by Newton's method
+		 * @param p The pressure
+		 * @param v The volume
+		 * @param guess An amount near the answer, or 0 to start from the
+		 * ideal gas amount
+		 * @param c If not null, receives how the solve went. Its error is how
+		 * far the pressure of the amount found is from p, so it's in bar like
+		 * every other solve's.
+		 * @return The amount of gas
+		 */
+		public double moles(double p, double v, double guess, Convergence c) {
+			if(p <= 0) {
+				if(c != null) {
+					c.set(0, 0);
+				}
+				return 0;
+			}
+			final double limit = maxMoles(v);
+			double n = Math.min(guess > 0? guess: p * v / mRT, limit / 2);
+			int i = 0;
+			while(i < MAX_ITERATIONS) {
+				double next = n - (pressure(n, v) - p) / slope(n, v);
+				if(next >= limit) {
+					next = (n + limit) / 2;
+				} else if(next <= 0) {
+					next = n / 2;
+				}
+				final double step = next - n;
+				n = next;
+				i ++;
+				if(Math.abs(step) < AMOUNT_TOLERANCE * n) {
+					break;
+				}
+			}
+			if(c != null) {
+				c.set(i, Math.abs(pressure(n, v) - p));
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * A cached model and what it was created for. The fields are final, so
+	 * an entry can be read from any thread without locking.
+	 */
+	private static final class Entry {
+		final double fo2, fhe, t;
+		final MixModel model;
+
+		Entry(double fo2, double fhe, double t, MixModel model) {
+			this.fo2 = fo2;
+			this.fhe = fhe;
+			this.t = t;
+			this.model = model;
+		}
+	}
+
+	// Each mix and temperature has one slot. A newer model for another mix
+	// just replaces whatever was in its slot.
+	private final Entry mModels[] = new Entry[CACHE_SIZE];
+
+	/**
+	 * @return The name of this equation, one of the name constants
+	 */
+	public abstract String getName();
+
+	/**
+	 * Get the model for a mix, creating it if it isn't cached
+	 * @param fo2 The fraction of oxygen
+	 * @param fhe The fraction of helium
+	 * @param t The temperature
+	 * @return The model
+	 */
+	public final MixModel forMix(double fo2, double fhe, double t) {
+		long bits = Double.doubleToLongBits(fo2);
+		bits = bits * 31 + Double.doubleToLongBits(fhe);
+		bits = bits * 31 + Double.doubleToLongBits(t);
+		final int h = (int)(bits ^ (bits >>> 32)), slot = (h ^ (h >>> 16)) & (CACHE_SIZE - 1);
+		final Entry e = mModels[slot];
+		if(e != null && e.fo2 == fo2 && e.fhe == fhe && e.t == t) {
+			return e.model;
+		}
+		// Two threads may both create the model, which is harmless
+		final MixModel m = createModel(fo2, fhe, t);
+		mModels[slot] = new Entry(fo2, fhe, t, m);
+		return m;
+	}
+
+	/**
+	 * Work out the coefficients for a mix
+	 */
+	protected abstract MixModel createModel(double fo2, double fhe, double t);
+}
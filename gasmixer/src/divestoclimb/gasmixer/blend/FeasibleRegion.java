@@ -0,0 +1,172 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * The set of mixes that can be blended from a given starting gas with a given
+ * rich gas, helium and top-up gas, assuming ideal gases.
+ *
+ * Some fraction k of the final gas is kept from the cylinder, up to the
+ * fraction the starting gas makes up of the final amount, and the rest is any
+ * combination of the three added gases. Every reachable mix is then
+ * kS + (1-k)X where X is inside the triangle of the added gases, so the region
+ * is the convex hull of those three gases and the same three moved towards the
+ * start mix by the largest k. That hull has at most six vertices, so the
+ * queries below do a constant amount of work.
+ *
+ * With real gases the region is slightly different, so a blend near the edge
+ * of it may still come out the other way when actually solved.
+ */
+public final class FeasibleRegion {
+
+	// Mixes this close to the region, in fractions, are considered inside it
+	private static final double EPSILON = 1e-6;
+
+	// Hull vertices in counter-clockwise order, with O2 on the x axis and He
+	// on the y axis
+	private final double mO2[] = new double[6], mHe[] = new double[6];
+	private final int mCount;
+
+	/**
+	 * Compute the region
+	 * @param startO2 The fraction of O2 in the starting gas
+	 * @param startHe The fraction of He in the starting gas
+	 * @param startAmount The amount of gas in the cylinder at the start
+	 * @param richO2 The fraction of O2 in the rich gas
+	 * @param topupO2 The fraction of O2 in the top-up gas
+	 * @param topupHe The fraction of He in the top-up gas
+	 * @param finalAmount The amount of gas at the end, in the same units as
+	 * startAmount. Pressures may be used for both since gases are ideal.
+	 */
+	public FeasibleRegion(double startO2, double startHe, double startAmount,
+			double richO2, double topupO2, double topupHe, double finalAmount) {
+		final double keep = finalAmount > 0? Math.max(0, Math.min(1, startAmount / finalAmount)): 1;
+		final double gasO2[] = { richO2, 0, topupO2 }, gasHe[] = { 0, 1, topupHe };
+		final double o2[] = new double[6], he[] = new double[6];
+		for(int i = 0; i < 3; i ++) {
+			o2[i] = gasO2[i];
+			he[i] = gasHe[i];
+			o2[i + 3] = keep * startO2 + (1 - keep) * gasO2[i];
+			he[i + 3] = keep * startHe + (1 - keep) * gasHe[i];
+		}
+		mCount = hull(o2, he, mO2, mHe);
+	}
+
+	/**
+	 * Compute the convex hull of six points by Andrew's monotone chain
+	 * @return The number of vertices written to outO2 and outHe
+	 */
+	private static int hull(double o2[], double he[], double outO2[], double outHe[]) {
+		// Insertion sort by O2 then He; there are only six points
+		final int n = o2.length;
+		for(int i = 1; i < n; i ++) {
+			final double x = o2[i], y = he[i];
+			int j = i - 1;
+			while(j >= 0 && (o2[j] > x || (o2[j] == x && he[j] > y))) {
+				o2[j + 1] = o2[j];
+				he[j + 1] = he[j];
+				j --;
+			}
+			o2[j + 1] = x;
+			he[j + 1] = y;
+		}
+
+		// Room for both chains before the duplicated end points are dropped
+		final double hx[] = new double[2 * n], hy[] = new double[2 * n];
+		int k = 0;
+		// Lower chain
+		for(int i = 0; i < n; i ++) {
+			while(k >= 2 && cross(hx[k - 2], hy[k - 2], hx[k - 1], hy[k - 1], o2[i], he[i]) <= EPSILON * EPSILON) {
+				k --;
+			}
+			hx[k] = o2[i];
+			hy[k ++] = he[i];
+		}
+		// Upper chain
+		for(int i = n - 2, lower = k + 1; i >= 0; i --) {
+			while(k >= lower && cross(hx[k - 2], hy[k - 2], hx[k - 1], hy[k - 1], o2[i], he[i]) <= EPSILON * EPSILON) {
+				k --;
+			}
+			hx[k] = o2[i];
+			hy[k ++] = he[i];
+		}
+		// The last point is the same as the first. If all the points were
+		// the same, there's a single vertex.
+		k = Math.max(1, k - 1);
+		for(int i = 0; i < k; i ++) {
+			outO2[i] = hx[i];
+			outHe[i] = hy[i];
+		}
+		return k;
+	}
+
+	/**
+	 * The z component of (b - a) x (c - a)
+	 */
+	private static double cross(double ax, double ay, double bx, double by, double cx, double cy) {
+		return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+	}
+
+	/**
+	 * Determine whether a mix can be blended
+	 * @param fo2 The fraction of O2 in the mix
+	 * @param fhe The fraction of He in the mix
+	 * @return true if the mix is inside the region
+	 */
+	public boolean contains(double fo2, double fhe) {
+		return nearest(fo2, fhe, null);
+	}
+
+	/**
+	 * Find the mix in the region closest to a given one
+	 * @param fo2 The fraction of O2 in the mix
+	 * @param fhe The fraction of He in the mix
+	 * @param out If not null, the O2 and He fractions of the closest mix that
+	 * can be blended are stored in the first two elements. This is the given
+	 * mix itself if it's inside the region.
+	 * @return true if the given mix is inside the region
+	 */
+	public boolean nearest(double fo2, double fhe, double out[]) {
+		final int n = mCount;
+		final double x[] = mO2, y[] = mHe;
+		if(n >= 3) {
+			boolean inside = true;
+			for(int i = 0; i < n && inside; i ++) {
+				final int j = i + 1 == n? 0: i + 1;
+				// The cross product divided by the edge length is the
+				// distance from the edge, negative on the outside
+				final double ex = x[j] - x[i], ey = y[j] - y[i];
+				inside = cross(x[i], y[i], x[j], y[j], fo2, fhe) >= -EPSILON * Math.sqrt(ex * ex + ey * ey);
+			}
+			if(inside) {
+				if(out != null) {
+					out[0] = fo2;
+					out[1] = fhe;
+				}
+				return true;
+			}
+		}
+
+		// Outside, or the region has no area. Find the closest point on the
+		// boundary.
+		double bestO2 = x[0], bestHe = y[0],
+			best = (fo2 - x[0]) * (fo2 - x[0]) + (fhe - y[0]) * (fhe - y[0]);
+		for(int i = 0; i < n && n > 1; i ++) {
+			final int j = i + 1 == n? 0: i + 1;
+			final double ex = x[j] - x[i], ey = y[j] - y[i],
+				len2 = ex * ex + ey * ey;
+			double t = len2 > 0? ((fo2 - x[i]) * ex + (fhe - y[i]) * ey) / len2: 0;
+			t = Math.max(0, Math.min(1, t));
+			final double px = x[i] + t * ex, py = y[i] + t * ey,
+				d = (fo2 - px) * (fo2 - px) + (fhe - py) * (fhe - py);
+			if(d < best) {
+				best = d;
+				bestO2 = px;
+				bestHe = py;
+			}
+		}
+		if(out != null) {
+			out[0] = bestO2;
+			out[1] = bestHe;
+		}
+		return best <= EPSILON * EPSILON;
+	}
+}
@@ -0,0 +1,227 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Plans a queue of fills at once. The blends are solved in parallel, each
+ * plan is reported as soon as it's ready, and the finished schedule has the
+ * total amount of each gas and an order for the queue that keeps cylinders
+ * needing the same gases, in the same order, next to each other so the
+ * blender changes whips and banks as little as possible.
+ */
+public class FillPlanner {
+
+	public interface Listener {
+		/**
+		 * Called as each blend is solved. Calls come from the executor's
+		 * threads, possibly several at once, and in no particular order.
+		 * @param index The index of the request
+		 * @param plan The plan for it
+		 */
+		void onPlanned(int index, BlendPlan plan);
+	}
+
+	private final ExecutorService mExecutor;
+	private final int mThreads;
+
+	/**
+	 * @param executor The executor to solve blends on
+	 * @param threads The number of threads available in executor
+	 */
+	public FillPlanner(ExecutorService executor, int threads) {
+		mExecutor = executor;
+		mThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * Solve every request and build the schedule. Returns when all blends
+	 * are solved.
+	 * @param requests The blends to solve, one per cylinder
+	 * @param listener The listener to report each plan to, or null
+	 * @return The schedule
+	 * @throws InterruptedException If interrupted while waiting for the
+	 * blends to be solved
+	 */
+	public FillSchedule plan(final List<BlendRequest> requests, final Listener listener)
+			throws InterruptedException {
+		final int count = requests.size();
+		final BlendPlan plans[] = new BlendPlan[count];
+		final int chunks = Math.max(1, Math.min(mThreads, count));
+		final int chunkSize = (count + chunks - 1) / chunks;
+		final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks);
+		for(int from = 0; from < count; from += chunkSize) {
+			final int start = from, end = Math.min(count, from + chunkSize);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					// Engines aren't thread safe, so each task gets its own
+					final BlendEngine engine = new BlendEngine();
+					for(int i = start; i < end; i ++) {
+						final BlendPlan plan = engine.solve(requests.get(i));
+						plans[i] = plan;
+						if(listener != null) {
+							listener.onPlanned(i, plan);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		for(Future<Void> f : mExecutor.invokeAll(tasks)) {
+			try {
+				f.get();
+			} catch(ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return new FillSchedule(plans, order(plans));
+	}
+
+	/**
+	 * Order the queue. Cylinders are grouped by the sequence of gases their
+	 * steps use, and each group is followed by the one whose first gas is the
+	 * same as its last, if there is one. Within a group the original order is
+	 * kept, and blends that couldn't be solved go last.
+	 */
+	private static int[] order(BlendPlan plans[]) {
+		// Groups in the order they were first seen
+		final Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+		final Map<String, int[]> ends = new LinkedHashMap<String, int[]>();
+		final List<Integer> unsolved = new ArrayList<Integer>();
+		for(int i = 0; i < plans.length; i ++) {
+			final BlendPlan p = plans[i];
+			if(! p.isSolved()) {
+				unsolved.add(i);
+				continue;
+			}
+			final List<BlendStep> steps = p.getSteps();
+			final StringBuilder key = new StringBuilder();
+			for(BlendStep s : steps) {
+				key.append(PackedMix.pack(s.getMix())).append(',');
+			}
+			final String k = key.toString();
+			List<Integer> g = groups.get(k);
+			if(g == null) {
+				g = new ArrayList<Integer>();
+				groups.put(k, g);
+				ends.put(k, steps.isEmpty()? new int[] { PackedMix.NONE, PackedMix.NONE }:
+					new int[] { PackedMix.pack(steps.get(0).getMix()),
+						PackedMix.pack(steps.get(steps.size() - 1).getMix()) });
+			}
+			g.add(i);
+		}
+
+		final int order[] = new int[plans.length];
+		int n = 0;
+		int last = PackedMix.NONE;
+		while(! groups.isEmpty()) {
+			// Prefer a group that starts with the gas we ended on, then the
+			// biggest group
+			String next = null;
+			int nextSize = -1;
+			boolean nextContinues = false;
+			for(Map.Entry<String, List<Integer>> e : groups.entrySet()) {
+				final int first = ends.get(e.getKey())[0];
+				final boolean continues = last != PackedMix.NONE && last == first;
+				final int size = e.getValue().size();
+				if((continues && ! nextContinues) || (continues == nextContinues && size > nextSize)) {
+					next = e.getKey();
+					nextSize = size;
+					nextContinues = continues;
+				}
+			}
+			for(int i : groups.remove(next)) {
+				order[n ++] = i;
+			}
+			last = ends.get(next)[1];
+		}
+		for(int i : unsolved) {
+			order[n ++] = i;
+		}
+		return order;
+	}
+
+	/**
+	 * The result of planning a queue. Instances are immutable.
+	 */
+	public static final class FillSchedule {
+		private final BlendPlan mPlans[];
+		private final int mOrder[];
+		private final double mO2Amount, mHeAmount, mTopupAmount;
+		private final int mSolved;
+
+		FillSchedule(BlendPlan plans[], int order[]) {
+			mPlans = plans;
+			mOrder = order;
+			double o2 = 0, he = 0, topup = 0;
+			int solved = 0;
+			for(BlendPlan p : plans) {
+				if(p.isSolved()) {
+					o2 += p.getO2Amount();
+					he += p.getHeAmount();
+					topup += p.getTopupAmount();
+					solved ++;
+				}
+			}
+			mO2Amount = o2;
+			mHeAmount = he;
+			mTopupAmount = topup;
+			mSolved = solved;
+		}
+
+		/**
+		 * @return The plans, in the order the requests were given
+		 */
+		public List<BlendPlan> getPlans() {
+			return Collections.unmodifiableList(Arrays.asList(mPlans));
+		}
+
+		/**
+		 * @return The indices of the requests in the order they should be
+		 * filled
+		 */
+		public int[] getOrder() {
+			return mOrder.clone();
+		}
+
+		/**
+		 * @return The total amount of rich gas used by the blends that could
+		 * be solved
+		 */
+		public double getO2Amount() {
+			return mO2Amount;
+		}
+
+		/**
+		 * @return The total amount of helium used by the blends that could be
+		 * solved
+		 */
+		public double getHeAmount() {
+			return mHeAmount;
+		}
+
+		/**
+		 * @return The total amount of top-up gas used by the blends that
+		 * could be solved
+		 */
+		public double getTopupAmount() {
+			return mTopupAmount;
+		}
+
+		/**
+		 * @return The number of blends that could be solved
+		 */
+		public int getSolvedCount() {
+			return mSolved;
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package divestoclimb.gasmixer.blend;
+
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * The gas in a cylinder, like GasSupply, but with pressures and amounts
+ * converted by any EquationOfState. The gas is kept as the amount of each
+ * component in moles, so adding and draining gas is exact and only
+ * getPressure() has to solve the equation. Each solve starts from the last
+ * pressure found, scaled by how much gas was added or removed since, so the
+ * steps of a blend take only an iteration or two each when the equation
+ * needs iterating at all.
+ *
+ * Amounts are given and returned as the volume the gas would take up as an
+ * ideal gas at 1 atm and the temperature of the cylinder, in the capacity
+ * units of the Units given.
+ *
+ * Instances are not thread safe.
+ */
+public final class GasState implements Supply {
+
+	// 1 atm in bar
+	private static final double ATM = 1.01325;
+
+	// Convergence limits for topup()
+	private static final double TOPUP_TOLERANCE = 1e-9;
+	private static final int TOPUP_ITERATIONS = 60;
+
+	private final EquationOfState mEquation;
+	private final int mSystem;
+	// In liters and Kelvin
+	private final double mVolume, mTemperature;
+	// Liters of gas at 1 atm per mole, in the current capacity units
+	private final double mAmountPerMole;
+
+	private double mO2, mHe, mN2;
+	// The model for the current mix, or null if the mix has changed
+	private EquationOfState.MixModel mModel;
+	// The pressure in bar, or NaN if the gas has changed since it was found
+	private double mPressure;
+	// The last pressure found, and the amount of gas it was found for
+	private double mLastPressure, mLastMoles;
+	private final Convergence mConvergence = new Convergence();
+
+	/**
+	 * @param equation The equation of state to convert pressures and amounts
+	 * with
+	 * @param volume The internal volume of the cylinder
+	 * @param temperature The absolute temperature of the gas
+	 * @param mix The gas in the cylinder
+	 * @param pressure The pressure in the cylinder
+	 * @param units The units the other arguments are in
+	 */
+	public GasState(EquationOfState equation, float volume, float temperature, Mix mix,
+			float pressure, Units units) {
+		mEquation = equation;
+		mSystem = units.getCurrentSystem();
+		mVolume = Units.convertCapacity(volume, mSystem, Units.METRIC);
+		mTemperature = Units.convertAbsTemp(temperature, mSystem, Units.METRIC);
+		mAmountPerMole = Units.convertCapacity(
+				(float)(EquationOfState.R * mTemperature / ATM), Units.METRIC, mSystem);
+		final double p = Units.convertPressure(pressure, mSystem, Units.METRIC),
+			fo2 = mix.getfO2(), fhe = mix.getfHe();
+		mModel = equation.forMix(fo2, fhe, mTemperature);
+		final double n = mModel.moles(p, mVolume);
+		mO2 = n * fo2;
+		mHe = n * fhe;
+		mN2 = n - mO2 - mHe;
+		mPressure = p;
+		mLastPressure = p;
+		mLastMoles = n;
+	}
+
+	private GasState(GasState other) {
+		mEquation = other.mEquation;
+		mSystem = other.mSystem;
+		mVolume = other.mVolume;
+		mTemperature = other.mTemperature;
+		mAmountPerMole = other.mAmountPerMole;
+		mO2 = other.mO2;
+		mHe = other.mHe;
+		mN2 = other.mN2;
+		mPressure = other.mPressure;
+		mModel = other.mModel;
+		mLastPressure = other.mLastPressure;
+		mLastMoles = other.mLastMoles;
+		mConvergence.set(other.mConvergence.getIterations(), other.mConvergence.getError());
+	}
+
+	/**
+	 * The model for the current mix
+	 */
+	private EquationOfState.MixModel model() {
+		if(mModel == null) {
+			final double n = mO2 + mHe + mN2;
+			mModel = n > 0? mEquation.forMix(mO2 / n, mHe / n, mTemperature):
+				mEquation.forMix(0.21, 0, mTemperature);
+		}
+		return mModel;
+	}
+
+	/**
+	 * Note that the mix changed
+	 */
+	private void changed() {
+		mModel = null;
+		mPressure = Double.NaN;
+	}
+
+	public GasState copy() {
+		return new GasState(this);
+	}
+
+	public double getPressure() {
+		if(Double.isNaN(mPressure)) {
+			final double n = mO2 + mHe + mN2;
+			if(n > 0) {
+				// Warm start from the last pressure
+				final double guess = mLastMoles > 0? mLastPressure * n / mLastMoles: 0;
+				mPressure = model().pressure(n, mVolume, guess, mConvergence);
+			} else {
+				mPressure = 0;
+				mConvergence.set(0, 0);
+			}
+			mLastPressure = mPressure;
+			mLastMoles = n;
+		}
+		return Units.convertPressure((float)mPressure, Units.METRIC, mSystem);
+	}
+
+	public int getIterations() {
+		return mConvergence.getIterations();
+	}
+
+	public double getError() {
+		return mConvergence.getError();
+	}
+
+	public double getGasAmount() {
+		return (mO2 + mHe + mN2) * mAmountPerMole;
+	}
+
+	public double getO2Amount() {
+		return mO2 * mAmountPerMole;
+	}
+
+	public double getHeAmount() {
+		return mHe * mAmountPerMole;
+	}
+
+	public double getN2Amount() {
+		return mN2 * mAmountPerMole;
+	}
+
+	public Mix getMix() {
+		final double n = mO2 + mHe + mN2;
+		return n > 0? new Mix(mO2 / n, mHe / n): MixPool.AIR;
+	}
+
+	public GasState drainToGasAmount(double amount) {
+		final double n = mO2 + mHe + mN2;
+		if(n > 0) {
+			final double scale = Math.max(0, amount / mAmountPerMole) / n;
+			mO2 *= scale;
+			mHe *= scale;
+			mN2 *= scale;
+			mPressure = Double.NaN;
+		}
+		return this;
+	}
+
+	public GasState addO2(double amount) {
+		mO2 += amount / mAmountPerMole;
+		changed();
+		return this;
+	}
+
+	public GasState addHe(double amount) {
+		mHe += amount / mAmountPerMole;
+		changed();
+		return this;
+	}
+
+	public GasState addGas(Mix mix, double amount) {
+		final double n = amount / mAmountPerMole, o2 = n * mix.getfO2(), he = n * mix.getfHe();
+		mO2 += o2;
+		mHe += he;
+		mN2 += n - o2 - he;
+		changed();
+		return this;
+	}
+
+	/**
+	 * Add a gas until the cylinder reaches a pressure
+	 * @param mix The gas to add
+	 * @param pressure The pressure to stop at
+	 * @return This state
+	 */
+	public GasState topup(Mix mix, float pressure) {
+		final double target = Units.convertPressure(pressure, mSystem, Units.METRIC);
+		if(getPressure() >= pressure) {
+			return this;
+		}
+		final double o2 = mO2, he = mHe, n2 = mN2, fo2 = mix.getfO2(), fhe = mix.getfHe();
+		// The pressure rises with every bit of gas added, so bracket the amount
+		// to add and narrow it down with the Illinois variant of regula falsi
+		double lo = 0, flo = mPressure - target,
+			hi = Math.max(target - mPressure, 1) * mVolume / (EquationOfState.R * mTemperature), fhi;
+		while((fhi = pressureWith(o2, he, n2, fo2, fhe, hi, target) - target) < 0) {
+			lo = hi;
+			flo = fhi;
+			hi *= 2;
+		}
+		int side = 0, i = 0;
+		double x = hi, f = fhi;
+		while(i < TOPUP_ITERATIONS && hi - lo > TOPUP_TOLERANCE * hi) {
+			x = (lo * fhi - hi * flo) / (fhi - flo);
+			f = pressureWith(o2, he, n2, fo2, fhe, x, target) - target;
+			i ++;
+			if(Math.abs(f) < TOPUP_TOLERANCE * target) {
+				break;
+			}
+			if(f < 0) {
+				lo = x;
+				flo = f;
+				if(side == -1) {
+					fhi /= 2;
+				}
+				side = -1;
+			} else {
+				hi = x;
+				fhi = f;
+				if(side == 1) {
+					flo /= 2;
+				}
+				side = 1;
+			}
+		}
+		addGas(mix, x * mAmountPerMole);
+		mConvergence.set(i, Math.abs(f));
+		return this;
+	}
+
+	/**
+	 * The pressure in bar if n moles of a gas were added to the given amounts
+	 * @param guess A pressure near the answer
+	 */
+	private double pressureWith(double o2, double he, double n2, double fo2, double fhe,
+			double n, double guess) {
+		final double newO2 = o2 + n * fo2, newHe = he + n * fhe,
+			total = newO2 + newHe + n2 + n * (1 - fo2 - fhe);
+		// These mixes are only tried once, so they don't go in the cache
+		return mEquation.createModel(newO2 / total, newHe / total, mTemperature)
+				.pressure(total, mVolume, guess, null);
+	}
+}
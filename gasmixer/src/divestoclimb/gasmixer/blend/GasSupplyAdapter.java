@@ -0,0 +1,72 @@
+package divestoclimb.gasmixer.blend;
+
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+
+/**
+ * A Supply backed by a GasSupply, which uses ideal or Van der Waals gas laws
+ */
+final class GasSupplyAdapter implements Supply {
+	private final GasSupply mSupply;
+
+	GasSupplyAdapter(GasSupply supply) {
+		mSupply = supply;
+	}
+
+	public double getPressure() {
+		return mSupply.getPressure();
+	}
+
+	public double getGasAmount() {
+		return mSupply.getGasAmount();
+	}
+
+	public double getO2Amount() {
+		return mSupply.getO2Amount();
+	}
+
+	public double getHeAmount() {
+		return mSupply.getHeAmount();
+	}
+
+	public double getN2Amount() {
+		return mSupply.getN2Amount();
+	}
+
+	public Mix getMix() {
+		return mSupply.getMix();
+	}
+
+	public int getIterations() {
+		// GasSupply doesn't say
+		return -1;
+	}
+
+	public double getError() {
+		return Double.NaN;
+	}
+
+	public Supply drainToGasAmount(double amount) {
+		mSupply.drainToGasAmount(amount);
+		return this;
+	}
+
+	public Supply addO2(double amount) {
+		mSupply.addO2(amount);
+		return this;
+	}
+
+	public Supply addHe(double amount) {
+		mSupply.addHe(amount);
+		return this;
+	}
+
+	public Supply addGas(Mix mix, double amount) {
+		mSupply.addGas(mix, amount);
+		return this;
+	}
+
+	public Supply copy() {
+		return new GasSupplyAdapter(mSupply.clone());
+	}
+}
@@ -0,0 +1,59 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * The mixes that meet a set of depth, END and pO2 limits where nothing else
+ * meeting them uses less helium for the fill while leaving as much room
+ * under both the END limit and the MOD. Found by HeliumSearch. Options are
+ * kept in parallel arrays, cheapest first.
+ *
+ * Instances are immutable.
+ */
+public final class HeliumFrontier {
+
+	private final int mMixes[];
+	private final double mHelium[];
+	private final float mEndMargin[], mModMargin[];
+
+	HeliumFrontier(int mixes[], double helium[], float endMargin[], float modMargin[]) {
+		mMixes = mixes;
+		mHelium = helium;
+		mEndMargin = endMargin;
+		mModMargin = modMargin;
+	}
+
+	/**
+	 * @return The number of options
+	 */
+	public int size() {
+		return mMixes.length;
+	}
+
+	/**
+	 * @return The packed mix of option i
+	 */
+	public int getMix(int i) {
+		return mMixes[i];
+	}
+
+	/**
+	 * @return The amount of helium the fill uses, counting helium in the
+	 * top-up gas, in the capacity units of the search
+	 */
+	public double getHelium(int i) {
+		return mHelium[i];
+	}
+
+	/**
+	 * @return How far the END at the maximum depth is under the END limit
+	 */
+	public float getEndMargin(int i) {
+		return mEndMargin[i];
+	}
+
+	/**
+	 * @return How far the MOD is past the maximum depth
+	 */
+	public float getModMargin(int i) {
+		return mModMargin[i];
+	}
+}
@@ -0,0 +1,223 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Finds the HeliumFrontier for a fill: where Mix.best() gives a single mix
+ * that meets the limits, this gives the trade-offs between the helium the
+ * fill uses, the margin under the END limit and the margin under the MOD.
+ *
+ * Candidates are the mixes in whole percents that meet the limits and can be
+ * blended. Each is priced by solving its blend with BlendEngine. Margins
+ * are compared in whole depth increments, so for each pair of margins only
+ * the cheapest mix is kept. A candidate isn't solved at all if a mix with
+ * margins as good has already been found using no more helium than the
+ * least the candidate could possibly use.
+ *
+ * Prices depend only on the fill, so they're kept for as long as the search
+ * is, and the frontiers for the last few sets of limits are kept too. A
+ * search should be made again when the fill changes.
+ *
+ * Instances are not thread safe.
+ */
+public class HeliumSearch {
+
+	// Candidates step through whole percents, in permille. Nothing leaner
+	// than the leanest standard mix is considered.
+	private static final int STEP = 10, MIN_O2 = 100;
+
+	// The number of frontiers to keep
+	private static final int CAPACITY = 16;
+
+	private final BlendRequest mTemplate;
+	private final Cylinder mCylinder;
+	private final boolean mIdeal;
+	private final float mTemperature;
+	private final int mTargetPressure;
+	private final double mStartHe;
+	private final FeasibleRegion mRegion;
+	private final BlendEngine mEngine = new BlendEngine();
+
+	// The helium used by each mix solved so far, NaN if it can't be blended
+	private final PackedMixMap<Double> mPrices = new PackedMixMap<Double>(256);
+	private final LinkedHashMap<Long, HeliumFrontier> mFrontiers;
+
+	/**
+	 * @param template A request for the fill. Everything but the target mix
+	 * is used.
+	 * @param cylinder The cylinder being filled
+	 * @param ideal Whether to use ideal gas laws for the target
+	 * @param temperature The temperature of the gas
+	 */
+	public HeliumSearch(BlendRequest template, Cylinder cylinder, boolean ideal, float temperature) {
+		mTemplate = template;
+		mCylinder = cylinder;
+		mIdeal = ideal;
+		mTemperature = temperature;
+		final GasSupply start = template.getStart();
+		final Mix startMix = start.getMix(), topup = template.getTopup();
+		mTargetPressure = (int)Math.round(template.getTarget().getPressure());
+		mStartHe = BlendEngine.supply(template, start).getHeAmount();
+		mRegion = new FeasibleRegion(startMix.getfO2(), startMix.getfHe(), start.getPressure(),
+				template.getRich().getfO2(), topup.getfO2(), topup.getfHe(), mTargetPressure);
+		mFrontiers = new LinkedHashMap<Long, HeliumFrontier>(CAPACITY * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, HeliumFrontier> eldest) {
+				return size() > CAPACITY;
+			}
+		};
+	}
+
+	/**
+	 * Find the frontier for a set of limits
+	 * @param depth The maximum depth
+	 * @param end The maximum END
+	 * @param po2 The maximum pO2
+	 * @param o2IsNarcotic Whether oxygen counts toward the END
+	 * @return The frontier. It's empty if no mix meets the limits.
+	 */
+	public HeliumFrontier find(int depth, int end, float po2, boolean o2IsNarcotic) {
+		final Long key = ((long)depth << 33) | ((long)end << 17) |
+				((long)Math.round(po2 * 100) << 1) | (o2IsNarcotic? 1: 0);
+		HeliumFrontier f = mFrontiers.get(key);
+		if(f == null) {
+			f = search(depth, end, po2, o2IsNarcotic);
+			mFrontiers.put(key, f);
+		}
+		return f;
+	}
+
+	private HeliumFrontier search(int depth, int end, float po2, boolean o2IsNarcotic) {
+		final Units u = mTemplate.getUnits();
+		final int increment = Math.max(1, Math.round(u.depthIncrement())),
+			endBuckets = Math.max(0, end) / increment + 1,
+			modBuckets = Math.round(u.depthMax()) / increment + 1,
+			n = endBuckets * modBuckets;
+		// The cheapest mix found for each pair of margins, END margin major
+		final double best[] = new double[n];
+		final int mixes[] = new int[n];
+		final float endMargins[] = new float[n], modMargins[] = new float[n];
+		Arrays.fill(best, Double.POSITIVE_INFINITY);
+
+		for(int o2 = MIN_O2; o2 <= 1000; o2 += STEP) {
+			final double fo2 = o2 / 1000.0;
+			final float modMargin = new Mix(fo2, 0).MOD(u, po2) - depth;
+			if(modMargin < 0) {
+				// Richer mixes only have shallower MODs
+				break;
+			}
+			final int mb = Math.min(modBuckets - 1, (int)(modMargin / increment));
+			// More helium only widens the END margin, so once a mix has been
+			// kept or ruled out for a bucket, richer ones in it cost more
+			int lastEb = -1;
+			for(int he = 0; o2 + he <= 1000; he += STEP) {
+				final double fhe = he / 1000.0;
+				final Mix m = new Mix(fo2, fhe);
+				final float endMargin = end - m.END(depth, u, o2IsNarcotic);
+				if(endMargin < 0) {
+					continue;
+				}
+				final int eb = Math.min(endBuckets - 1, (int)(endMargin / increment));
+				if(eb == lastEb || ! mRegion.contains(fo2, fhe)) {
+					continue;
+				}
+				final int packed = PackedMix.pack(fo2, fhe);
+				Double price = mPrices.get(packed);
+				if(price == null) {
+					final GasSupply want = new GasSupply(mCylinder, m, mTargetPressure, mIdeal, mTemperature);
+					// At best, all the helium already in the cylinder is kept
+					final double least = BlendEngine.supply(mTemplate, want).getHeAmount() - mStartHe;
+					if(dominated(best, modBuckets, eb, mb, least, -1)) {
+						lastEb = eb;
+						continue;
+					}
+					price = price(want);
+					mPrices.put(packed, price);
+				}
+				if(price.isNaN()) {
+					continue;
+				}
+				lastEb = eb;
+				final int b = eb * modBuckets + mb;
+				if(price < best[b]) {
+					best[b] = price;
+					mixes[b] = packed;
+					endMargins[b] = endMargin;
+					modMargins[b] = modMargin;
+				}
+			}
+		}
+
+		// Keep the buckets nothing else beats, cheapest first
+		final int order[] = new int[n];
+		int count = 0;
+		for(int b = 0; b < n; b ++) {
+			if(best[b] == Double.POSITIVE_INFINITY ||
+					dominated(best, modBuckets, b / modBuckets, b % modBuckets, best[b], b)) {
+				continue;
+			}
+			int i = count ++;
+			while(i > 0 && best[order[i - 1]] > best[b]) {
+				order[i] = order[i - 1];
+				i --;
+			}
+			order[i] = b;
+		}
+		final int outMixes[] = new int[count];
+		final double outHelium[] = new double[count];
+		final float outEnd[] = new float[count], outMod[] = new float[count];
+		for(int i = 0; i < count; i ++) {
+			final int b = order[i];
+			outMixes[i] = mixes[b];
+			outHelium[i] = best[b];
+			outEnd[i] = endMargins[b];
+			outMod[i] = modMargins[b];
+		}
+		return new HeliumFrontier(outMixes, outHelium, outEnd, outMod);
+	}
+
+	/**
+	 * Determine whether a mix with margins as good as those of a bucket uses
+	 * no more than some amount of helium
+	 * @param self A bucket to leave out, or -1
+	 */
+	private static boolean dominated(double best[], int modBuckets, int eb, int mb,
+			double helium, int self) {
+		final int n = best.length;
+		for(int e = eb * modBuckets; e < n; e += modBuckets) {
+			for(int b = e + mb; b < e + modBuckets; b ++) {
+				if(b != self && best[b] <= helium) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Solve the blend for a target
+	 * @return The helium used, or NaN if the blend can't be done
+	 */
+	private double price(GasSupply want) {
+		final BlendRequest t = mTemplate;
+		BlendRequest r = new BlendRequest(t.getStart(), want, t.getTopup(), t.getRich(),
+				t.getMode(), t.isHeFirst(), t.getUnits());
+		if(t.getEquation() != null) {
+			r = r.withEquation(t.getEquation(), t.getVolume(), t.getTemperature());
+		}
+		final BlendPlan plan = mEngine.solve(r);
+		if(! plan.isSolved()) {
+			return Double.NaN;
+		}
+		return plan.getHeAmount() + plan.getTopupAmount() * t.getTopup().getfHe();
+	}
+}
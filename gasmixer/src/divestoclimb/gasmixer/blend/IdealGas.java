@@ -0,0 +1,36 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * The ideal gas law, PV = nRT
+ */
+public final class IdealGas extends EquationOfState {
+
+	static final IdealGas INSTANCE = new IdealGas();
+
+	private IdealGas() { }
+
+	@Override
+	public String getName() {
+		return IDEAL;
+	}
+
+	@Override
+	protected MixModel createModel(double fo2, double fhe, double t) {
+		return new MixModel(t) {
+			@Override
+			public double pressure(double n, double v) {
+				return n * mRT / v;
+			}
+
+			@Override
+			protected double slope(double n, double v) {
+				return mRT / v;
+			}
+
+			@Override
+			public double moles(double p, double v) {
+				return Math.max(0, p * v / mRT);
+			}
+		};
+	}
+}
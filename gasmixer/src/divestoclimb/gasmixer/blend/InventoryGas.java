@@ -0,0 +1,38 @@
+package divestoclimb.gasmixer.blend;
+
+import divestoclimb.lib.scuba.Mix;
+
+/**
+ * A gas the fill station has on hand, such as a bank or a supply cylinder.
+ * Instances are immutable.
+ */
+public final class InventoryGas {
+	private final Mix mMix;
+	private final double mCost, mAvailable;
+
+	/**
+	 * @param mix The gas
+	 * @param cost The cost of one unit amount of the gas, in the same units
+	 * GasSupply uses for amounts
+	 * @param available The amount of the gas that can be used, or
+	 * Double.POSITIVE_INFINITY if there is no limit (for instance a
+	 * compressor)
+	 */
+	public InventoryGas(Mix mix, double cost, double available) {
+		mMix = mix;
+		mCost = cost;
+		mAvailable = available;
+	}
+
+	public Mix getMix() {
+		return mMix;
+	}
+
+	public double getCost() {
+		return mCost;
+	}
+
+	public double getAvailable() {
+		return mAvailable;
+	}
+}
@@ -0,0 +1,127 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import divestoclimb.lib.scuba.GasSupply;
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Finds the cheapest way to blend a gas from any number of available gases,
+ * where BlendEngine only knows about one rich gas, helium and one top-up gas.
+ *
+ * The amounts of each gas to add, and of the starting gas to keep, are the
+ * solution to a small linear program: the O2, He and total amounts must come
+ * out to the target's, no gas may be used beyond what's available, and the
+ * total cost is minimized. With real gases the amounts come from GasSupply so
+ * they are already corrected for compressibility, as in BlendEngine.
+ */
+public class InventoryOptimizer {
+
+	// Rows of the constraint matrix
+	private static final int ROW_O2 = 0, ROW_HE = 1, ROW_TOTAL = 2, MIX_ROWS = 3;
+
+	// Keeping the starting gas is free, but a tiny negative cost makes the
+	// optimizer prefer keeping it over draining when both cost the same
+	private static final double KEEP_COST = -1e-6;
+
+	/**
+	 * Find the cheapest blend
+	 * @param start The gas in the cylinder before blending
+	 * @param target The desired gas in the same cylinder after blending
+	 * @param gases The gases available. Partial pressure steps add them in
+	 * this order, so it should be the order the station wants them blended.
+	 * @param units The units the supplies are expressed in
+	 * @return The plan
+	 */
+	public InventoryPlan optimize(GasSupply start, GasSupply target,
+			List<InventoryGas> gases, Units units) {
+		final int count = gases.size(), n = count + 1;
+		// Amounts are scaled to fractions of the target amount so the
+		// simplex tolerances make sense
+		final double total = target.getGasAmount(), scale = total > 0? total: 1;
+
+		// Only limited gases need a bound constraint, and the starting gas
+		// is limited by what's in the cylinder
+		int bounded = 1;
+		double maxCost = 0;
+		for(InventoryGas g : gases) {
+			if(! Double.isInfinite(g.getAvailable())) {
+				bounded ++;
+			}
+			maxCost = Math.max(maxCost, Math.abs(g.getCost()));
+		}
+		if(maxCost == 0) {
+			maxCost = 1;
+		}
+
+		// Column 0 is the starting gas, 1 to count the inventory, and the rest
+		// are slack variables for the bounds
+		final int rows = MIX_ROWS + bounded, cols = n + bounded;
+		final double a[][] = new double[rows][cols], b[] = new double[rows], c[] = new double[cols];
+		final Mix startMix = start.getMix();
+		a[ROW_O2][0] = startMix.getfO2();
+		a[ROW_HE][0] = startMix.getfHe();
+		a[ROW_TOTAL][0] = 1;
+		c[0] = KEEP_COST;
+		a[MIX_ROWS][0] = 1;
+		a[MIX_ROWS][n] = 1;
+		b[MIX_ROWS] = start.getGasAmount() / scale;
+		int row = MIX_ROWS + 1;
+		for(int i = 0; i < count; i ++) {
+			final InventoryGas g = gases.get(i);
+			final Mix m = g.getMix();
+			final int col = i + 1;
+			a[ROW_O2][col] = m.getfO2();
+			a[ROW_HE][col] = m.getfHe();
+			a[ROW_TOTAL][col] = 1;
+			c[col] = g.getCost() / maxCost;
+			if(! Double.isInfinite(g.getAvailable())) {
+				a[row][col] = 1;
+				a[row][n + row - MIX_ROWS] = 1;
+				b[row] = g.getAvailable() / scale;
+				row ++;
+			}
+		}
+		b[ROW_O2] = target.getO2Amount() / scale;
+		b[ROW_HE] = target.getHeAmount() / scale;
+		b[ROW_TOTAL] = total / scale;
+
+		final double x[] = new double[cols];
+		if(Simplex.minimize(a, b, c, x) != Simplex.OPTIMAL) {
+			return new InventoryPlan(count);
+		}
+
+		final double keep = x[0] * scale;
+		final GasSupply supply = start.clone();
+		final float pi = (float)start.getPressure(),
+			pdrain = (float)supply.drainToGasAmount(keep).getPressure();
+		float startPressure = pi;
+		final boolean drainNeeded = pi - pdrain >= Math.pow(10, units.pressurePrecision() * -1) * 0.5;
+		if(drainNeeded) {
+			startPressure = pdrain;
+		}
+
+		final double amounts[] = new double[count];
+		double cost = 0;
+		final List<BlendStep> steps = new ArrayList<BlendStep>(count);
+		float last = pdrain;
+		for(int i = 0; i < count; i ++) {
+			final double amount = x[i + 1] * scale;
+			if(amount <= 0) {
+				continue;
+			}
+			final InventoryGas g = gases.get(i);
+			amounts[i] = amount;
+			cost += amount * g.getCost();
+			final float p = (float)supply.addGas(g.getMix(), amount).getPressure();
+			if(Math.round(p) > Math.round(last)) {
+				steps.add(new BlendStep(p, (int)Math.round(amount), g.getMix()));
+			}
+			last = p;
+		}
+		return new InventoryPlan(BlendSolver.SOLVED, keep, amounts, cost,
+				startPressure, drainNeeded, steps);
+	}
+}
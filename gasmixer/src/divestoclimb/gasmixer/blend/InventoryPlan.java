@@ -0,0 +1,88 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The cheapest way of blending a gas from an inventory, as found by
+ * InventoryOptimizer. Instances are immutable.
+ */
+public final class InventoryPlan {
+	private final int mStatus;
+	private final double mStartAmount, mCost;
+	private final double mAmounts[];
+	private final float mStartPressure;
+	private final boolean mDrainNeeded;
+	private final List<BlendStep> mSteps;
+
+	/**
+	 * Build a plan for a problem that has no solution
+	 */
+	InventoryPlan(int gases) {
+		this(BlendSolver.INFEASIBLE, 0, new double[gases], 0, 0, false,
+				Collections.<BlendStep>emptyList());
+	}
+
+	InventoryPlan(int status, double startAmount, double amounts[], double cost,
+			float startPressure, boolean drainNeeded, List<BlendStep> steps) {
+		mStatus = status;
+		mStartAmount = startAmount;
+		mAmounts = amounts;
+		mCost = cost;
+		mStartPressure = startPressure;
+		mDrainNeeded = drainNeeded;
+		mSteps = Collections.unmodifiableList(steps);
+	}
+
+	/**
+	 * @return BlendSolver.SOLVED, or BlendSolver.INFEASIBLE if the target
+	 * can't be blended from the inventory
+	 */
+	public int getStatus() {
+		return mStatus;
+	}
+
+	public boolean isSolved() {
+		return mStatus == BlendSolver.SOLVED;
+	}
+
+	/**
+	 * @return The amount of the starting gas to keep in the cylinder
+	 */
+	public double getStartAmount() {
+		return mStartAmount;
+	}
+
+	/**
+	 * @param gas The index of a gas in the inventory that was optimized
+	 * @return The amount of that gas to add
+	 */
+	public double getAmount(int gas) {
+		return mAmounts[gas];
+	}
+
+	/**
+	 * @return The total cost of the gases added
+	 */
+	public double getCost() {
+		return mCost;
+	}
+
+	/**
+	 * @return The pressure to start blending from, after draining if needed
+	 */
+	public float getStartPressure() {
+		return mStartPressure;
+	}
+
+	public boolean isDrainNeeded() {
+		return mDrainNeeded;
+	}
+
+	/**
+	 * @return The partial pressure steps, in the order of the inventory
+	 */
+	public List<BlendStep> getSteps() {
+		return mSteps;
+	}
+}
@@ -0,0 +1,128 @@
+package divestoclimb.gasmixer.blend;
+
+import java.io.IOException;
+
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * The MOD at a normal and a high pO2, and the END or EAD at the normal MOD,
+ * for a whole list of mixes at once, as printed on analysis labels. Mixes
+ * are given packed (see PackedMix) and the results are kept in parallel
+ * arrays. A fill station's list repeats the same few mixes, so each
+ * distinct mix is only worked out once.
+ *
+ * Instances are immutable.
+ */
+public final class MixLimits {
+
+	private final int mMixes[];
+	private final float mModLow[], mModHigh[], mEndEad[];
+	private final float mPo2Low, mPo2High;
+
+	private MixLimits(int mixes[], float po2Low, float po2High) {
+		mMixes = mixes;
+		mModLow = new float[mixes.length];
+		mModHigh = new float[mixes.length];
+		mEndEad = new float[mixes.length];
+		mPo2Low = po2Low;
+		mPo2High = po2High;
+	}
+
+	/**
+	 * Work out the limits for a list of mixes
+	 * @param mixes The packed mixes. Duplicates are allowed.
+	 * @param u The units to give depths in
+	 * @param po2Low The normal maximum pO2
+	 * @param po2High The high maximum pO2, such as for decompression
+	 * @param o2IsNarcotic Whether oxygen counts toward the END
+	 * @return The limits, in the same order as mixes
+	 */
+	public static MixLimits compute(int mixes[], Units u, float po2Low, float po2High,
+			boolean o2IsNarcotic) {
+		final MixLimits l = new MixLimits(mixes.clone(), po2Low, po2High);
+		// Where each distinct mix was first seen
+		final PackedMixMap<Integer> first = new PackedMixMap<Integer>(mixes.length);
+		final float modLow[] = l.mModLow, modHigh[] = l.mModHigh, endEad[] = l.mEndEad;
+		for(int i = 0; i < mixes.length; i ++) {
+			final Integer j = first.get(mixes[i]);
+			if(j != null) {
+				modLow[i] = modLow[j];
+				modHigh[i] = modHigh[j];
+				endEad[i] = endEad[j];
+				continue;
+			}
+			first.put(mixes[i], i);
+			final Mix m = PackedMix.unpack(mixes[i]);
+			modLow[i] = MixPool.mod(m, u, po2Low);
+			modHigh[i] = MixPool.mod(m, u, po2High);
+			final int depth = Math.round(modLow[i]);
+			endEad[i] = PackedMix.he(mixes[i]) > 0? MixPool.end(m, depth, u, o2IsNarcotic):
+				MixPool.ead(m, depth, u);
+		}
+		return l;
+	}
+
+	public int size() {
+		return mMixes.length;
+	}
+
+	/**
+	 * @return The packed mix in row i
+	 */
+	public int getMix(int i) {
+		return mMixes[i];
+	}
+
+	/**
+	 * @return The MOD at the normal pO2
+	 */
+	public float getModLow(int i) {
+		return mModLow[i];
+	}
+
+	/**
+	 * @return The MOD at the high pO2
+	 */
+	public float getModHigh(int i) {
+		return mModHigh[i];
+	}
+
+	/**
+	 * @return The END at the normal MOD if the mix has helium, otherwise the
+	 * EAD
+	 * @see #isEnd(int)
+	 */
+	public float getEndEad(int i) {
+		return mEndEad[i];
+	}
+
+	/**
+	 * @return Whether getEndEad(i) is an END rather than an EAD
+	 */
+	public boolean isEnd(int i) {
+		return PackedMix.he(mMixes[i]) > 0;
+	}
+
+	/**
+	 * Write the limits out as comma separated values, one mix per line,
+	 * after a header line naming the columns. Numbers are written the same
+	 * way in every locale, and depths are rounded to whole units.
+	 * @param out Where to write
+	 */
+	public void writeCsv(Appendable out) throws IOException {
+		out.append("mix,o2,he,mod_").append(Float.toString(mPo2Low))
+			.append(",mod_").append(Float.toString(mPo2High)).append(",end,ead\n");
+		for(int i = 0; i < mMixes.length; i ++) {
+			final int packed = mMixes[i];
+			final String depth = Integer.toString(Math.round(mEndEad[i]));
+			out.append('"').append(MixPool.toString(PackedMix.unpack(packed))).append("\",")
+				.append(Float.toString(PackedMix.o2(packed) / 10f)).append(',')
+				.append(Float.toString(PackedMix.he(packed) / 10f)).append(',')
+				.append(Integer.toString(Math.round(mModLow[i]))).append(',')
+				.append(Integer.toString(Math.round(mModHigh[i]))).append(',')
+				.append(isEnd(i)? depth: "").append(',')
+				.append(isEnd(i)? "": depth).append('\n');
+		}
+	}
+}
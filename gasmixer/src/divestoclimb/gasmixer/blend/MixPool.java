@@ -0,0 +1,186 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import divestoclimb.lib.scuba.Mix;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * A pool of shared Mix instances, so the UI and the blend steps don't create
+ * a new Mix every time they need one. Mixes are rounded to the nearest 0.1%
+ * of oxygen and helium, which is finer than any analyzer, and the same
+ * instance is returned for every request that rounds to the same mix.
+ *
+ * Each pooled mix also remembers its toString() and its last MOD, END and
+ * EAD, which are otherwise recomputed every time a field on the screen
+ * changes.
+ *
+ * Mixes that have to keep their exact fractions, like the combined gas of a
+ * continuous blend, shouldn't be pooled. All methods are thread safe.
+ */
+public final class MixPool {
+
+	// The number of mixes besides the standard ones to keep
+	private static final int CACHE_SIZE = 128;
+
+	/**
+	 * A pooled mix and the values computed from it
+	 */
+	private static final class Entry {
+		final Mix mix;
+		private String mString;
+		// The arguments and results of the last MOD, END and EAD
+		private int mModSystem = -1, mEndSystem = -1, mEadSystem = -1, mEndDepth, mEadDepth;
+		private float mModPo2, mMod, mEnd, mEad;
+		private boolean mEndNarcotic;
+
+		Entry(Mix mix) {
+			this.mix = mix;
+		}
+
+		synchronized String string() {
+			if(mString == null) {
+				mString = mix.toString();
+			}
+			return mString;
+		}
+
+		synchronized float mod(Units u, float po2) {
+			final int system = u.getCurrentSystem();
+			if(system != mModSystem || po2 != mModPo2) {
+				mMod = mix.MOD(u, po2);
+				mModSystem = system;
+				mModPo2 = po2;
+			}
+			return mMod;
+		}
+
+		synchronized float end(int depth, Units u, boolean o2narc) {
+			final int system = u.getCurrentSystem();
+			if(system != mEndSystem || depth != mEndDepth || o2narc != mEndNarcotic) {
+				mEnd = mix.END(depth, u, o2narc);
+				mEndSystem = system;
+				mEndDepth = depth;
+				mEndNarcotic = o2narc;
+			}
+			return mEnd;
+		}
+
+		synchronized float ead(int depth, Units u) {
+			final int system = u.getCurrentSystem();
+			if(system != mEadSystem || depth != mEadDepth) {
+				mEad = mix.EAD(depth, u);
+				mEadSystem = system;
+				mEadDepth = depth;
+			}
+			return mEad;
+		}
+	}
+
+	// The standard mixes, which are never evicted. This is only written while
+	// the class is initialized, so it can be read without locking.
+	private static final PackedMixMap<Entry> sStandard = new PackedMixMap<Entry>();
+	private static final Map<Integer, Entry> sEntries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	public static final Mix O2 = standard(1, 0), HE = standard(0, 1), AIR = standard(0.21, 0),
+		EAN32 = standard(0.32, 0), EAN36 = standard(0.36, 0), EAN50 = standard(0.5, 0),
+		TX21_35 = standard(0.21, 0.35), TX18_45 = standard(0.18, 0.45),
+		TX15_55 = standard(0.15, 0.55), TX10_70 = standard(0.1, 0.7);
+
+	private MixPool() { }
+
+	private static Mix standard(double fo2, double fhe) {
+		final Entry e = new Entry(new Mix(fo2, fhe));
+		sStandard.put(PackedMix.pack(fo2, fhe), e);
+		return e.mix;
+	}
+
+	private static Entry entry(double fo2, double fhe) {
+		final int key = PackedMix.pack(fo2, fhe);
+		final Entry standard = sStandard.get(key);
+		if(standard != null) {
+			return standard;
+		}
+		synchronized(sEntries) {
+			Entry e = sEntries.get(key);
+			if(e == null) {
+				e = new Entry(new Mix(PackedMix.fO2(key), PackedMix.fHe(key)));
+				sEntries.put(key, e);
+			}
+			return e;
+		}
+	}
+
+	/**
+	 * Get the pooled mix closest to some fractions
+	 * @param fo2 The fraction of oxygen
+	 * @param fhe The fraction of helium
+	 * @return The shared instance
+	 */
+	public static Mix get(double fo2, double fhe) {
+		return entry(fo2, fhe).mix;
+	}
+
+	/**
+	 * Get the pooled mix closest to a mix
+	 * @param m The mix, or null
+	 * @return The shared instance, or null if m was null
+	 */
+	public static Mix intern(Mix m) {
+		return m == null? null: entry(m.getfO2(), m.getfHe()).mix;
+	}
+
+	/**
+	 * @return m.toString(), cached if the mix is pooled
+	 */
+	public static String toString(Mix m) {
+		final Entry e = lookup(m);
+		return e != null? e.string(): m.toString();
+	}
+
+	/**
+	 * @return m.MOD(u, po2), cached if the mix is pooled
+	 */
+	public static float mod(Mix m, Units u, float po2) {
+		final Entry e = lookup(m);
+		return e != null? e.mod(u, po2): m.MOD(u, po2);
+	}
+
+	/**
+	 * @return m.END(depth, u, o2narc), cached if the mix is pooled
+	 */
+	public static float end(Mix m, int depth, Units u, boolean o2narc) {
+		final Entry e = lookup(m);
+		return e != null? e.end(depth, u, o2narc): m.END(depth, u, o2narc);
+	}
+
+	/**
+	 * @return m.EAD(depth, u), cached if the mix is pooled
+	 */
+	public static float ead(Mix m, int depth, Units u) {
+		final Entry e = lookup(m);
+		return e != null? e.ead(depth, u): m.EAD(depth, u);
+	}
+
+	/**
+	 * Find the entry for a mix if it's the pooled instance
+	 */
+	private static Entry lookup(Mix m) {
+		final int key = PackedMix.pack(m);
+		Entry e = sStandard.get(key);
+		if(e == null) {
+			synchronized(sEntries) {
+				e = sEntries.get(key);
+			}
+		}
+		return e != null && e.mix == m? e: null;
+	}
+}
@@ -0,0 +1,101 @@
+package divestoclimb.gasmixer.blend;
+
+import divestoclimb.lib.scuba.Mix;
+
+/**
+ * Conversions between Mix objects and a mix packed into a single int, for
+ * caches, collections and saved settings. The packed form holds the oxygen
+ * fraction in permille in the high 16 bits and the helium fraction in
+ * permille in the low 16 bits, so it's never negative and two mixes that
+ * round to the same 0.1% pack to the same value.
+ */
+public final class PackedMix {
+
+	/** A value that is never a valid packed mix */
+	public static final int NONE = -1;
+
+	/** Air, packed */
+	public static final int AIR = 210 << 16;
+
+	// Fractions are stored as multiples of 1 / STEPS
+	private static final int STEPS = 1000;
+
+	private PackedMix() { }
+
+	private static int permille(double fraction) {
+		return (int)Math.round(Math.max(0, Math.min(1, fraction)) * STEPS);
+	}
+
+	/**
+	 * Pack a mix given as fractions. Values are rounded to 0.1% and clamped
+	 * so the oxygen and helium don't add up to more than 1.
+	 * @param fo2 The fraction of oxygen
+	 * @param fhe The fraction of helium
+	 * @return The packed mix
+	 */
+	public static int pack(double fo2, double fhe) {
+		final int o2 = permille(fo2);
+		return o2 << 16 | Math.min(permille(fhe), STEPS - o2);
+	}
+
+	/**
+	 * @param m The mix to pack
+	 * @return The packed mix
+	 */
+	public static int pack(Mix m) {
+		return pack(m.getfO2(), m.getfHe());
+	}
+
+	/**
+	 * @return The oxygen in a packed mix, in permille
+	 */
+	public static int o2(int packed) {
+		return packed >>> 16;
+	}
+
+	/**
+	 * @return The helium in a packed mix, in permille
+	 */
+	public static int he(int packed) {
+		return packed & 0xffff;
+	}
+
+	/**
+	 * @return The fraction of oxygen in a packed mix
+	 */
+	public static double fO2(int packed) {
+		return (double)o2(packed) / STEPS;
+	}
+
+	/**
+	 * @return The fraction of helium in a packed mix
+	 */
+	public static double fHe(int packed) {
+		return (double)he(packed) / STEPS;
+	}
+
+	/**
+	 * @param packed A packed mix
+	 * @return Whether the value is a mix that pack() could have returned
+	 */
+	public static boolean isValid(int packed) {
+		return packed >= 0 && he(packed) <= STEPS && o2(packed) + he(packed) <= STEPS;
+	}
+
+	/**
+	 * Unpack a mix
+	 * @param packed The packed mix
+	 * @return The shared Mix instance from MixPool
+	 */
+	public static Mix unpack(int packed) {
+		return MixPool.get(fO2(packed), fHe(packed));
+	}
+
+	/**
+	 * Spread the bits of a packed mix for use as a hash table index
+	 */
+	static int hash(int packed) {
+		final int h = packed * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,157 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from packed mixes to values. Keys are kept as ints in a single
+ * open-addressed table, so there are no boxed keys or entry objects.
+ *
+ * Instances are not thread safe.
+ * @param <V> The type of value stored for each mix
+ * @see PackedMix
+ */
+public class PackedMixMap<V> {
+
+	private int mKeys[];
+	private Object mValues[];
+	private int mSize;
+
+	public PackedMixMap() {
+		this(8);
+	}
+
+	/**
+	 * @param capacity The number of mixes to make room for
+	 */
+	public PackedMixMap(int capacity) {
+		int n = 4;
+		while(n * 3 / 4 < capacity) {
+			n <<= 1;
+		}
+		allocate(n);
+	}
+
+	private void allocate(int n) {
+		mKeys = new int[n];
+		Arrays.fill(mKeys, PackedMix.NONE);
+		mValues = new Object[n];
+	}
+
+	/**
+	 * The slot holding a key, or the empty slot where it would go
+	 */
+	private int slot(int key) {
+		final int mask = mKeys.length - 1;
+		int i = PackedMix.hash(key) & mask;
+		while(mKeys[i] != key && mKeys[i] != PackedMix.NONE) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * @param key A packed mix
+	 * @return The value for the mix, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		return (V)mValues[slot(key)];
+	}
+
+	public boolean containsKey(int key) {
+		return mKeys[slot(key)] == key;
+	}
+
+	/**
+	 * @param key A packed mix
+	 * @param value The value for the mix
+	 * @return The value it replaced, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if(key < 0) {
+			throw new IllegalArgumentException("Not a packed mix: " + key);
+		}
+		int i = slot(key);
+		final V old = (V)mValues[i];
+		if(mKeys[i] != key) {
+			if((mSize + 1) * 4 > mKeys.length * 3) {
+				grow();
+				i = slot(key);
+			}
+			mKeys[i] = key;
+			mSize ++;
+		}
+		mValues[i] = value;
+		return old;
+	}
+
+	/**
+	 * @param key A packed mix
+	 * @return The value that was removed, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		final int keys[] = mKeys, mask = keys.length - 1;
+		int i = slot(key);
+		if(keys[i] != key) {
+			return null;
+		}
+		final V old = (V)mValues[i];
+		// Move back any later keys in the run that could be found here
+		int j = i;
+		while(true) {
+			j = (j + 1) & mask;
+			if(keys[j] == PackedMix.NONE) {
+				break;
+			}
+			final int home = PackedMix.hash(keys[j]) & mask;
+			if(((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				mValues[i] = mValues[j];
+				i = j;
+			}
+		}
+		keys[i] = PackedMix.NONE;
+		mValues[i] = null;
+		mSize --;
+		return old;
+	}
+
+	private void grow() {
+		final int keys[] = mKeys;
+		final Object values[] = mValues;
+		allocate(keys.length * 2);
+		for(int i = 0; i < keys.length; i ++) {
+			if(keys[i] != PackedMix.NONE) {
+				final int j = slot(keys[i]);
+				mKeys[j] = keys[i];
+				mValues[j] = values[i];
+			}
+		}
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public void clear() {
+		Arrays.fill(mKeys, PackedMix.NONE);
+		Arrays.fill(mValues, null);
+		mSize = 0;
+	}
+
+	/**
+	 * @return The packed mixes in the map, in no particular order
+	 */
+	public int[] keys() {
+		final int result[] = new int[mSize];
+		int n = 0;
+		for(int k : mKeys) {
+			if(k != PackedMix.NONE) {
+				result[n ++] = k;
+			}
+		}
+		return result;
+	}
+}
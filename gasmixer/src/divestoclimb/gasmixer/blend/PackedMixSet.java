@@ -0,0 +1,124 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.Arrays;
+
+/**
+ * A set of packed mixes, kept as ints in a single open-addressed table.
+ *
+ * Instances are not thread safe.
+ * @see PackedMix
+ */
+public class PackedMixSet {
+
+	private int mKeys[];
+	private int mSize;
+
+	public PackedMixSet() {
+		this(8);
+	}
+
+	/**
+	 * @param capacity The number of mixes to make room for
+	 */
+	public PackedMixSet(int capacity) {
+		int n = 4;
+		while(n * 3 / 4 < capacity) {
+			n <<= 1;
+		}
+		mKeys = new int[n];
+		Arrays.fill(mKeys, PackedMix.NONE);
+	}
+
+	/**
+	 * The slot holding a key, or the empty slot where it would go
+	 */
+	private static int slot(int keys[], int key) {
+		final int mask = keys.length - 1;
+		int i = PackedMix.hash(key) & mask;
+		while(keys[i] != key && keys[i] != PackedMix.NONE) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	public boolean contains(int key) {
+		return mKeys[slot(mKeys, key)] == key;
+	}
+
+	/**
+	 * @param key A packed mix
+	 * @return true if the mix wasn't already in the set
+	 */
+	public boolean add(int key) {
+		if(key < 0) {
+			throw new IllegalArgumentException("Not a packed mix: " + key);
+		}
+		if(contains(key)) {
+			return false;
+		}
+		if((mSize + 1) * 4 > mKeys.length * 3) {
+			final int old[] = mKeys;
+			mKeys = new int[old.length * 2];
+			Arrays.fill(mKeys, PackedMix.NONE);
+			for(int k : old) {
+				if(k != PackedMix.NONE) {
+					mKeys[slot(mKeys, k)] = k;
+				}
+			}
+		}
+		mKeys[slot(mKeys, key)] = key;
+		mSize ++;
+		return true;
+	}
+
+	/**
+	 * @param key A packed mix
+	 * @return true if the mix was in the set
+	 */
+	public boolean remove(int key) {
+		final int keys[] = mKeys, mask = keys.length - 1;
+		int i = slot(keys, key);
+		if(keys[i] != key) {
+			return false;
+		}
+		// Move back any later keys in the run that could be found here
+		int j = i;
+		while(true) {
+			j = (j + 1) & mask;
+			if(keys[j] == PackedMix.NONE) {
+				break;
+			}
+			final int home = PackedMix.hash(keys[j]) & mask;
+			if(((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				i = j;
+			}
+		}
+		keys[i] = PackedMix.NONE;
+		mSize --;
+		return true;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public void clear() {
+		Arrays.fill(mKeys, PackedMix.NONE);
+		mSize = 0;
+	}
+
+	/**
+	 * @return The packed mixes in the set, in no particular order
+	 */
+	public int[] toArray() {
+		final int result[] = new int[mSize];
+		int n = 0;
+		for(int k : mKeys) {
+			if(k != PackedMix.NONE) {
+				result[n ++] = k;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,85 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * The Peng-Robinson equation, P = RT/(Vm - b) - a/(Vm^2 + 2bVm - b^2) where Vm
+ * is the molar volume. Pure gas coefficients come from each gas's critical
+ * point and acentric factor, and mixes use the van der Waals one-fluid rules
+ * with no binary interaction terms. It tracks oxygen and nitrogen much better
+ * than Van der Waals at high pressure.
+ */
+public final class PengRobinson extends EquationOfState {
+
+	static final PengRobinson INSTANCE = new PengRobinson();
+
+	// Critical temperature (K), critical pressure (bar) and acentric factor
+	// by gas
+	private static final double TC[] = { 154.58, 5.19, 126.19 },
+		PC[] = { 50.43, 2.27, 33.96 },
+		OMEGA[] = { 0.0222, -0.390, 0.0372 };
+
+	private PengRobinson() { }
+
+	@Override
+	public String getName() {
+		return PENG_ROBINSON;
+	}
+
+	/**
+	 * The square root of a for a pure gas
+	 */
+	private static double sqrtA(int gas, double t) {
+		final double tc = TC[gas], omega = OMEGA[gas];
+		double alpha = 1;
+		// Helium is so far above its critical temperature that the usual
+		// alpha function runs away, so its attraction is held at the value
+		// at the critical point
+		if(gas != HE) {
+			final double kappa = 0.37464 + 1.54226 * omega - 0.26992 * omega * omega,
+				s = 1 + kappa * (1 - Math.sqrt(t / tc));
+			alpha = s * s;
+		}
+		return Math.sqrt(0.45724 * R * R * tc * tc / PC[gas] * alpha);
+	}
+
+	private static double b(int gas) {
+		return 0.07780 * R * TC[gas] / PC[gas];
+	}
+
+	@Override
+	protected MixModel createModel(double fo2, double fhe, double t) {
+		final double fn2 = 1 - fo2 - fhe,
+			sqrtA = fo2 * sqrtA(O2, t) + fhe * sqrtA(HE, t) + fn2 * sqrtA(N2, t);
+		return new Model(t, sqrtA * sqrtA, fo2 * b(O2) + fhe * b(HE) + fn2 * b(N2));
+	}
+
+	private static final class Model extends MixModel {
+		private final double mA, mB;
+
+		Model(double t, double a, double b) {
+			super(t);
+			mA = a;
+			mB = b;
+		}
+
+		// In terms of n and V the equation is
+		// P = nRT/(V - nb) - an^2/(V^2 + 2nbV - n^2b^2)
+		@Override
+		public double pressure(double n, double v) {
+			final double b = mB;
+			return n * mRT / (v - n * b) - mA * n * n / (v * v + 2 * n * b * v - n * n * b * b);
+		}
+
+		@Override
+		protected double slope(double n, double v) {
+			final double b = mB, free = v - n * b,
+				d = v * v + 2 * n * b * v - n * n * b * b,
+				dd = 2 * b * v - 2 * n * b * b;
+			return mRT * v / (free * free) - mA * (2 * n * d - n * n * dd) / (d * d);
+		}
+
+		@Override
+		protected double maxMoles(double v) {
+			return v / mB;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * A small dense two-phase simplex solver for linear programs in standard form:
+ * minimize c.x subject to Ax = b and x >= 0. It's meant for the handful of
+ * constraints that come up in blending, where building a dense tableau is
+ * much cheaper than anything more clever.
+ *
+ * Bland's rule is used to choose pivots, so the solver can't cycle.
+ */
+final class Simplex {
+
+	static final int OPTIMAL = 0;
+	static final int INFEASIBLE = 1;
+	static final int UNBOUNDED = 2;
+
+	// Values smaller than this are treated as zero. Callers should scale
+	// their problems so the entries of A, b and c are around 1.
+	private static final double EPSILON = 1e-9;
+
+	private Simplex() { }
+
+	/**
+	 * Solve a linear program
+	 * @param a The constraint matrix, m rows of n columns. Not modified.
+	 * @param b The right-hand side, m elements. Not modified.
+	 * @param c The costs, n elements
+	 * @param x Receives the optimal solution, n elements. Undefined unless
+	 * OPTIMAL is returned.
+	 * @return OPTIMAL, INFEASIBLE or UNBOUNDED
+	 */
+	static int minimize(double a[][], double b[], double c[], double x[]) {
+		final int m = b.length, n = c.length, cols = n + m, rhs = cols;
+		// One row per constraint, plus the reduced costs in the last row.
+		// Every constraint gets an artificial variable to start the first
+		// phase from.
+		final double t[][] = new double[m + 1][cols + 1];
+		final int basis[] = new int[m];
+		final double obj[] = t[m];
+		for(int i = 0; i < m; i ++) {
+			// Artificial variables need a non-negative right-hand side
+			final double sign = b[i] < 0? -1: 1;
+			for(int j = 0; j < n; j ++) {
+				t[i][j] = sign * a[i][j];
+			}
+			t[i][n + i] = 1;
+			t[i][rhs] = sign * b[i];
+			basis[i] = n + i;
+		}
+
+		// Phase 1: minimize the sum of the artificial variables
+		for(int j = 0; j <= rhs; j ++) {
+			if(j >= n && j < cols) {
+				continue;
+			}
+			double sum = 0;
+			for(int i = 0; i < m; i ++) {
+				sum += t[i][j];
+			}
+			obj[j] = -sum;
+		}
+		if(iterate(t, basis, m, cols) != OPTIMAL || -obj[rhs] > EPSILON * m) {
+			return INFEASIBLE;
+		}
+		// Pivot out any artificial variables still in the basis at zero. If
+		// there's nothing to pivot on, the constraint was redundant and the
+		// artificial variable stays at zero.
+		for(int i = 0; i < m; i ++) {
+			if(basis[i] >= n) {
+				for(int j = 0; j < n; j ++) {
+					if(Math.abs(t[i][j]) > EPSILON) {
+						pivot(t, basis, m, cols, i, j);
+						break;
+					}
+				}
+			}
+		}
+
+		// Phase 2: the real costs. Artificial variables may not re-enter.
+		for(int j = 0; j <= rhs; j ++) {
+			double d = j < n? c[j]: 0;
+			for(int i = 0; i < m; i ++) {
+				if(basis[i] < n) {
+					d -= c[basis[i]] * t[i][j];
+				}
+			}
+			obj[j] = j >= n && j < cols? 0: d;
+		}
+		final int status = iterate(t, basis, m, n);
+		if(status != OPTIMAL) {
+			return status;
+		}
+		for(int j = 0; j < n; j ++) {
+			x[j] = 0;
+		}
+		for(int i = 0; i < m; i ++) {
+			if(basis[i] < n) {
+				x[basis[i]] = Math.max(0, t[i][rhs]);
+			}
+		}
+		return OPTIMAL;
+	}
+
+	/**
+	 * Pivot until no reduced cost is negative
+	 * @param entering Only columns below this index may enter the basis
+	 */
+	private static int iterate(double t[][], int basis[], int m, int entering) {
+		final int rhs = t[m].length - 1;
+		final double obj[] = t[m];
+		// Bland's rule terminates, but guard against numerical trouble
+		for(int iter = 0, limit = 50 * (m + entering); iter < limit; iter ++) {
+			int col = -1;
+			for(int j = 0; j < entering; j ++) {
+				if(obj[j] < -EPSILON) {
+					col = j;
+					break;
+				}
+			}
+			if(col == -1) {
+				return OPTIMAL;
+			}
+			int row = -1;
+			double best = 0;
+			for(int i = 0; i < m; i ++) {
+				if(t[i][col] > EPSILON) {
+					final double ratio = t[i][rhs] / t[i][col];
+					if(row == -1 || ratio < best - EPSILON ||
+							(ratio <= best + EPSILON && basis[i] < basis[row])) {
+						row = i;
+						best = ratio;
+					}
+				}
+			}
+			if(row == -1) {
+				return UNBOUNDED;
+			}
+			pivot(t, basis, m, t[m].length - 1, row, col);
+		}
+		return INFEASIBLE;
+	}
+
+	private static void pivot(double t[][], int basis[], int m, int cols, int row, int col) {
+		final double pr[] = t[row];
+		final double p = pr[col];
+		for(int j = 0; j <= cols; j ++) {
+			pr[j] /= p;
+		}
+		for(int i = 0; i <= m; i ++) {
+			final double ri[] = t[i];
+			final double f = ri[col];
+			if(i == row || f == 0) {
+				continue;
+			}
+			for(int j = 0; j <= cols; j ++) {
+				ri[j] -= f * pr[j];
+			}
+		}
+		basis[row] = col;
+	}
+}
@@ -0,0 +1,164 @@
+package divestoclimb.gasmixer.blend;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of blend solutions. Inputs are
+ * quantized into a Key so blends that would display identically share an
+ * entry: mixes to 0.1%, pressures and temperatures to a tenth of a unit.
+ *
+ * All methods are synchronized so a cache can be shared between threads.
+ * @param <V> The type of value stored for each solution
+ */
+public class SolutionCache<V> {
+
+	private final LinkedHashMap<Key, V> mEntries;
+	private int mHits, mMisses, mEvictions;
+
+	/**
+	 * @param capacity The maximum number of solutions to keep
+	 */
+	public SolutionCache(final int capacity) {
+		// An access-ordered LinkedHashMap moves entries to the end when they're
+		// read, so the eldest entry is always the least recently used.
+		mEntries = new LinkedHashMap<Key, V>(capacity * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+				if(size() > capacity) {
+					mEvictions ++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Look up a solution
+	 * @param key The inputs of the blend
+	 * @return The cached value, or null if there is none
+	 */
+	public synchronized V get(Key key) {
+		final V value = mEntries.get(key);
+		if(value == null) {
+			mMisses ++;
+		} else {
+			mHits ++;
+		}
+		return value;
+	}
+
+	public synchronized void put(Key key, V value) {
+		mEntries.put(key, value);
+	}
+
+	/**
+	 * Remove all cached solutions. Hit and miss counters are kept.
+	 */
+	public synchronized void invalidate() {
+		mEntries.clear();
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	public synchronized int getHits() {
+		return mHits;
+	}
+
+	public synchronized int getMisses() {
+		return mMisses;
+	}
+
+	public synchronized int getEvictions() {
+		return mEvictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SolutionCache: " + mEntries.size() + " entries, " + mHits + " hits, " +
+				mMisses + " misses, " + mEvictions + " evictions";
+	}
+
+	/**
+	 * Quantize a pressure or temperature to a tenth of a unit
+	 */
+	private static int tenths(double value) {
+		return (int)Math.round(value * 10);
+	}
+
+	/**
+	 * The quantized inputs of a blend. Mixes are given as fractions. Pressures
+	 * and temperature may be in any units as long as they're consistent, which
+	 * is why the unit system is part of the key.
+	 */
+	public static final class Key {
+		// Mixes are packed
+		private final int mStart, mStartPressure, mTarget, mTargetPressure,
+			mTopup, mRich, mTemperature, mUnits, mMode;
+		private final long mCylinderId;
+		private final boolean mReal, mHeFirst;
+		private final int mHash;
+
+		public Key(double startO2, double startHe, double startPressure,
+				double targetO2, double targetHe, double targetPressure,
+				double topupO2, double topupHe, double richO2,
+				double temperature, long cylinderId, boolean real,
+				int mode, boolean heFirst, int units) {
+			mStart = PackedMix.pack(startO2, startHe);
+			mStartPressure = tenths(startPressure);
+			mTarget = PackedMix.pack(targetO2, targetHe);
+			mTargetPressure = tenths(targetPressure);
+			mTopup = PackedMix.pack(topupO2, topupHe);
+			mRich = PackedMix.pack(richO2, 0);
+			mTemperature = tenths(temperature);
+			mCylinderId = cylinderId;
+			mReal = real;
+			mMode = mode;
+			mHeFirst = heFirst;
+			mUnits = units;
+
+			int h = mStart;
+			h = 31 * h + mStartPressure;
+			h = 31 * h + mTarget;
+			h = 31 * h + mTargetPressure;
+			h = 31 * h + mTopup;
+			h = 31 * h + mRich;
+			h = 31 * h + mTemperature;
+			h = 31 * h + (int)(mCylinderId ^ (mCylinderId >>> 32));
+			h = 31 * h + (mReal? 1: 0);
+			h = 31 * h + mMode;
+			h = 31 * h + (mHeFirst? 1: 0);
+			h = 31 * h + mUnits;
+			mHash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return mHash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) {
+				return true;
+			}
+			if(! (o instanceof Key)) {
+				return false;
+			}
+			final Key k = (Key)o;
+			return mHash == k.mHash &&
+					mStart == k.mStart && mStartPressure == k.mStartPressure &&
+					mTarget == k.mTarget && mTargetPressure == k.mTargetPressure &&
+					mTopup == k.mTopup && mRich == k.mRich &&
+					mTemperature == k.mTemperature &&
+					mCylinderId == k.mCylinderId && mReal == k.mReal &&
+					mMode == k.mMode && mHeFirst == k.mHeFirst &&
+					mUnits == k.mUnits;
+		}
+	}
+}
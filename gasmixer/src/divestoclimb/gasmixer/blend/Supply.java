@@ -0,0 +1,49 @@
+package divestoclimb.gasmixer.blend;
+
+import divestoclimb.lib.scuba.Mix;
+
+/**
+ * The operations BlendEngine needs on the gas in a cylinder, so a blend can be
+ * worked out either with GasSupply or with one of our own gas models. Amounts
+ * and pressures are in the units of the request, and the modifying methods
+ * change the supply and return it.
+ */
+interface Supply {
+
+	double getPressure();
+
+	double getGasAmount();
+
+	double getO2Amount();
+
+	double getHeAmount();
+
+	double getN2Amount();
+
+	Mix getMix();
+
+	/**
+	 * @return The number of iterations the last pressure solve took, or -1
+	 * if the model doesn't report it
+	 */
+	int getIterations();
+
+	/**
+	 * @return The final correction of the last pressure solve in bar, or NaN
+	 * if the model doesn't report it
+	 */
+	double getError();
+
+	Supply drainToGasAmount(double amount);
+
+	Supply addO2(double amount);
+
+	Supply addHe(double amount);
+
+	Supply addGas(Mix mix, double amount);
+
+	/**
+	 * @return An independent copy of this supply
+	 */
+	Supply copy();
+}
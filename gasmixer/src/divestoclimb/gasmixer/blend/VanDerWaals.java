@@ -0,0 +1,68 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * The Van der Waals equation, (P + an^2/V^2)(V - nb) = nRT. Mixes use the
+ * usual rules: the square root of a and b are averaged by fraction.
+ */
+public final class VanDerWaals extends EquationOfState {
+
+	static final VanDerWaals INSTANCE = new VanDerWaals();
+
+	// Van der Waals constants in L^2 bar / mol^2 and L / mol, by gas
+	private static final double SQRT_A[] = { Math.sqrt(1.382), Math.sqrt(0.0346), Math.sqrt(1.370) },
+		B[] = { 0.03186, 0.02380, 0.03870 };
+
+	private VanDerWaals() { }
+
+	/**
+	 * @return The square root of a for a mix. It's the square root that
+	 * mixes linearly, so it's what a mix of mixes should be built from.
+	 */
+	static double sqrtA(double fo2, double fhe) {
+		return fo2 * SQRT_A[O2] + fhe * SQRT_A[HE] + (1 - fo2 - fhe) * SQRT_A[N2];
+	}
+
+	/**
+	 * @return b for a mix
+	 */
+	static double b(double fo2, double fhe) {
+		return fo2 * B[O2] + fhe * B[HE] + (1 - fo2 - fhe) * B[N2];
+	}
+
+	@Override
+	public String getName() {
+		return VAN_DER_WAALS;
+	}
+
+	@Override
+	protected MixModel createModel(double fo2, double fhe, double t) {
+		final double sqrtA = sqrtA(fo2, fhe);
+		return new Model(t, sqrtA * sqrtA, b(fo2, fhe));
+	}
+
+	private static final class Model extends MixModel {
+		private final double mA, mB;
+
+		Model(double t, double a, double b) {
+			super(t);
+			mA = a;
+			mB = b;
+		}
+
+		@Override
+		public double pressure(double n, double v) {
+			return n * mRT / (v - n * mB) - mA * n * n / (v * v);
+		}
+
+		@Override
+		protected double slope(double n, double v) {
+			final double free = v - n * mB;
+			return mRT * v / (free * free) - 2 * mA * n / (v * v);
+		}
+
+		@Override
+		protected double maxMoles(double v) {
+			return v / mB;
+		}
+	}
+}
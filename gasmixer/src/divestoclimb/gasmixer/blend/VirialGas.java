@@ -0,0 +1,77 @@
+package divestoclimb.gasmixer.blend;
+
+/**
+ * The virial equation truncated after the third coefficient,
+ * Z = 1 + B/Vm + C/Vm^2 where Vm is the molar volume. B for a mix is the
+ * fraction-weighted sum over every pair of gases, including unlike pairs, so
+ * it accounts for how helium and nitrogen repel each other. C uses the
+ * common cube root approximation.
+ *
+ * The coefficients are fits near room temperature and the truncated series
+ * loses accuracy past about 300 bar.
+ */
+public final class VirialGas extends EquationOfState {
+
+	static final VirialGas INSTANCE = new VirialGas();
+
+	// Temperature the coefficients are given at
+	private static final double T_REF = 298.15;
+
+	// Second virial coefficients in L/mol at T_REF and their slopes with
+	// temperature, for each pair of gases
+	private static final double B[][] = {
+		{ -0.0164, 0.0186, -0.0096 },
+		{ 0.0186, 0.01177, 0.0214 },
+		{ -0.0096, 0.0214, -0.0048 }
+	};
+	private static final double DB[][] = {
+		{ 2.0e-4, 0, 2.0e-4 },
+		{ 0, -5.2e-6, 0 },
+		{ 2.0e-4, 0, 1.9e-4 }
+	};
+
+	// Cube roots of the third virial coefficients in L^2/mol^2
+	private static final double CBRT_C[] = { Math.cbrt(1.1e-3), Math.cbrt(1.1e-4), Math.cbrt(1.4e-3) };
+
+	private VirialGas() { }
+
+	@Override
+	public String getName() {
+		return VIRIAL;
+	}
+
+	@Override
+	protected MixModel createModel(double fo2, double fhe, double t) {
+		final double x[] = { fo2, fhe, 1 - fo2 - fhe };
+		double b = 0, cbrtC = 0;
+		for(int i = 0; i < 3; i ++) {
+			for(int j = 0; j < 3; j ++) {
+				b += x[i] * x[j] * (B[i][j] + DB[i][j] * (t - T_REF));
+			}
+			cbrtC += x[i] * CBRT_C[i];
+		}
+		return new Model(t, b, cbrtC * cbrtC * cbrtC);
+	}
+
+	private static final class Model extends MixModel {
+		private final double mB, mC;
+
+		Model(double t, double b, double c) {
+			super(t);
+			mB = b;
+			mC = c;
+		}
+
+		@Override
+		public double pressure(double n, double v) {
+			final double d = n / v;
+			return mRT * d * (1 + mB * d + mC * d * d);
+		}
+
+		@Override
+		protected double slope(double n, double v) {
+			final double d = n / v;
+			return mRT / v * (1 + 2 * mB * d + 3 * mC * d * d);
+		}
+	}
+}
@@ -78,7 +78,7 @@ public class Settings extends PreferenceActivity implements OnSharedPreferenceCh
 
 	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
 		if(key.equals("topup_gas")) {
-			Mix topup = TrimixPreference.stringToMix(sharedPreferences.getString("topup_gas", "0.21 0"));
+			Mix topup = TrimixPreference.getMix(sharedPreferences, "topup_gas");
 			if(topup != null) {
 				mTopupGasPreference.setSummary(topup.toString());
 			}
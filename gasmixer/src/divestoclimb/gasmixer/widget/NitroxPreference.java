@@ -1,5 +1,6 @@
 package divestoclimb.gasmixer.widget;
 
+import divestoclimb.gasmixer.blend.MixPool;
 import divestoclimb.lib.scuba.Mix;
 import android.content.Context;
 import android.content.res.TypedArray;
@@ -34,7 +35,7 @@ public class NitroxPreference extends DialogPreference implements MixPreference
 	}
 	
 	public void setMix(float fo2) {
-		mMix = new Mix((double)fo2 / 100, 0);
+		mMix = MixPool.get((double)fo2 / 100, 0);
 		persistFloat(fo2);
 	}
 	
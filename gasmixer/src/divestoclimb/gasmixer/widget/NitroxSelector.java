@@ -13,6 +13,7 @@ import divestoclimb.android.util.ViewId;
 import divestoclimb.android.widget.NumberSelector;
 import divestoclimb.android.widget.NumberSelector.ValueChangedListener;
 import divestoclimb.gasmixer.R;
+import divestoclimb.gasmixer.blend.MixPool;
 import divestoclimb.lib.scuba.Mix;
 
 public class NitroxSelector extends RelativeLayout implements
@@ -72,7 +73,7 @@ public class NitroxSelector extends RelativeLayout implements
 		if(o2val == null) {
 			return null;
 		}
-		return new Mix((float)(o2val / 100.0), 0);
+		return MixPool.get(o2val / 100.0, 0);
 	}
 
 	public void setMix(Mix m) {
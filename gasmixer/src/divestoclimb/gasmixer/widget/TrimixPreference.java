@@ -3,10 +3,13 @@ package divestoclimb.gasmixer.widget;
 import java.text.NumberFormat;
 import java.text.ParseException;
 
+import divestoclimb.gasmixer.blend.MixPool;
+import divestoclimb.gasmixer.blend.PackedMix;
 import divestoclimb.lib.scuba.Mix;
 import divestoclimb.util.Formatting;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -16,14 +19,16 @@ import android.view.View;
 import android.view.ViewGroup;
 
 /**
- * A DialogPreference that displays a single TrimixSelector
+ * A DialogPreference that displays a single TrimixSelector. The mix is
+ * stored as a packed int (see PackedMix). Older versions stored it as a
+ * string of the oxygen and helium fractions separated by a space, which
+ * getMix() still reads; the default value in XML is given that way too.
  * @author Ben Roberts (divestoclimb@gmail.com)
  */
 public class TrimixPreference extends DialogPreference implements MixPreference {
 	private TrimixSelector mTrimixSelector;
 
 	private Mix mMix;
-	private String mMixString;
 	private static final NumberFormat nf = Formatting.buildNormalizedFormat(".###");
 
 	public TrimixPreference(Context context, AttributeSet attrs, int defStyle) {
@@ -40,27 +45,43 @@ public class TrimixPreference extends DialogPreference implements MixPreference
 		this(context, null);
 	}
 
-	private static String mixToString(Mix mix) {
-		return nf.format(mix.getfO2())+" "+nf.format(mix.getfHe());
-	}
-
+	/**
+	 * Parse a mix in the format older versions stored
+	 * @return The mix, or null if the string couldn't be parsed
+	 */
 	public static Mix stringToMix(String s) {
 		String ss[] = s.split("\\s");
 		try {
-			return new Mix(nf.parse(ss[0]).floatValue(), nf.parse(ss[1]).floatValue());
+			return MixPool.get(nf.parse(ss[0]).floatValue(), nf.parse(ss[1]).floatValue());
 		} catch(ParseException e) { return null; }
 	}
 
-	public void setMix(String mixString) {
-		mMix = stringToMix(mixString);
-		if(mMix == null) {
-			// Correct corrupted mix
-			mixString = "0.21 0";
-			mMix = new Mix(0.21f, 0);
+	/**
+	 * Read a mix saved by a TrimixPreference
+	 * @param prefs The preferences to read from
+	 * @param key The key of the preference
+	 * @return The mix, air if none has been saved, or null if the saved value
+	 * is corrupt
+	 */
+	public static Mix getMix(SharedPreferences prefs, String key) {
+		try {
+			final int packed = prefs.getInt(key, PackedMix.AIR);
+			return PackedMix.isValid(packed)? PackedMix.unpack(packed): null;
+		} catch(ClassCastException e) {
+			// Saved by an older version
+			return stringToMix(prefs.getString(key, "0.21 0"));
 		}
-		mMixString = mixString;
+	}
 
-		persistString(mixString);
+	public void setMix(Mix mix) {
+		if(mix == null) {
+			// Correct corrupted mix
+			mix = MixPool.AIR;
+		}
+		final int packed = PackedMix.pack(mix);
+		mMix = PackedMix.unpack(packed);
+		// This replaces an older version's string as well
+		persistInt(packed);
 	}
 
 	public Mix getMix() {
@@ -85,9 +106,9 @@ public class TrimixPreference extends DialogPreference implements MixPreference
 		super.onDialogClosed(positiveResult);
 
 		if(positiveResult) {
-			String mixString = mixToString(mTrimixSelector.getMix());
-			if(callChangeListener(mixString)) {
-				setMix(mixString);
+			final Mix mix = mTrimixSelector.getMix();
+			if(mix != null && callChangeListener(mix)) {
+				setMix(mix);
 			}
 		}
 		((ViewGroup)mTrimixSelector.getParent()).removeView(mTrimixSelector);
@@ -100,7 +121,7 @@ public class TrimixPreference extends DialogPreference implements MixPreference
 
 	@Override
 	protected void onSetInitialValue(boolean restoreValue, Object defaultValue) {
-		setMix(restoreValue? getPersistedString(mMixString): (String)defaultValue);
+		setMix(restoreValue? getMix(getSharedPreferences(), getKey()): stringToMix((String)defaultValue));
 	}
 
 	public TrimixSelector getSelector() {
@@ -116,7 +137,7 @@ public class TrimixPreference extends DialogPreference implements MixPreference
 		}
 
 		final SavedState myState = new SavedState(superState);
-		myState.mixString = mixToString(mMix);
+		myState.mix = PackedMix.pack(mMix);
 		return myState;
 	}
 
@@ -130,21 +151,21 @@ public class TrimixPreference extends DialogPreference implements MixPreference
 
 		SavedState myState = (SavedState) state;
 		super.onRestoreInstanceState(myState.getSuperState());
-		setMix(myState.mixString);
+		setMix(PackedMix.unpack(myState.mix));
 	}
 
 	private static class SavedState extends BaseSavedState {
-		String mixString;
+		int mix;
 
 		public SavedState(Parcel source) {
 			super(source);
-			mixString = source.readString();
+			mix = source.readInt();
         }
 
 		@Override
 		public void writeToParcel(Parcel dest, int flags) {
 			super.writeToParcel(dest, flags);
-			dest.writeString(mixString);
+			dest.writeInt(mix);
         }
 
 		public SavedState(Parcelable superState) {
@@ -3,6 +3,8 @@ package divestoclimb.gasmixer.widget;
 import divestoclimb.android.util.ViewId;
 import divestoclimb.android.widget.NumberSelector;
 import divestoclimb.gasmixer.R;
+import divestoclimb.gasmixer.blend.FeasibleRegion;
+import divestoclimb.gasmixer.blend.MixPool;
 import divestoclimb.lib.scuba.Mix;
 import android.content.Context;
 import android.content.res.TypedArray;
@@ -10,6 +12,7 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.widget.SeekBar;
+import android.widget.TextView;
 
 /**
  * Custom view for selecting a SCUBA mix
@@ -19,6 +22,10 @@ public class TrimixSelector extends NitroxSelector {
 
 	private SeekBar mHeBar;
 	private NumberSelector mHeField;
+	private TextView mInfeasibleView;
+
+	private FeasibleRegion mFeasibleRegion;
+	private final double mNearest[] = new double[2];
 
 	public TrimixSelector(Context context) {
 		super(context);
@@ -38,7 +45,7 @@ public class TrimixSelector extends NitroxSelector {
 		if(o2val == null || heval == null) {
 			return null;
 		}
-		return new Mix((float)(o2val / 100.0), (float)(heval / 100.0));
+		return MixPool.get(o2val / 100.0, heval / 100.0);
 	}
 
 	@Override
@@ -67,12 +74,36 @@ public class TrimixSelector extends NitroxSelector {
 
 		mHeBar.setOnSeekBarChangeListener(this);
 		mHeField.setValueChangedListener(this);
+
+		mInfeasibleView = (TextView)findViewById(R.id.infeasible);
 	}
 	
 	public NumberSelector getHeField() {
 		return mHeField;
 	}
 
+	/**
+	 * Set the region of mixes that can be blended. When the selected mix is
+	 * outside it, a message is shown with the closest mix that can be.
+	 * @param region The region to check against, or null to stop checking
+	 */
+	public void setFeasibleRegion(FeasibleRegion region) {
+		mFeasibleRegion = region;
+		updateFeasibility();
+	}
+
+	private void updateFeasibility() {
+		final Mix m = getMix();
+		if(mFeasibleRegion == null || m == null ||
+				mFeasibleRegion.nearest(m.getfO2(), m.getfHe(), mNearest)) {
+			mInfeasibleView.setVisibility(GONE);
+			return;
+		}
+		mInfeasibleView.setText(String.format(getContext().getString(R.string.infeasible_mix),
+				MixPool.toString(MixPool.get(mNearest[0], mNearest[1]))));
+		mInfeasibleView.setVisibility(VISIBLE);
+	}
+
 	/**
 	 * SeekBarChangeListener implementation
 	 */
@@ -103,6 +134,9 @@ public class TrimixSelector extends NitroxSelector {
 			handlePercentUpdate(ns);
 		}
 		super.onChange(ns, new_val, from_user);
+		if(mFeasibleRegion != null) {
+			updateFeasibility();
+		}
 	}
 
 	private void handlePercentUpdate(NumberSelector field) {
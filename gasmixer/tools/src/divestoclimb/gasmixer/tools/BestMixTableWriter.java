@@ -0,0 +1,27 @@
+package divestoclimb.gasmixer.tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import divestoclimb.gasmixer.blend.BestMixTable;
+
+/**
+ * Writes the best mix table asset. Run by the build before the assets are
+ * packaged; the only argument is the file to write.
+ */
+public class BestMixTableWriter {
+
+	public static void main(String args[]) throws IOException {
+		if(args.length != 1) {
+			System.err.println("Usage: BestMixTableWriter <output file>");
+			System.exit(1);
+		}
+		final OutputStream out = new FileOutputStream(args[0]);
+		try {
+			BestMixTable.write(out);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package divestoclimb.scuba.equipment.bench;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Times the cylinder lookups the app makes against a large version 2
+ * database, upgrades it to version 3 and times them again. The schema and
+ * the upgrade are read from res/values/database.xml, so they're the ones the
+ * app runs. Prints the median time of each lookup along with SQLite's query
+ * plan for it, then how long the upgrade took.
+ *
+ * Runs on a desktop JVM with any SQLite JDBC driver on the class path.
+ * Arguments are the path to database.xml (default res/values/database.xml),
+ * the number of rows (default 50000) and the random seed (default 1).
+ */
+public class CylinderQueryBenchmark {
+
+	// Times to run the lookups of a single row and of many rows
+	private static final int POINT_RUNS = 2000, SCAN_RUNS = 20;
+
+	/**
+	 * A lookup, as the app made it before and after version 3
+	 */
+	private static abstract class Query {
+		final String name, before, after;
+		final boolean point;
+
+		Query(String name, String before, String after, boolean point) {
+			this.name = name;
+			this.before = before;
+			this.after = after;
+			this.point = point;
+		}
+
+		abstract Object[] args(Random random, int rows);
+	}
+
+	private static final Query QUERIES[] = {
+		new Query("name", "select _id from cylinders where name=?", null, true) {
+			Object[] args(Random random, int rows) {
+				return new Object[] { "Cylinder " + random.nextInt(rows) };
+			}
+		},
+		new Query("serial", "select _id from cylinders where serialNumber=?", null, true) {
+			Object[] args(Random random, int rows) {
+				return new Object[] { "SN" + random.nextInt(rows) };
+			}
+		},
+		new Query("type", "select * from cylinders where cylinderType=?", null, false) {
+			Object[] args(Random random, int rows) {
+				return new Object[] { 1 };
+			}
+		},
+		new Query("hydro", "select * from cylinders where ifNull(hydroIntervalYears,-1)=-1 and lastHydro=?",
+				null, false) {
+			Object[] args(Random random, int rows) {
+				return new Object[] { testDate(random) };
+			}
+		},
+		new Query("hydroOverride", "select * from cylinders where ifNull(hydroIntervalYears,-1)!=-1",
+				"select * from cylinders where hydroIntervalYears>-1", false) {
+			Object[] args(Random random, int rows) {
+				return new Object[0];
+			}
+		},
+		new Query("visual", "select * from cylinders where ifNull(visualIntervalMonths, -1)=-1 and lastVisual=?",
+				null, false) {
+			Object[] args(Random random, int rows) {
+				return new Object[] { testDate(random) };
+			}
+		},
+		new Query("visualOverride", "select * from cylinders where ifNull(visualIntervalMonths, -1)!=-1",
+				"select * from cylinders where visualIntervalMonths>-1", false) {
+			Object[] args(Random random, int rows) {
+				return new Object[0];
+			}
+		}
+	};
+
+	public static void main(String args[]) throws Exception {
+		final File resources = new File(args.length > 0? args[0]: "res/values/database.xml");
+		final int rows = args.length > 1? Integer.parseInt(args[1]): 50000;
+		final long seed = args.length > 2? Long.parseLong(args[2]): 1;
+		final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(resources);
+
+		final Connection db = DriverManager.getConnection("jdbc:sqlite::memory:");
+		try {
+			// A version 2 database upgraded from version 1, whose serialNumber
+			// column was added with no unique constraint or index
+			for(String sql : statements(doc, "db_create")) {
+				execute(db, sql.replace("serialNumber text unique", "serialNumber text"));
+			}
+			fill(db, rows, new Random(seed));
+			run(db, "v2", rows, new Random(seed), false);
+
+			final long start = System.nanoTime();
+			for(String sql : statements(doc, "db_upgrade_2_3")) {
+				execute(db, sql);
+			}
+			System.out.printf("upgrade %.0f ms%n", (System.nanoTime() - start) / 1e6);
+			run(db, "v3", rows, new Random(seed), true);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Read a string array of SQL statements the way Android would
+	 */
+	private static List<String> statements(Document doc, String name) {
+		final NodeList arrays = doc.getElementsByTagName("string-array");
+		for(int i = 0; i < arrays.getLength(); i ++) {
+			final Element array = (Element)arrays.item(i);
+			if(! name.equals(array.getAttribute("name"))) {
+				continue;
+			}
+			final NodeList items = array.getElementsByTagName("item");
+			final List<String> sql = new ArrayList<String>(items.getLength());
+			for(int j = 0; j < items.getLength(); j ++) {
+				String s = items.item(j).getTextContent().trim();
+				if(s.length() > 1 && s.startsWith("\"") && s.endsWith("\"")) {
+					s = s.substring(1, s.length() - 1);
+				}
+				sql.add(s);
+			}
+			return sql;
+		}
+		throw new IllegalArgumentException("No string array named " + name);
+	}
+
+	private static void execute(Connection db, String sql) throws SQLException {
+		final Statement s = db.createStatement();
+		try {
+			s.execute(sql);
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * Add the rows. Four in five are specific cylinders with a serial number
+	 * and test dates, and a few of those override the hydro interval. Two
+	 * more rows have serial numbers the upgrade has to leave alone: a
+	 * duplicate and a blank one.
+	 */
+	private static void fill(Connection db, int rows, Random random) throws SQLException {
+		db.setAutoCommit(false);
+		final PreparedStatement insert = db.prepareStatement("insert into cylinders "
+				+ "(name, internalVolume, servicePressure, cylinderType, serialNumber, lastHydro, "
+				+ "lastVisual, hydroIntervalYears) values (?, 11.1, 206.9, ?, ?, ?, ?, ?)");
+		try {
+			for(int i = 0; i < rows + 2; i ++) {
+				final boolean specific = i % 5 != 0 || i >= rows;
+				final String date = testDate(random);
+				insert.setString(1, i < rows? "Cylinder " + i: "Upgrade " + i);
+				insert.setInt(2, specific? 1: 0);
+				insert.setString(3, ! specific? null: i == rows? "SN1": i > rows? "": "SN" + i);
+				insert.setString(4, specific? date: null);
+				insert.setString(5, specific? date: null);
+				if(specific && random.nextInt(20) == 0) {
+					insert.setInt(6, 3);
+				} else {
+					insert.setNull(6, java.sql.Types.INTEGER);
+				}
+				insert.executeUpdate();
+			}
+			db.commit();
+		} finally {
+			insert.close();
+			db.setAutoCommit(true);
+		}
+	}
+
+	private static void run(Connection db, String label, int rows, Random random, boolean upgraded)
+			throws SQLException {
+		for(Query q : QUERIES) {
+			final String sql = upgraded && q.after != null? q.after: q.before;
+			final int runs = q.point? POINT_RUNS: SCAN_RUNS;
+			final long times[] = new long[runs];
+			final PreparedStatement s = db.prepareStatement(sql);
+			try {
+				for(int i = 0; i < runs; i ++) {
+					bind(s, q.args(random, rows));
+					final long start = System.nanoTime();
+					final ResultSet r = s.executeQuery();
+					while(r.next()) { }
+					r.close();
+					times[i] = System.nanoTime() - start;
+				}
+			} finally {
+				s.close();
+			}
+			Arrays.sort(times);
+			System.out.printf("%-3s %-15s %9.1f us  %s%n", label, q.name, times[runs / 2] / 1e3,
+					plan(db, sql, q.args(random, rows)));
+		}
+	}
+
+	private static String plan(Connection db, String sql, Object args[]) throws SQLException {
+		final PreparedStatement s = db.prepareStatement("explain query plan " + sql);
+		try {
+			bind(s, args);
+			final ResultSet r = s.executeQuery();
+			String detail = "";
+			while(r.next()) {
+				detail = r.getString(r.getMetaData().getColumnCount());
+			}
+			r.close();
+			return detail;
+		} finally {
+			s.close();
+		}
+	}
+
+	private static void bind(PreparedStatement s, Object args[]) throws SQLException {
+		for(int i = 0; i < args.length; i ++) {
+			s.setObject(i + 1, args[i]);
+		}
+	}
+
+	private static String testDate(Random random) {
+		return String.format("%d-%02d", 2000 + random.nextInt(12), 1 + random.nextInt(12));
+	}
+}
@@ -51,7 +51,7 @@ public class Backup extends BroadcastReceiver {
 	public void onReceive(Context context, Intent intent) {
 		try {
 			XmlMapper xmlMapper = new XmlMapper(context);
-			xmlMapper.writeCylinders(xmlMapper.getDefaultWriter());
+			xmlMapper.writeBackup();
 		} catch(Exception e) {
 			Log.w(TAG, "Backup failed: " + e.toString() + ". Will retry tomorrow.");
 			scheduleRetry(context);
@@ -95,9 +95,10 @@ public class CheckCylinders extends BroadcastReceiver {
 			}
 			c.close();
 			// Second query: cylinders with overridden hydro expiration intervals. We have to
-			// load these cylinders into objects to test if they expire or not.
+			// load these cylinders into objects to test if they expire or not. Written as a
+			// range so the interval index can be used.
 			c = r.query(CylinderORMapper.CONTENT_URI, null,
-					"ifNull(" + CylinderORMapper.HYDRO_INTERVAL_YEARS + ",-1)!=-1", null, null);
+					CylinderORMapper.HYDRO_INTERVAL_YEARS + ">-1", null, null);
 			for(Cylinder cyl : new CursorSet<Cylinder>(c, orMapper)) {
 				if(cyl.doesHydroExpireThisMonth()) {
 					expired.add(cyl.getId());
@@ -127,7 +128,7 @@ public class CheckCylinders extends BroadcastReceiver {
 			// Second visual query: cylinders which have overridden visual expiration intervals.
 			// Test each one individually
 			c = r.query(CylinderORMapper.CONTENT_URI, null,
-					"ifNull(" + CylinderORMapper.VISUAL_INTERVAL_MONTHS + ", -1)!=-1", null, null);
+					CylinderORMapper.VISUAL_INTERVAL_MONTHS + ">-1", null, null);
 			for(Cylinder cyl : new CursorSet<Cylinder>(c, orMapper)) {
 				if(! expired.contains(cyl.getId()) && cyl.doesVisualExpireThisMonth()) {
 					expired.add(cyl.getId());
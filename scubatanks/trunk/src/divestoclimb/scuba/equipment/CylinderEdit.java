@@ -209,7 +209,12 @@ public class CylinderEdit extends Activity implements View.OnClickListener,
 				// corrected
 				mCylinder.setSerialNumber(null);
 			}
-			if(! mORMapper.save(mCylinder)) {
+			final long other = mORMapper.findSerialConflict(mCylinder);
+			final Cylinder conflict = other != -1? mORMapper.fetchCylinder(other): null;
+			if(conflict != null) {
+				Toast.makeText(this, String.format(getString(R.string.serial_conflict),
+						conflict.getName(), mCylinder.getSerialNumber()), Toast.LENGTH_LONG).show();
+			} else if(! mORMapper.save(mCylinder)) {
 				Toast.makeText(this, R.string.save_error, Toast.LENGTH_SHORT).show();
 			} else {
 				finish();
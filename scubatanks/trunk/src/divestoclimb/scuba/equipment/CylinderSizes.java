@@ -172,7 +172,7 @@ public class CylinderSizes extends TabActivity implements View.OnClickListener,
 			case R.id.backup:
 				try {
 					xmlMapper = new XmlMapper(this);
-					xmlMapper.writeCylinders(xmlMapper.getDefaultWriter());
+					xmlMapper.writeBackup();
 					Toast.makeText(this, String.format(getString(R.string.backup_successful),
 							new File(XmlMapper.DEFAULT_PATH, XmlMapper.DEFAULT_FILENAME).getCanonicalPath()),
 							Toast.LENGTH_SHORT).show();
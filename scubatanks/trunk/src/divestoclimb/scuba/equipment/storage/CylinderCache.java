@@ -0,0 +1,166 @@
+package divestoclimb.scuba.equipment.storage;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * The process-wide cache behind CylinderORMapper.fetchCylinder(), so a
+ * cylinder that's already been read doesn't have to be queried from the
+ * content provider again. The cache is emptied whenever the provider
+ * announces a change to any cylinder.
+ *
+ * Cylinders are mutable, so the cache keeps its own copies and hands out
+ * new copies. All methods are synchronized so the cache can be shared
+ * between threads.
+ */
+public final class CylinderCache {
+
+	private static final int CAPACITY = 64;
+
+	private static CylinderCache sInstance;
+
+	// Keyed by ID and unit system, since values are converted on reading
+	private final LinkedHashMap<Long, Cylinder> mEntries;
+	private int mHits, mMisses, mEvictions;
+	// Incremented whenever entries are removed, so a cylinder read before
+	// a change isn't put back in after it
+	private int mGeneration;
+
+	private CylinderCache() {
+		mEntries = new LinkedHashMap<Long, Cylinder>(CAPACITY * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Cylinder> eldest) {
+				if(size() > CAPACITY) {
+					mEvictions ++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get the cache, creating it and registering for changes if necessary
+	 * @param ctx The context to use. Only its application context is kept.
+	 */
+	public static synchronized CylinderCache get(Context ctx) {
+		if(sInstance == null) {
+			final CylinderCache cache = new CylinderCache();
+			// Before API level 16 the observer isn't told which URI changed,
+			// so every change empties the whole cache
+			ctx.getApplicationContext().getContentResolver().registerContentObserver(
+					CylinderORMapper.CYLINDERS_URI, true, new ContentObserver(null) {
+						@Override
+						public void onChange(boolean selfChange) {
+							cache.invalidate();
+						}
+					});
+			sInstance = cache;
+		}
+		return sInstance;
+	}
+
+	private static Long key(long id, Units u) {
+		return (id << 1) | u.getCurrentSystem();
+	}
+
+	/**
+	 * Look up a cylinder
+	 * @param id The ID of the cylinder
+	 * @param u The units the cylinder should be in
+	 * @return A copy of the cached cylinder, or null if it isn't cached
+	 */
+	public synchronized Cylinder get(long id, Units u) {
+		final Cylinder c = mEntries.get(key(id, u));
+		if(c == null) {
+			mMisses ++;
+			return null;
+		}
+		mHits ++;
+		return copy(c, u);
+	}
+
+	/**
+	 * @return A token to pass to put(), taken before reading a cylinder
+	 */
+	public synchronized int getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Cache a cylinder that was just read, unless cylinders have changed
+	 * since it was
+	 * @param c The cylinder. A copy is kept.
+	 * @param u The units the cylinder is in
+	 * @param generation The value of getGeneration() before it was read
+	 */
+	public synchronized void put(Cylinder c, Units u, int generation) {
+		if(generation == mGeneration) {
+			mEntries.put(key(c.getId(), u), copy(c, u));
+		}
+	}
+
+	/**
+	 * Remove a cylinder in all unit systems
+	 */
+	public synchronized void evict(long id) {
+		mGeneration ++;
+		mEntries.remove((id << 1) | Units.IMPERIAL);
+		mEntries.remove((id << 1) | Units.METRIC);
+	}
+
+	/**
+	 * Remove all cached cylinders. Hit and miss counters are kept.
+	 */
+	public synchronized void invalidate() {
+		mGeneration ++;
+		mEntries.clear();
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	public synchronized int getHits() {
+		return mHits;
+	}
+
+	public synchronized int getMisses() {
+		return mMisses;
+	}
+
+	public synchronized int getEvictions() {
+		return mEvictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CylinderCache: " + mEntries.size() + " entries, " + mHits + " hits, " +
+				mMisses + " misses, " + mEvictions + " evictions";
+	}
+
+	private static Cylinder copy(Cylinder c, Units u) {
+		final Cylinder copy = new Cylinder(u, c.getInternalVolume(), c.getServicePressure());
+		copy.setId(c.getId());
+		copy.setName(c.getName());
+		copy.setType(c.getType());
+		copy.setSerialNumber(c.getSerialNumber());
+		copy.setLastHydro(copy(c.getLastHydro()));
+		copy.setLastVisual(copy(c.getLastVisual()));
+		copy.setHydroInterval(c.getHydroInterval());
+		copy.setVisualInterval(c.getVisualInterval());
+		return copy;
+	}
+
+	private static Date copy(Date d) {
+		return d == null? null: new Date(d.getTime());
+	}
+}
@@ -3,11 +3,22 @@ package divestoclimb.scuba.equipment.storage;
 import java.lang.reflect.Method;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.MergeCursor;
+import android.database.SQLException;
 import android.net.Uri;
+import android.os.Build;
+import android.os.RemoteException;
 import android.util.Log;
 import divestoclimb.android.database.ORMapper;
 import divestoclimb.lib.scuba.Cylinder;
@@ -16,6 +27,10 @@ import divestoclimb.lib.scuba.Units;
 public class CylinderORMapper extends ORMapper<Cylinder> {
 
 	public static final Uri CONTENT_URI = Uri.parse("content://divestoclimb.scuba.equipment/cylinders/sizes");
+	// The provider also takes cylinders/#, and notifies changes under
+	// whichever URI was used, so observers should watch this and its
+	// descendants
+	public static final Uri CYLINDERS_URI = Uri.parse("content://divestoclimb.scuba.equipment/cylinders");
 
 	// Integer. The unique key for the cylinder size
 	public static final String _ID = "_id";
@@ -39,9 +54,12 @@ public class CylinderORMapper extends ORMapper<Cylinder> {
 	public static final String VISUAL_INTERVAL_MONTHS = "visualIntervalMonths";
 	
 	private static final DateFormat TEST_DATE_FORMAT = new SimpleDateFormat("yyyy-MM");
+	// SQLite allows 999 arguments in a query by default
+	private static final int MAX_QUERY_IDS = 500;
 	
 	protected Context mCtx;
 	protected Units mUnits;
+	private final CylinderRowMapper mRowMapper;
 	
 	public CylinderORMapper(Context ctx) {
 		this(ctx, new Units(Units.METRIC));
@@ -59,6 +77,7 @@ public class CylinderORMapper extends ORMapper<Cylinder> {
 
 		mCtx = ctx;
 		mUnits = units;
+		mRowMapper = new CylinderRowMapper(units);
 	}
 	
 	@Override
@@ -91,14 +110,269 @@ public class CylinderORMapper extends ORMapper<Cylinder> {
 		return doQuery(new String[] { _ID },
 				SERIAL_NUMBER + "=?", new String[] { serialNumber }, null);
 	}
+
+	/**
+	 * Find another specific cylinder with the same serial number. Serial
+	 * numbers only have to be unique among specific cylinders, and databases
+	 * upgraded from version 1 don't enforce it, so saving checks this.
+	 * @param c The cylinder to check
+	 * @return The ID of the other cylinder, or -1 if there is none or c isn't
+	 * a specific cylinder with a serial number
+	 */
+	public long findSerialConflict(Cylinder c) {
+		if(c.getType() != Cylinder.TYPE_SPECIFIC || c.getSerialNumber() == null) {
+			return -1;
+		}
+		final Cursor cursor = doQuery(new String[] { _ID },
+				SERIAL_NUMBER + "=? AND " + TYPE + "=? AND " + _ID + "!=?",
+				new String[] { c.getSerialNumber(), String.valueOf(Cylinder.TYPE_SPECIFIC),
+					String.valueOf(isPhantom(c)? -1: c.getId()) }, null);
+		if(cursor == null) {
+			return -1;
+		}
+		try {
+			return cursor.moveToFirst()? cursor.getLong(0): -1;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Check that saving all these cylinders leaves no two specific cylinders
+	 * with the same serial number, like findSerialConflict() but with one
+	 * query for all of them
+	 * @return true if there's no conflict. Conflicts are logged.
+	 */
+	private boolean checkSerials(Collection<Cylinder> cylinders) {
+		final HashMap<String, Long> existing = new HashMap<String, Long>();
+		final Cursor c = doQuery(new String[] { _ID, SERIAL_NUMBER },
+				TYPE + "=? AND " + SERIAL_NUMBER + " IS NOT NULL",
+				new String[] { String.valueOf(Cylinder.TYPE_SPECIFIC) }, null);
+		if(c != null) {
+			try {
+				while(c.moveToNext()) {
+					existing.put(c.getString(1), c.getLong(0));
+				}
+			} finally {
+				c.close();
+			}
+		}
+		// The cylinders being saved replace what their rows have now
+		final HashSet<Long> saving = new HashSet<Long>();
+		for(Cylinder cylinder : cylinders) {
+			if(! isPhantom(cylinder)) {
+				saving.add(cylinder.getId());
+			}
+		}
+		final HashSet<String> serials = new HashSet<String>();
+		for(Cylinder cylinder : cylinders) {
+			final String serial = cylinder.getSerialNumber();
+			if(cylinder.getType() != Cylinder.TYPE_SPECIFIC || serial == null) {
+				continue;
+			}
+			final Long other = existing.get(serial);
+			if(other != null && ! saving.contains(other)) {
+				logSerialConflict(cylinder, other);
+				return false;
+			}
+			if(! serials.add(serial)) {
+				logSerialConflict(cylinder, -1);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Log that a cylinder can't be saved because of its serial number
+	 * @param other The ID of the cylinder that has it, or -1 if it's another
+	 * one being saved with it
+	 */
+	protected static void logSerialConflict(Cylinder c, long other) {
+		Log.w("CylinderORMapper", "Not saving " + c.getName() + ": "
+				+ (other != -1? "cylinder " + other: "another cylinder being saved")
+				+ " already has serial number " + c.getSerialNumber());
+	}
+
+	/**
+	 * Fetch just the keys cylinders can be matched by
+	 * @return A cursor over the ID, name and serial number of every cylinder
+	 */
+	public Cursor fetchCylinderKeys() {
+		return doQuery(new String[] { _ID, NAME, SERIAL_NUMBER }, null, null, null);
+	}
 	
+	/**
+	 * Fetch several cylinders with as few queries as possible. SQLite limits
+	 * how many arguments a query can have, so the IDs are looked up
+	 * MAX_QUERY_IDS at a time and the results merged.
+	 * @param ids The IDs of the cylinders to fetch
+	 * @return A cursor over the cylinders found, in no particular order, or
+	 * null if a query failed
+	 */
+	public Cursor fetchCylinders(long ids[]) {
+		final int queries = Math.max(1, (ids.length + MAX_QUERY_IDS - 1) / MAX_QUERY_IDS);
+		final Cursor cursors[] = new Cursor[queries];
+		for(int q = 0; q < queries; q ++) {
+			final int from = q * MAX_QUERY_IDS, to = Math.min(ids.length, from + MAX_QUERY_IDS);
+			final StringBuilder selection = new StringBuilder(_ID).append(" IN (");
+			final String args[] = new String[to - from];
+			for(int i = from; i < to; i ++) {
+				selection.append(i == from? "?": ",?");
+				args[i - from] = String.valueOf(ids[i]);
+			}
+			cursors[q] = doQuery(null, selection.append(')').toString(), args, null);
+			if(cursors[q] == null) {
+				for(int i = 0; i < q; i ++) {
+					cursors[i].close();
+				}
+				return null;
+			}
+		}
+		return queries == 1? cursors[0]: new MergeCursor(cursors);
+	}
+
+	/**
+	 * Fetch a cylinder, from the process-wide CylinderCache if it's there
+	 * @param id The ID of the cylinder
+	 * @return The cylinder, or null if there is none with that ID. Changing
+	 * it doesn't change the cached copy.
+	 */
 	public Cylinder fetchCylinder(long id) {
+		final CylinderCache cache = getCache();
+		final Cylinder cached = cache.get(id, mUnits);
+		if(cached != null) {
+			return cached;
+		}
+		final int generation = cache.getGeneration();
 		final Cursor c = mCtx.getContentResolver().query(
 				Uri.withAppendedPath(CONTENT_URI, String.valueOf(id)),
 				null, null, null, null);
-		return fetchUniqueResult(c);
+		final Cylinder cylinder = fetchUniqueResult(c);
+		if(cylinder != null) {
+			cache.put(cylinder, mUnits, generation);
+		}
+		return cylinder;
+	}
+
+	/**
+	 * @return The cache fetchCylinder() reads through, for its statistics
+	 */
+	public CylinderCache getCache() {
+		return CylinderCache.get(mCtx);
 	}
 	
+	/**
+	 * Save several cylinders in one transaction, with a single change
+	 * notification. New cylinders are given their IDs. Before API level 5
+	 * there's no way to apply a batch, so they're saved one at a time.
+	 * @param cylinders The cylinders to save
+	 * @return true if all of them were saved. If not, none of them were
+	 * unless they had to be saved one at a time. A cylinder that no longer
+	 * exists can't be saved, nor can a specific cylinder whose serial number
+	 * another one has.
+	 */
+	public boolean saveAll(Collection<Cylinder> cylinders) {
+		if(Integer.parseInt(Build.VERSION.SDK) < 5) {
+			boolean saved = true;
+			for(Cylinder c : cylinders) {
+				saved &= save(c);
+			}
+			return saved;
+		}
+		return Batch.save(this, cylinders);
+	}
+
+	/**
+	 * Insert several new cylinders in one transaction, with a single change
+	 * notification. This is faster than saveAll(), but the cylinders aren't
+	 * given their IDs.
+	 * @param cylinders The cylinders to insert
+	 * @return The number inserted. If any can't be, none are and this is 0.
+	 */
+	public int insertAll(Collection<Cylinder> cylinders) {
+		final ContentValues values[] = new ContentValues[cylinders.size()];
+		int i = 0;
+		for(Cylinder c : cylinders) {
+			values[i ++] = mRowMapper.toValues(c);
+		}
+		try {
+			return mCtx.getContentResolver().bulkInsert(CONTENT_URI, values);
+		} catch(SQLException e) {
+			Log.w("CylinderORMapper", "Could not insert cylinders: " + e.toString());
+			return 0;
+		}
+	}
+
+	/**
+	 * @return The mapper rows are read and written with
+	 */
+	protected CylinderRowMapper getRowMapper() {
+		return mRowMapper;
+	}
+
+	// Kept out of CylinderORMapper so its classes, which need API level 5,
+	// are only loaded when they're there
+	private static class Batch {
+		static boolean save(CylinderORMapper mapper, Collection<Cylinder> cylinders) {
+			final ArrayList<ContentProviderOperation> ops =
+				new ArrayList<ContentProviderOperation>(cylinders.size());
+			if(! mapper.checkSerials(cylinders)) {
+				return false;
+			}
+			for(Cylinder c : cylinders) {
+				final ContentValues values = mapper.mRowMapper.toValues(c);
+				if(mapper.isPhantom(c)) {
+					ops.add(ContentProviderOperation.newInsert(CONTENT_URI)
+							.withValues(values).build());
+				} else {
+					// An update that matches no row throws, which rolls back
+					// the whole batch
+					ops.add(ContentProviderOperation.newUpdate(
+							Uri.withAppendedPath(CONTENT_URI, String.valueOf(c.getId())))
+							.withValues(values).withExpectedCount(1).build());
+				}
+			}
+			final ContentProviderResult results[];
+			try {
+				results = mapper.mCtx.getContentResolver().applyBatch(CONTENT_URI.getAuthority(), ops);
+			} catch(RemoteException e) {
+				return false;
+			} catch(OperationApplicationException e) {
+				return false;
+			}
+			int i = 0;
+			for(Cylinder c : cylinders) {
+				final ContentProviderResult r = results[i ++];
+				if(r.uri != null) {
+					c.setId(Long.parseLong(r.uri.getLastPathSegment()));
+				}
+				// Evicting now means a fetch made while the batch was running
+				// can't cache what it read
+				mapper.getCache().evict(c.getId());
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Map the row the cursor is on with a CylinderRowMapper, which does
+	 * without the reflection the generic ORMapper uses
+	 */
+	@Override
+	public Cylinder fetch(Cursor c) {
+		return mRowMapper.map(c);
+	}
+
+	/**
+	 * Map the row the cursor is on with the generic reflective ORMapper. It
+	 * gives the same result as fetch() but is much slower; it's only kept to
+	 * compare the two.
+	 */
+	public Cylinder fetchReflective(Cursor c) {
+		return super.fetch(c);
+	}
+
 	@Override
 	protected void columnToField(Cursor c, Cylinder instance, String fieldName, Method setter) {
 		if(fieldName.equals("ServicePressure")) {
@@ -128,6 +402,11 @@ public class CylinderORMapper extends ORMapper<Cylinder> {
 	
 	@Override
 	protected boolean doCreate(Cylinder c, ContentValues values) {
+		final long other = findSerialConflict(c);
+		if(other != -1) {
+			logSerialConflict(c, other);
+			return false;
+		}
 		values.remove(_ID);
 		Log.i("CylinderORMapper", values.toString());
 		final Uri newItem = mCtx.getContentResolver().insert(CONTENT_URI, values);
@@ -136,6 +415,7 @@ public class CylinderORMapper extends ORMapper<Cylinder> {
 		}
 		try {
 			c.setId(Long.parseLong(newItem.getLastPathSegment()));
+			getCache().evict(c.getId());
 			return true;
 		} catch(NumberFormatException e) {
 			return false;
@@ -144,8 +424,18 @@ public class CylinderORMapper extends ORMapper<Cylinder> {
 	
 	@Override
 	protected boolean doUpdate(Cylinder c, ContentValues values) {
+		final long other = findSerialConflict(c);
+		if(other != -1) {
+			logSerialConflict(c, other);
+			return false;
+		}
 		final Uri uri = Uri.withAppendedPath(CONTENT_URI, String.valueOf(c.getId()));
-		return mCtx.getContentResolver().update(uri, values, null, null) > 0;
+		final boolean updated = mCtx.getContentResolver().update(uri, values, null, null) > 0;
+		// The provider's change notification comes later, so don't let a
+		// fetch in the meantime see the old values. Evicting before the
+		// update would let a fetch cache them again before it's written.
+		getCache().evict(c.getId());
+		return updated;
 	}
 	
 	@Override
@@ -155,6 +445,8 @@ public class CylinderORMapper extends ORMapper<Cylinder> {
 	
 	public boolean deleteCylinder(long cylinder_id) {
 		final Uri uri = Uri.withAppendedPath(CONTENT_URI, String.valueOf(cylinder_id));
-		return mCtx.getContentResolver().delete(uri, null, null) > 0;
+		final boolean deleted = mCtx.getContentResolver().delete(uri, null, null) > 0;
+		getCache().evict(cylinder_id);
+		return deleted;
 	}
 }
\ No newline at end of file
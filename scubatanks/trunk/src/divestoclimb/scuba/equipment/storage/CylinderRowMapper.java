@@ -0,0 +1,180 @@
+package divestoclimb.scuba.equipment.storage;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.Units;
+
+/**
+ * Maps cursor rows to Cylinders the same way the reflective ORMapper does
+ * for CylinderORMapper, but written out by hand: the column indices are
+ * looked up once per cursor, and the setters are called directly. Columns
+ * that aren't in the cursor's projection are left at their defaults.
+ * Cylinders can be mapped back to column values for writing in bulk.
+ *
+ * A mapper may be shared between threads.
+ */
+public final class CylinderRowMapper {
+
+	private final Units mUnits;
+	// Must be synchronized on
+	private final DateFormat mDateFormat = new SimpleDateFormat("yyyy-MM");
+
+	// The indices for the last cursor mapped. Replaced as a whole, so a
+	// thread never sees the indices of one cursor with another.
+	private volatile Columns mColumns;
+
+	/**
+	 * The index of each column in one cursor, or -1 if it's missing
+	 */
+	private static final class Columns {
+		final Cursor cursor;
+		final int id, name, internalVolume, servicePressure, type, serialNumber,
+			lastHydro, lastVisual, hydroInterval, visualInterval;
+
+		Columns(Cursor c) {
+			cursor = c;
+			id = c.getColumnIndex(CylinderORMapper._ID);
+			name = c.getColumnIndex(CylinderORMapper.NAME);
+			internalVolume = c.getColumnIndex(CylinderORMapper.INTERNAL_VOLUME);
+			servicePressure = c.getColumnIndex(CylinderORMapper.SERVICE_PRESSURE);
+			type = c.getColumnIndex(CylinderORMapper.TYPE);
+			serialNumber = c.getColumnIndex(CylinderORMapper.SERIAL_NUMBER);
+			lastHydro = c.getColumnIndex(CylinderORMapper.LAST_HYDRO);
+			lastVisual = c.getColumnIndex(CylinderORMapper.LAST_VISUAL);
+			hydroInterval = c.getColumnIndex(CylinderORMapper.HYDRO_INTERVAL_YEARS);
+			visualInterval = c.getColumnIndex(CylinderORMapper.VISUAL_INTERVAL_MONTHS);
+		}
+	}
+
+	/**
+	 * @param units The units to give volumes and pressures in. The database
+	 * stores them in metric.
+	 */
+	public CylinderRowMapper(Units units) {
+		mUnits = units;
+	}
+
+	private Columns columns(Cursor c) {
+		Columns cols = mColumns;
+		if(cols == null || cols.cursor != c) {
+			cols = new Columns(c);
+			mColumns = cols;
+		}
+		return cols;
+	}
+
+	/**
+	 * Map the row the cursor is on
+	 * @param c The cursor
+	 * @return A new Cylinder with the values in the row
+	 */
+	public Cylinder map(Cursor c) {
+		final Columns cols = columns(c);
+		final Units u = mUnits;
+		final Cylinder cyl = new Cylinder(u, 0, 0);
+		if(cols.id != -1) {
+			cyl.setId(c.getLong(cols.id));
+		}
+		if(cols.name != -1) {
+			cyl.setName(c.getString(cols.name));
+		}
+		if(cols.internalVolume != -1) {
+			cyl.setInternalVolume(u.convertCapacity(c.getFloat(cols.internalVolume), Units.METRIC));
+		}
+		if(cols.servicePressure != -1) {
+			cyl.setServicePressure(Math.round(u.convertPressure(c.getFloat(cols.servicePressure), Units.METRIC)));
+		}
+		if(cols.type != -1) {
+			cyl.setType(c.getInt(cols.type));
+		}
+		if(cols.serialNumber != -1) {
+			cyl.setSerialNumber(c.getString(cols.serialNumber));
+		}
+		if(cols.lastHydro != -1) {
+			cyl.setLastHydro(getDate(c, cols.lastHydro));
+		}
+		if(cols.lastVisual != -1) {
+			cyl.setLastVisual(getDate(c, cols.lastVisual));
+		}
+		if(cols.hydroInterval != -1) {
+			cyl.setHydroInterval(getInteger(c, cols.hydroInterval));
+		}
+		if(cols.visualInterval != -1) {
+			cyl.setVisualInterval(getInteger(c, cols.visualInterval));
+		}
+		return cyl;
+	}
+
+	/**
+	 * Map every row of a cursor, from the first
+	 * @param c The cursor. It's left after the last row and not closed.
+	 * @return The cylinders, in cursor order
+	 */
+	public List<Cylinder> mapAll(Cursor c) {
+		final List<Cylinder> cylinders = new ArrayList<Cylinder>(c.getCount());
+		if(c.moveToFirst()) {
+			do {
+				cylinders.add(map(c));
+			} while(c.moveToNext());
+		}
+		return cylinders;
+	}
+
+	/**
+	 * Get the column values to write for a cylinder, as the reflective
+	 * ORMapper would. The ID isn't included.
+	 * @param c The cylinder
+	 * @return The values
+	 */
+	public ContentValues toValues(Cylinder c) {
+		final ContentValues values = new ContentValues();
+		final int system = c.getUnits().getCurrentSystem();
+		values.put(CylinderORMapper.NAME, c.getName());
+		values.put(CylinderORMapper.INTERNAL_VOLUME,
+				Units.convertCapacity(c.getInternalVolume(), system, Units.METRIC));
+		values.put(CylinderORMapper.SERVICE_PRESSURE,
+				Units.convertPressure(c.getServicePressure(), system, Units.METRIC));
+		values.put(CylinderORMapper.TYPE, c.getType());
+		values.put(CylinderORMapper.SERIAL_NUMBER, c.getSerialNumber());
+		values.put(CylinderORMapper.LAST_HYDRO, formatDate(c.getLastHydro()));
+		values.put(CylinderORMapper.LAST_VISUAL, formatDate(c.getLastVisual()));
+		values.put(CylinderORMapper.HYDRO_INTERVAL_YEARS, c.getHydroInterval());
+		values.put(CylinderORMapper.VISUAL_INTERVAL_MONTHS, c.getVisualInterval());
+		return values;
+	}
+
+	private String formatDate(Date d) {
+		if(d == null) {
+			return null;
+		}
+		synchronized(mDateFormat) {
+			return mDateFormat.format(d);
+		}
+	}
+
+	private Date getDate(Cursor c, int column) {
+		final String s = c.getString(column);
+		if(s == null) {
+			return null;
+		}
+		try {
+			synchronized(mDateFormat) {
+				return mDateFormat.parse(s);
+			}
+		} catch(ParseException e) {
+			return null;
+		}
+	}
+
+	private static Integer getInteger(Cursor c, int column) {
+		return c.isNull(column)? null: Integer.valueOf(c.getInt(column));
+	}
+}
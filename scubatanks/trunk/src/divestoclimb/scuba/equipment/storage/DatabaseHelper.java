@@ -1,30 +1,62 @@
 package divestoclimb.scuba.equipment.storage;
 
-import java.io.IOException;
+import java.io.File;
 
 import divestoclimb.android.database.AbsDatabaseHelper;
+import divestoclimb.lib.scuba.Cylinder;
 import divestoclimb.scuba.equipment.R;
 import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
-import android.widget.Toast;
 
 public class DatabaseHelper extends AbsDatabaseHelper {
 	private static final String TAG = "ScubaTanks database";
 
 	private static final String DATABASE_NAME = "equipment";
-	public static final int DATABASE_VERSION = 2;
+	public static final int DATABASE_VERSION = 3;
 	private Context mContext;
 
-	public DatabaseHelper(Context ctx) {
+	private static DatabaseHelper sInstance;
+
+	private DatabaseHelper(Context ctx) {
 		super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
 		mContext = ctx;
 	}
 
+	/**
+	 * Get the process-wide helper. The content provider and RestoreService
+	 * share it, so they share one connection to the database.
+	 */
+	public static synchronized DatabaseHelper get(Context ctx) {
+		if(sInstance == null) {
+			sInstance = new DatabaseHelper(ctx.getApplicationContext());
+		}
+		return sInstance;
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		execStatements(db, R.array.db_create);
-		populateData(db);
+		execStatements(db, R.array.db_load);
+		// Restoring a backup can take a while, and this is called from within
+		// whichever query first opened the database, so it's done afterward by
+		// RestoreService. The default data is there until it finishes.
+		if(new File(XmlMapper.DEFAULT_PATH, XmlMapper.DEFAULT_FILENAME).exists()) {
+			final Cursor c = db.rawQuery("select max(" + CylinderORMapper._ID + ") from "
+					+ EquipmentContentProvider.TABLE_CYLINDERSIZES, null);
+			long lastDefault = 0;
+			try {
+				if(c.moveToFirst()) {
+					lastDefault = c.getLong(0);
+				}
+			} finally {
+				c.close();
+			}
+			mContext.startService(new Intent(mContext, RestoreService.class)
+					.putExtra(RestoreService.EXTRA_LAST_DEFAULT_ID, lastDefault));
+		}
 	}
 
 	@Override
@@ -43,20 +75,58 @@ public class DatabaseHelper extends AbsDatabaseHelper {
 			execStatements(db, R.array.db_upgrade_1_2);
 			v = 2;
 		}
+		if(v < 3) {
+			// Databases created at version 2 already have the index that
+			// comes with serialNumber's unique constraint
+			if(! isSerialIndexed(db)) {
+				execStatements(db, R.array.db_upgrade_2_3);
+				logDuplicateSerials(db);
+			}
+			v = 3;
+		}
+	}
+
+	/**
+	 * @return true if there's an index on serialNumber alone
+	 */
+	private static boolean isSerialIndexed(SQLiteDatabase db) {
+		final Cursor indexes = db.rawQuery(
+				"pragma index_list(" + EquipmentContentProvider.TABLE_CYLINDERSIZES + ")", null);
+		try {
+			final int name = indexes.getColumnIndexOrThrow("name");
+			while(indexes.moveToNext()) {
+				final Cursor columns = db.rawQuery("pragma index_info(\"" + indexes.getString(name) + "\")", null);
+				try {
+					if(columns.getCount() == 1 && columns.moveToFirst() && CylinderORMapper.SERIAL_NUMBER.equals(
+							columns.getString(columns.getColumnIndexOrThrow("name")))) {
+						return true;
+					}
+				} finally {
+					columns.close();
+				}
+			}
+			return false;
+		} finally {
+			indexes.close();
+		}
 	}
 
-	private void populateData(SQLiteDatabase db) {
-		// Try to restore from a backup. If this fails, populate with default data instead.
+	/**
+	 * Log the serial numbers more than one specific cylinder has. Nothing in
+	 * version 2 stopped them, and they're left for the user to correct; until
+	 * they do, saving those cylinders fails with a message saying why.
+	 */
+	private static void logDuplicateSerials(SQLiteDatabase db) {
+		final Cursor c = db.rawQuery("select " + CylinderORMapper.SERIAL_NUMBER + ", count(*) from "
+				+ EquipmentContentProvider.TABLE_CYLINDERSIZES + " where " + CylinderORMapper.TYPE + "=? and "
+				+ CylinderORMapper.SERIAL_NUMBER + " is not null group by " + CylinderORMapper.SERIAL_NUMBER
+				+ " having count(*) > 1", new String[] { String.valueOf(Cylinder.TYPE_SPECIFIC) });
 		try {
-			// We can't use the typical CylinderORMapper because that goes through the
-			// content provider. Doing so would create a recursive call to getReadableDatabase,
-			// so we have to use a special ORMapper that directly accesses the database for
-			// reads and updates.
-			XmlMapper xmlMapper = new XmlMapper(new DirectCylinderORMapper(mContext, db));
-			xmlMapper.readCylinders(xmlMapper.getDefaultReader());
-			Toast.makeText(mContext, R.string.backup_restored, Toast.LENGTH_SHORT).show();
-		} catch(IOException e) {
-			execStatements(db, R.array.db_load);
+			while(c.moveToNext()) {
+				Log.w(TAG, c.getInt(1) + " cylinders have serial number " + c.getString(0));
+			}
+		} finally {
+			c.close();
 		}
 	}
 }
\ No newline at end of file
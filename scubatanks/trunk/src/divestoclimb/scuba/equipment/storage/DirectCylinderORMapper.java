@@ -1,5 +1,8 @@
 package divestoclimb.scuba.equipment.storage;
 
+import java.util.ArrayList;
+import java.util.Collection;
+
 import divestoclimb.lib.scuba.Cylinder;
 import divestoclimb.lib.scuba.Units;
 import android.content.ContentValues;
@@ -36,17 +39,88 @@ class DirectCylinderORMapper extends CylinderORMapper {
 	
 	@Override
 	protected boolean doCreate(Cylinder c, ContentValues values) {
+		final long other = findSerialConflict(c);
+		if(other != -1) {
+			logSerialConflict(c, other);
+			return false;
+		}
 		final long new_id = mDb.insert(EquipmentContentProvider.TABLE_CYLINDERSIZES, null, values);
 		if(new_id != -1) {
 			c.setId(new_id);
+			// Writing to the database directly doesn't notify observers
+			getCache().evict(new_id);
 		}
 		return new_id != -1;
 	}
 	
+	/**
+	 * Save several cylinders in one database transaction. New cylinders
+	 * are given their IDs.
+	 * @return true if all of them were saved. If not, none of them were,
+	 * and new cylinders keep their old IDs.
+	 */
+	@Override
+	public boolean saveAll(Collection<Cylinder> cylinders) {
+		final CylinderRowMapper rowMapper = getRowMapper();
+		// The IDs new cylinders had, to put back if the transaction is rolled back
+		final ArrayList<Cylinder> created = new ArrayList<Cylinder>();
+		final ArrayList<Long> oldIds = new ArrayList<Long>();
+		boolean saved = false;
+		mDb.beginTransaction();
+		try {
+			for(Cylinder c : cylinders) {
+				final ContentValues values = rowMapper.toValues(c);
+				if(isPhantom(c)) {
+					created.add(c);
+					oldIds.add(c.getId());
+					if(! doCreate(c, values)) {
+						return false;
+					}
+				} else if(! doUpdate(c, values)) {
+					return false;
+				}
+			}
+			mDb.setTransactionSuccessful();
+			saved = true;
+			return true;
+		} finally {
+			mDb.endTransaction();
+			if(! saved) {
+				for(int i = 0; i < created.size(); i ++) {
+					created.get(i).setId(oldIds.get(i));
+				}
+			}
+		}
+	}
+
+	@Override
+	public int insertAll(Collection<Cylinder> cylinders) {
+		final CylinderRowMapper rowMapper = getRowMapper();
+		mDb.beginTransaction();
+		try {
+			for(Cylinder c : cylinders) {
+				if(mDb.insert(EquipmentContentProvider.TABLE_CYLINDERSIZES, null, rowMapper.toValues(c)) == -1) {
+					// Like the provider, insert all or none
+					return 0;
+				}
+			}
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		return cylinders.size();
+	}
+
 	@Override
 	protected boolean doUpdate(Cylinder c, ContentValues values) {
+		final long other = findSerialConflict(c);
+		if(other != -1) {
+			logSerialConflict(c, other);
+			return false;
+		}
 		final int count = mDb.update(EquipmentContentProvider.TABLE_CYLINDERSIZES, values,
 				CylinderORMapper._ID + "=?", new String[] { String.valueOf(c.getId()) });
+		getCache().evict(c.getId());
 		return count > 0;
 	}
 }
\ No newline at end of file
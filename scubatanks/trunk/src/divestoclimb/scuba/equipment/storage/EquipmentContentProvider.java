@@ -1,8 +1,13 @@
 package divestoclimb.scuba.equipment.storage;
 
+import java.util.ArrayList;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -14,6 +19,10 @@ public class EquipmentContentProvider extends ContentProvider {
 	static final String TABLE_CYLINDERSIZES = "cylinders";
 	
 	private DatabaseHelper mOpenHelper;
+
+	// Set while the calling thread is applying a batch, so the changes it
+	// makes are announced once at the end instead of one at a time
+	private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<Boolean>();
 	
 	// URI matching
 	private static final int CYLINDERS = 1;
@@ -34,7 +43,7 @@ public class EquipmentContentProvider extends ContentProvider {
 	@Override
 	public boolean onCreate() {
 		Context c = getContext();
-		mOpenHelper = new DatabaseHelper(c);
+		mOpenHelper = DatabaseHelper.get(c);
 
 		return true;
 	}
@@ -60,10 +69,68 @@ public class EquipmentContentProvider extends ContentProvider {
 		}
 		final Uri newUri = Uri.withAppendedPath(CylinderORMapper.CONTENT_URI,
 				String.valueOf(new_id));
-		getContext().getContentResolver().notifyChange(newUri, null);
+		notifyChange(newUri);
 		return newUri;
 	}
 
+	/**
+	 * Insert all the rows in one transaction, announcing the change once.
+	 * If any row can't be inserted, none of them are and the SQLException
+	 * is thrown.
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		if(URI_MATCHER.match(uri) != CYLINDERS) {
+			throw new IllegalArgumentException("Unknown URI");
+		}
+		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for(ContentValues v : values) {
+				db.insertOrThrow(TABLE_CYLINDERSIZES, null, v);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		if(values.length > 0) {
+			getContext().getContentResolver().notifyChange(CylinderORMapper.CONTENT_URI, null);
+		}
+		return values.length;
+	}
+
+	/**
+	 * Apply all the operations in one transaction, announcing the change
+	 * once. If any operation fails, none of them are applied. An update
+	 * matching no rows doesn't fail on its own; give it an expected count
+	 * to make it.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+		final ContentProviderResult results[];
+		db.beginTransaction();
+		mInBatch.set(Boolean.TRUE);
+		try {
+			results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+		} finally {
+			mInBatch.set(null);
+			db.endTransaction();
+		}
+		if(results.length > 0) {
+			getContext().getContentResolver().notifyChange(CylinderORMapper.CONTENT_URI, null);
+		}
+		return results;
+	}
+
+	private void notifyChange(Uri uri) {
+		if(mInBatch.get() == null) {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+	}
+
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection,
 			String[] selectionArgs, String sortOrder) {
@@ -96,7 +163,7 @@ public class EquipmentContentProvider extends ContentProvider {
 		}
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 		final int count = db.update(TABLE_CYLINDERSIZES, values, mySelection, myArgs);
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
 		return count;
 	}
 
@@ -111,7 +178,7 @@ public class EquipmentContentProvider extends ContentProvider {
 		}
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 		final int rows = db.delete(TABLE_CYLINDERSIZES, mySelection, myArgs);
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
 		return rows;
 	}
 
@@ -0,0 +1,185 @@
+package divestoclimb.scuba.equipment.storage;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.scuba.equipment.R;
+import android.app.IntentService;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Restores the backup into a newly created database, showing its progress
+ * in a notification. The backup takes the place of the default data, but
+ * cylinders added since the database was created are kept: a backed up
+ * cylinder that matches one of them is skipped. Default cylinders the backup
+ * matches keep their IDs. Observers of the cylinders are told once, at the
+ * end.
+ */
+public class RestoreService extends IntentService implements XmlMapper.ProgressListener {
+
+	private static final String TAG = "ScubaTanks restore";
+
+	/**
+	 * Long. The highest ID of the default data. Any row with a higher ID was
+	 * added after the database was created.
+	 */
+	public static final String EXTRA_LAST_DEFAULT_ID = "lastDefaultId";
+
+	// For the progress notification. CheckCylinders uses 1.
+	private static final int NOTIFICATION_ID = 2;
+	// The number of cylinders to read between progress updates
+	private static final int PROGRESS_INTERVAL = 25;
+
+	private NotificationManager mNotificationMgr;
+	private PendingIntent mIntent;
+	private long mStarted;
+
+	public RestoreService() {
+		super("ScubaTanks restore");
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		mNotificationMgr = (NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE);
+		mIntent = PendingIntent.getActivity(this, 0,
+				getPackageManager().getLaunchIntentForPackage(getPackageName()), 0);
+		mStarted = System.currentTimeMillis();
+		final long lastDefault = intent.getLongExtra(EXTRA_LAST_DEFAULT_ID, 0);
+
+		// The provider's helper, so this doesn't open a second connection
+		final SQLiteDatabase db = DatabaseHelper.get(this).getWritableDatabase();
+		// We can't use the typical CylinderORMapper because that goes through the
+		// content provider, and the provider's observers are only told at the end.
+		final DirectCylinderORMapper mapper = new DirectCylinderORMapper(this, db);
+		final XmlMapper xmlMapper = new XmlMapper(mapper);
+		boolean restored = false;
+		showProgress(0);
+		// Read the whole backup before touching the table, so a bad one
+		// leaves the default data as it was
+		List<Cylinder> cylinders = null;
+		try {
+			final Reader in = xmlMapper.getDefaultReader();
+			try {
+				cylinders = xmlMapper.parseCylinders(in, this);
+			} catch(RuntimeException e) {
+				// A malformed value
+				Log.w(TAG, "Could not restore backup: " + e.toString());
+			} finally {
+				in.close();
+			}
+		} catch(IOException e) {
+			Log.w(TAG, "Could not restore backup: " + e.toString());
+		}
+		if(cylinders != null) {
+			// Readers see the table from before the restore or after it, never
+			// in between. saveAll's own transaction nests in this one.
+			db.beginTransaction();
+			try {
+				if(mapper.saveAll(merge(db, cylinders, lastDefault))) {
+					db.setTransactionSuccessful();
+					restored = true;
+				} else {
+					Log.w(TAG, "Could not restore backup: cylinders could not be saved");
+				}
+			} finally {
+				db.endTransaction();
+			}
+		}
+
+		if(restored) {
+			final Notification n = new Notification(R.drawable.status_icon,
+					getString(R.string.backup_restored), mStarted);
+			n.flags |= Notification.FLAG_AUTO_CANCEL;
+			n.setLatestEventInfo(this, getString(R.string.app_name),
+					getString(R.string.backup_restored), mIntent);
+			mNotificationMgr.notify(NOTIFICATION_ID, n);
+		} else {
+			mNotificationMgr.cancel(NOTIFICATION_ID);
+		}
+		getContentResolver().notifyChange(CylinderORMapper.CONTENT_URI, null);
+	}
+
+	/**
+	 * Match the backed up cylinders to the rows in the database, by serial
+	 * number and then by name, and delete the default rows the backup doesn't
+	 * have. Must be called in the transaction the cylinders are saved in.
+	 * @param cylinders The backed up cylinders. Those that match a default row
+	 * are given its ID.
+	 * @param lastDefault The highest ID of the default data
+	 * @return The cylinders to save: all but those matching a row added since
+	 * the database was created, which the user's copy wins over
+	 */
+	private static List<Cylinder> merge(SQLiteDatabase db, List<Cylinder> cylinders, long lastDefault) {
+		final HashMap<String, Long> byName = new HashMap<String, Long>(),
+			bySerial = new HashMap<String, Long>();
+		final Cursor c = db.query(EquipmentContentProvider.TABLE_CYLINDERSIZES,
+				new String[] { CylinderORMapper._ID, CylinderORMapper.NAME, CylinderORMapper.SERIAL_NUMBER },
+				null, null, null, null, null);
+		try {
+			while(c.moveToNext()) {
+				final Long id = Long.valueOf(c.getLong(0));
+				byName.put(c.getString(1), id);
+				if(! c.isNull(2)) {
+					bySerial.put(c.getString(2), id);
+				}
+			}
+		} finally {
+			c.close();
+		}
+
+		final ArrayList<Cylinder> save = new ArrayList<Cylinder>(cylinders.size());
+		final HashSet<Long> kept = new HashSet<Long>();
+		for(Cylinder cylinder : cylinders) {
+			final String serial = cylinder.getSerialNumber();
+			Long id = serial != null? bySerial.get(serial): null;
+			if(id == null) {
+				id = byName.get(cylinder.getName());
+			}
+			if(id == null) {
+				save.add(cylinder);
+			} else if(id.longValue() <= lastDefault) {
+				cylinder.setId(id.longValue());
+				kept.add(id);
+				save.add(cylinder);
+			} else {
+				Log.i(TAG, "Keeping " + cylinder.getName() + ", which was added since the database was created");
+			}
+		}
+
+		for(Long id : byName.values()) {
+			if(id.longValue() <= lastDefault && ! kept.contains(id)) {
+				db.delete(EquipmentContentProvider.TABLE_CYLINDERSIZES,
+						CylinderORMapper._ID + "=?", new String[] { id.toString() });
+			}
+		}
+		return save;
+	}
+
+	@Override
+	public void onProgress(int cylinders) {
+		if(cylinders % PROGRESS_INTERVAL == 0) {
+			showProgress(cylinders);
+		}
+	}
+
+	private void showProgress(int cylinders) {
+		final Notification n = new Notification(R.drawable.status_icon,
+				cylinders == 0? getString(R.string.restoring): null, mStarted);
+		n.flags |= Notification.FLAG_ONGOING_EVENT;
+		n.setLatestEventInfo(this, getString(R.string.restoring),
+				String.format(getString(R.string.restoring_progress), cylinders), mIntent);
+		mNotificationMgr.notify(NOTIFICATION_ID, n);
+	}
+}
@@ -1,16 +1,23 @@
 package divestoclimb.scuba.equipment.storage;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -27,8 +34,8 @@ import android.util.Xml;
 
 import com.megginson.sax.DataWriter;
 
-import divestoclimb.android.database.CursorSet;
 import divestoclimb.lib.scuba.Cylinder;
+import divestoclimb.lib.scuba.Units;
 import divestoclimb.util.Formatting;
 
 public class XmlMapper {
@@ -38,10 +45,21 @@ public class XmlMapper {
 
 	private static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMM");
 	private static final NumberFormat NUMBER_FORMAT = Formatting.buildNormalizedFormat("#.####");
+	private static final int BUFFER_SIZE = 8192;
 
 	private CylinderORMapper mORMapper;
 	private DataWriter mCurrentDocument = null;
 
+	/**
+	 * Told how far along readCylinders() is
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param cylinders The number of cylinders read from the file so far
+		 */
+		void onProgress(int cylinders);
+	}
+
 	/**
 	 * Create an XmlMapper. Constructs a CylinderORMapper using the given context.
 	 * @param ctx The context to use for the ORMapper
@@ -64,13 +82,6 @@ public class XmlMapper {
 		return new FileReader(new File(DEFAULT_PATH, DEFAULT_FILENAME));
 	}
 	
-	public Writer getDefaultWriter() throws IOException {
-		if(! DEFAULT_PATH.isDirectory() && ! DEFAULT_PATH.mkdirs()) {
-			throw new IOException("Could not write to default location " + DEFAULT_PATH.getAbsolutePath());
-		}
-		return new FileWriter(new File(DEFAULT_PATH, DEFAULT_FILENAME));
-	}
-	
 	/**
 	 * Initialize the DataWriter if we're starting a new document
 	 * @param out The Writer to direct output to
@@ -95,45 +106,60 @@ public class XmlMapper {
 		mCurrentDocument = null;
 	}
 	
+	/**
+	 * Write all cylinders as XML. Rows are written straight from the cursor
+	 * as they're read, so memory use doesn't grow with the number of
+	 * cylinders.
+	 * @param out The Writer to write to. It isn't flushed or closed.
+	 * @return true if the cylinders were written, false if they couldn't be
+	 * queried or written
+	 */
 	public boolean writeCylinders(Writer out) {
-		final CursorSet<Cylinder> cylinders;
-		try {
-			cylinders = new CursorSet<Cylinder>(mORMapper.fetchCylinders(), mORMapper);
-		} catch(NullPointerException e) {
-			// Nothing to write
-			return true;
+		final Cursor c = mORMapper.fetchCylinders();
+		if(c == null) {
+			// The query failed, which is not the same as having no cylinders
+			return false;
 		}
+		final Units u = mORMapper.getUnits();
 		boolean opened = false;
 		try {
+			final int name = c.getColumnIndexOrThrow(CylinderORMapper.NAME),
+				internalVolume = c.getColumnIndexOrThrow(CylinderORMapper.INTERNAL_VOLUME),
+				servicePressure = c.getColumnIndexOrThrow(CylinderORMapper.SERVICE_PRESSURE),
+				type = c.getColumnIndexOrThrow(CylinderORMapper.TYPE),
+				serialNumber = c.getColumnIndexOrThrow(CylinderORMapper.SERIAL_NUMBER),
+				lastHydro = c.getColumnIndexOrThrow(CylinderORMapper.LAST_HYDRO),
+				lastVisual = c.getColumnIndexOrThrow(CylinderORMapper.LAST_VISUAL);
 			opened = openWriter(out);
 			DataWriter dw = mCurrentDocument;
 			dw.startElement("cylinders");
-			for(Cylinder c : cylinders) {
+			while(c.moveToNext()) {
 				final AttributesImpl atts = new AttributesImpl();
-				final int rawType = c.getType();
-				final String type = rawType == Cylinder.TYPE_GENERIC? "generic": "specific";
-				atts.addAttribute("", "type", "", "CDATA", type);
-				atts.addAttribute("", "name", "", "CDATA", c.getName());
-				atts.addAttribute("", "internal_volume_l", "", "CDATA", NUMBER_FORMAT.format(c.getInternalVolume()));
-				atts.addAttribute("", "service_pressure_bar", "", "CDATA", NUMBER_FORMAT.format(c.getServicePressure()));
+				final int rawType = c.getInt(type);
+				atts.addAttribute("", "type", "", "CDATA", rawType == Cylinder.TYPE_GENERIC? "generic": "specific");
+				atts.addAttribute("", "name", "", "CDATA", c.getString(name));
+				atts.addAttribute("", "internal_volume_l", "", "CDATA", NUMBER_FORMAT.format(
+						u.convertCapacity(c.getFloat(internalVolume), Units.METRIC)));
+				atts.addAttribute("", "service_pressure_bar", "", "CDATA", NUMBER_FORMAT.format(
+						Math.round(u.convertPressure(c.getFloat(servicePressure), Units.METRIC))));
 				if(rawType == Cylinder.TYPE_SPECIFIC) {
-					if(c.getSerialNumber() != null) {
-						atts.addAttribute("", "serial_number", "", "CDATA", c.getSerialNumber());
+					if(! c.isNull(serialNumber)) {
+						atts.addAttribute("", "serial_number", "", "CDATA", c.getString(serialNumber));
 					}
 				}
 				dw.startElement("", "cylinder", "", atts);
 				if(rawType == Cylinder.TYPE_SPECIFIC) {
 					dw.startElement("hydro_tests");
-					if(c.getLastHydro() != null) {
+					if(! c.isNull(lastHydro)) {
 						final AttributesImpl hydroAtts = new AttributesImpl();
-						hydroAtts.addAttribute("", "date", "", "CDATA", DATE_FORMAT.format(c.getLastHydro()));
+						hydroAtts.addAttribute("", "date", "", "CDATA", toXmlDate(c.getString(lastHydro)));
 						dw.emptyElement("", "hydro_test", "", hydroAtts);
 					}
 					dw.endElement("hydro_tests");
 					dw.startElement("visual_inspections");
-					if(c.getLastHydro() != null) {
+					if(! c.isNull(lastVisual)) {
 						final AttributesImpl visualAtts = new AttributesImpl();
-						visualAtts.addAttribute("", "date", "", "CDATA", DATE_FORMAT.format(c.getLastVisual()));
+						visualAtts.addAttribute("", "date", "", "CDATA", toXmlDate(c.getString(lastVisual)));
 						dw.emptyElement("", "visual_inspection", "", visualAtts);
 					}
 					dw.endElement("visual_inspections");
@@ -145,17 +171,110 @@ public class XmlMapper {
 		} catch(SAXException e) {
 			return false;
 		} finally {
+			c.close();
 			if(opened) {
 				closeWriter();
 			}
 		}
 	}
 
+	/**
+	 * Convert a date from the database's yyyy-MM to the yyyyMM of DATE_FORMAT
+	 * without parsing it
+	 */
+	private static String toXmlDate(String dbDate) {
+		return dbDate.substring(0, 4) + dbDate.substring(5, 7);
+	}
+
+	/**
+	 * Back up all cylinders to the default location. The backup is written to
+	 * a temporary file with its CRC-32 in a trailing comment, synced, and only
+	 * then renamed over the old one, so a crash never leaves a truncated backup.
+	 * @throws IOException If the cylinders couldn't be read or the backup
+	 * couldn't be written. The old backup is left as it was.
+	 */
+	public void writeBackup() throws IOException {
+		if(! DEFAULT_PATH.isDirectory() && ! DEFAULT_PATH.mkdirs()) {
+			throw new IOException("Could not write to default location " + DEFAULT_PATH.getAbsolutePath());
+		}
+		final File tmp = new File(DEFAULT_PATH, DEFAULT_FILENAME + ".tmp");
+		final FileOutputStream fos = new FileOutputStream(tmp);
+		boolean written = false;
+		try {
+			final CRC32 crc = new CRC32();
+			final Writer out = new BufferedWriter(
+					new OutputStreamWriter(new CheckedOutputStream(fos, crc), "UTF-8"), BUFFER_SIZE);
+			if(! writeCylinders(out)) {
+				throw new IOException("Could not write cylinders");
+			}
+			out.flush();
+			// A comment after the root element is still well-formed XML
+			final Writer tail = new OutputStreamWriter(fos, "UTF-8");
+			tail.write("<!-- crc32 " + Long.toHexString(crc.getValue()) + " -->\n");
+			tail.flush();
+			fos.getFD().sync();
+			written = true;
+		} finally {
+			fos.close();
+			if(! written) {
+				tmp.delete();
+			}
+		}
+		if(! tmp.renameTo(new File(DEFAULT_PATH, DEFAULT_FILENAME))) {
+			tmp.delete();
+			throw new IOException("Could not replace backup " + DEFAULT_FILENAME);
+		}
+	}
+
 	// For parsing, the current Cylinder object being parsed
 	private Cylinder mCylinder;
 
 	private class CylinderReader implements StartElementListener, EndElementListener {
 
+		private final ProgressListener mListener;
+		private int mCount = 0;
+
+		// The IDs of the cylinders already in the database, loaded in one
+		// query before parsing so matching doesn't need one per cylinder
+		private final HashMap<String, Long> mIdsByName = new HashMap<String, Long>(),
+			mIdsBySerial = new HashMap<String, Long>();
+
+		// The cylinders read, to be saved together at the end. A cylinder
+		// that matches an earlier one in the file takes its place.
+		private final ArrayList<Cylinder> mRead = new ArrayList<Cylinder>();
+		private final HashMap<String, Integer> mReadByName = new HashMap<String, Integer>(),
+			mReadBySerial = new HashMap<String, Integer>();
+
+		/**
+		 * @param listener Told after each cylinder is read, or null
+		 * @param match Whether to give a cylinder that matches one in the
+		 * database that one's ID
+		 */
+		public CylinderReader(ProgressListener listener, boolean match) {
+			mListener = listener;
+			if(! match) {
+				return;
+			}
+			final Cursor c = mORMapper.fetchCylinderKeys();
+			if(c == null) {
+				return;
+			}
+			try {
+				final int id = c.getColumnIndexOrThrow(CylinderORMapper._ID),
+					name = c.getColumnIndexOrThrow(CylinderORMapper.NAME),
+					serial = c.getColumnIndexOrThrow(CylinderORMapper.SERIAL_NUMBER);
+				while(c.moveToNext()) {
+					final Long rowId = Long.valueOf(c.getLong(id));
+					mIdsByName.put(c.getString(name), rowId);
+					if(! c.isNull(serial)) {
+						mIdsBySerial.put(c.getString(serial), rowId);
+					}
+				}
+			} finally {
+				c.close();
+			}
+		}
+
 		@Override
 		public void start(Attributes attributes) {
 			mCylinder = new Cylinder(mORMapper.getUnits(),
@@ -172,29 +291,50 @@ public class XmlMapper {
 		
 		private void matchCylinder(Cylinder c) {
 			// Attempt to find a matching cylinder in the database. If there's a match,
-			// give this new one the existing one's ID so it gets replaced
-			Cursor matches = null;
-			// 1. Match serial number if exists
-			if(c.getSerialNumber() != null) {
-				matches = mORMapper.fetchCylindersBySerialNumber(c.getSerialNumber());
-				if(matches != null && matches.getCount() == 1) {
-					matches.moveToFirst();
-					c.setId(matches.getLong(matches.getColumnIndexOrThrow(CylinderORMapper._ID)));
-					return;
-				}
-			} else {
-				// 2. Try match by name
-				matches = mORMapper.fetchCylindersByName(c.getName());
-				if(matches != null && matches.getCount() == 1) {
-					matches.moveToFirst();
-					c.setId(matches.getLong(matches.getColumnIndexOrThrow(CylinderORMapper._ID)));
-				}
+			// give this new one the existing one's ID so it gets replaced.
+			// Match by serial number if it exists, otherwise by name.
+			final String serial = c.getSerialNumber();
+			final Long id = serial != null? mIdsBySerial.get(serial): mIdsByName.get(c.getName());
+			if(id != null) {
+				c.setId(id.longValue());
 			}
 		}
 
 		@Override
 		public void end() {
-			mORMapper.save(mCylinder);
+			final Cylinder c = mCylinder;
+			final String serial = c.getSerialNumber();
+			final HashMap<String, Integer> index = serial != null? mReadBySerial: mReadByName;
+			final String key = serial != null? serial: c.getName();
+			final Integer earlier = index.get(key);
+			if(earlier == null) {
+				index.put(key, mRead.size());
+				mRead.add(c);
+			} else {
+				// Both matched the same cylinder in the database, if any
+				mRead.set(earlier, c);
+			}
+			mCount ++;
+			if(mListener != null) {
+				mListener.onProgress(mCount);
+			}
+		}
+
+		public List<Cylinder> getCylinders() {
+			return mRead;
+		}
+
+		/**
+		 * Save all the cylinders read in one transaction. If that fails,
+		 * something in the file conflicts with the database, so save what
+		 * can be saved one at a time.
+		 */
+		public void save() {
+			if(! mORMapper.saveAll(mRead)) {
+				for(Cylinder c : mRead) {
+					mORMapper.save(c);
+				}
+			}
 		}
 	}
 	
@@ -222,10 +362,42 @@ public class XmlMapper {
 	}
 	
 	public boolean readCylinders(Reader in) {
+		return readCylinders(in, null);
+	}
+
+	/**
+	 * Read cylinders from XML, replacing any that match by serial number or
+	 * name. Nothing is saved until the whole document has been read.
+	 * @param in The Reader to read from
+	 * @param listener Told after each cylinder is read, or null
+	 * @return true if the document was read and saved
+	 */
+	public boolean readCylinders(Reader in, ProgressListener listener) {
+		final CylinderReader cr = new CylinderReader(listener, true);
+		if(! parse(in, cr)) {
+			return false;
+		}
+		cr.save();
+		return true;
+	}
+
+	/**
+	 * Read cylinders from XML without saving them or matching them to the
+	 * ones in the database. Of the cylinders with the same serial number or
+	 * name, only the last is kept.
+	 * @param in The Reader to read from
+	 * @param listener Told after each cylinder is read, or null
+	 * @return The cylinders read, or null if the document couldn't be read
+	 */
+	public List<Cylinder> parseCylinders(Reader in, ProgressListener listener) {
+		final CylinderReader cr = new CylinderReader(listener, false);
+		return parse(in, cr)? cr.getCylinders(): null;
+	}
+
+	private boolean parse(Reader in, CylinderReader cr) {
 		RootElement root = new RootElement("cylinders");
 		Element cylinder = root.getChild("cylinder");
 
-		CylinderReader cr = new CylinderReader();
 		cylinder.setStartElementListener(cr);
 		cylinder.setEndElementListener(cr);
 		cylinder.getChild("hydro_tests").getChild("hydro_test")